@@ -0,0 +1,247 @@
+/**
+ * Copyright 2025 Jan Lolling jan.lolling@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.cimt.talendcomp.jobinstanceservice;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
+
+/**
+ * Ordered feed of the create and update events of the job instances.
+ * The events are kept in a ring buffer of fixed size, every event has an increasing sequence number.
+ * Consumers read the events after the last sequence they have seen. If this sequence has been overwritten
+ * in the meantime the consumer was too slow and must resynchronize with a query.
+ * The sequence starts again with every start of the service, so consumers continue with a cursor
+ * containing the epoch (the start time of the feed) and the sequence. A cursor of another epoch is rejected.
+ * The events are serialized once when they are added and shared by all consumers.
+ * @author jan.lolling@gmail.com
+ */
+public class ChangeFeed {
+
+	private static final Counter eventsCounter = Counter.build()
+			.name("change_feed_events_total")
+			.help("Number of events added to the change feed")
+			.labelNames("type")
+			.register();
+	private static final Gauge subscribersGauge = Gauge.build()
+			.name("change_feed_subscribers")
+			.help("Number of consumers streaming the change feed")
+			.register();
+	private static final Counter disconnectsCounter = Counter.build()
+			.name("change_feed_disconnects_total")
+			.help("Number of consumers disconnected because they could not keep up with the change feed")
+			.register();
+	public static final String TYPE_CREATE = "create";
+	public static final String TYPE_UPDATE = "update";
+	private final ObjectMapper objectMapper;
+	private final Event[] ring;
+	private final long epoch = System.currentTimeMillis();
+	private long lastSequence = 0;
+	private final List<Runnable> subscribers = new CopyOnWriteArrayList<>();
+	private int maxSubscribers = 100;
+
+	/**
+	 * One entry of the feed
+	 */
+	public static class Event {
+
+		private final long sequence;
+		private final String type;
+		private final byte[] json;
+
+		private Event(long sequence, String type, byte[] json) {
+			this.sequence = sequence;
+			this.type = type;
+			this.json = json;
+		}
+
+		public long getSequence() {
+			return sequence;
+		}
+
+		public String getType() {
+			return type;
+		}
+
+		/**
+		 * @return the event as JSON object in one line: sequence, epoch, type, time and status
+		 */
+		public byte[] getJson() {
+			return json;
+		}
+
+	}
+
+	public ChangeFeed(int capacity, ObjectMapper objectMapper) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity must be greater 0");
+		}
+		if (objectMapper == null) {
+			throw new IllegalArgumentException("objectMapper cannot be null");
+		}
+		this.ring = new Event[capacity];
+		this.objectMapper = objectMapper;
+	}
+
+	/**
+	 * Adds the event and wakes the subscribers
+	 * @param type create or update
+	 * @param status the entry as created or the update as sent by the job
+	 * @return the sequence of the event
+	 * @throws Exception if the status cannot be serialized
+	 */
+	public long append(String type, JobInstanceStatus status) throws Exception {
+		ObjectNode node = objectMapper.createObjectNode();
+		node.put("type", type);
+		node.put("time", System.currentTimeMillis());
+		node.set("status", objectMapper.valueToTree(status));
+		// serialized outside of the lock, only the sequence is put in front of the fields
+		byte[] fields = objectMapper.writeValueAsBytes(node);
+		long sequence = 0;
+		synchronized (this) {
+			sequence = ++lastSequence;
+			byte[] prefix = ("{\"sequence\":" + sequence + ",\"epoch\":" + epoch + ",").getBytes(StandardCharsets.UTF_8);
+			byte[] json = new byte[prefix.length + fields.length - 1];
+			System.arraycopy(prefix, 0, json, 0, prefix.length);
+			// skip the opening brace of the fields
+			System.arraycopy(fields, 1, json, prefix.length, fields.length - 1);
+			ring[(int) ((sequence - 1) % ring.length)] = new Event(sequence, type, json);
+		}
+		eventsCounter.labels(type).inc();
+		for (Runnable subscriber : subscribers) {
+			subscriber.run();
+		}
+		return sequence;
+	}
+
+	/**
+	 * @param sequence
+	 * @return the cursor of the sequence: epoch-sequence
+	 */
+	public String buildCursor(long sequence) {
+		return epoch + "-" + sequence;
+	}
+
+	/**
+	 * @param cursor epoch-sequence as built by {@link #buildCursor(long)}, null, empty or 0 to start with the oldest event
+	 * @return the sequence of the cursor
+	 * @throws ServiceException with code 410 if the cursor has been built by a previous start of the service
+	 * @throws IllegalArgumentException if the cursor is not valid
+	 */
+	public long parseCursor(String cursor) throws ServiceException {
+		if (cursor == null || cursor.isBlank() || cursor.trim().equals("0")) {
+			return 0;
+		}
+		cursor = cursor.trim();
+		int pos = cursor.indexOf('-');
+		if (pos < 1) {
+			throw new ServiceException(410, "The cursor " + cursor + " contains no epoch, the current epoch is " + epoch);
+		}
+		long cursorEpoch = 0;
+		long sequence = 0;
+		try {
+			cursorEpoch = Long.parseLong(cursor.substring(0, pos));
+			sequence = Long.parseLong(cursor.substring(pos + 1));
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid cursor: " + cursor);
+		}
+		if (cursorEpoch != epoch) {
+			throw new ServiceException(410, "The cursor " + cursor + " belongs to the epoch " + cursorEpoch + ", the current epoch is " + epoch + " (the feed starts again after a restart of the service)");
+		}
+		return sequence;
+	}
+
+	/**
+	 * Reads the events after the given sequence of the current epoch
+	 * @param afterSequence the last sequence the consumer has seen, 0 to start with the oldest event
+	 * @param limit max number of events
+	 * @return the events in the order of their sequence, empty if there is no newer event
+	 * @throws ServiceException with code 410 if events after the sequence are already overwritten
+	 * or the sequence is unknown
+	 */
+	public synchronized List<Event> read(long afterSequence, int limit) throws ServiceException {
+		if (afterSequence > lastSequence) {
+			throw new ServiceException(410, "The sequence " + afterSequence + " is unknown, the last sequence is " + lastSequence);
+		}
+		long first = getFirstSequence();
+		if (afterSequence < first - 1 && afterSequence > 0) {
+			disconnectsCounter.inc();
+			throw new ServiceException(410, "The events after sequence " + afterSequence + " are not available anymore, the oldest sequence is " + first);
+		}
+		long from = Math.max(afterSequence + 1, first);
+		List<Event> events = new ArrayList<>();
+		for (long s = from; s <= lastSequence && events.size() < limit; s++) {
+			events.add(ring[(int) ((s - 1) % ring.length)]);
+		}
+		return events;
+	}
+
+	/**
+	 * @return the sequence of the oldest available event
+	 */
+	public synchronized long getFirstSequence() {
+		return Math.max(1, lastSequence - ring.length + 1);
+	}
+
+	public synchronized long getLastSequence() {
+		return lastSequence;
+	}
+
+	/**
+	 * Registers a callback called after every new event. The callback must not block.
+	 * @param onAppend
+	 * @return false if the max number of subscribers is reached
+	 */
+	public synchronized boolean subscribe(Runnable onAppend) {
+		if (subscribers.size() >= maxSubscribers) {
+			return false;
+		}
+		subscribers.add(onAppend);
+		subscribersGauge.set(subscribers.size());
+		return true;
+	}
+
+	public synchronized void unsubscribe(Runnable onAppend) {
+		subscribers.remove(onAppend);
+		subscribersGauge.set(subscribers.size());
+	}
+
+	public long getEpoch() {
+		return epoch;
+	}
+
+	public int getCapacity() {
+		return ring.length;
+	}
+
+	public int getMaxSubscribers() {
+		return maxSubscribers;
+	}
+
+	public void setMaxSubscribers(Integer maxSubscribers) {
+		if (maxSubscribers != null) {
+			this.maxSubscribers = maxSubscribers;
+		}
+	}
+
+}
@@ -0,0 +1,300 @@
+/**
+ * Copyright 2025 Jan Lolling jan.lolling@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.cimt.talendcomp.jobinstanceservice;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
+
+/**
+ * Accumulates counter increments of running jobs in memory.
+ * Concurrent increments of the same counter only touch a LongAdder, the totals are written
+ * periodically and at the end of the job. Only counters changed since the last flush are written.
+ * At the end of the job the storage takes the totals with {@link #remove(long)} and writes them together
+ * with the final counters of the job, increments arriving later are rejected.
+ * @author jan.lolling@gmail.com
+ */
+public class CounterAccumulator {
+
+	private static Logger log = LogManager.getLogger(CounterAccumulator.class);
+	private static final Counter incrementCounter = Counter.build()
+			.name("counter_increments_total")
+			.help("Number of counter increments received")
+			.register();
+	private static final Counter flushCounter = Counter.build()
+			.name("counter_flushed_rows_total")
+			.help("Number of counter totals written into the storage")
+			.register();
+	private static final Gauge jobsGauge = Gauge.build()
+			.name("counter_accumulator_jobs")
+			.help("Number of jobs with accumulated counters in memory")
+			.register();
+	/** jobs without increments for this time are removed after their totals are written */
+	private static final long IDLE_MILLIS = 3600000l;
+	/** number of ended jobs remembered to reject late increments */
+	private static final int MAX_ENDED_JOBS = 10000;
+	private final Map<Long, JobCounters> jobs = new ConcurrentHashMap<>();
+	private final Map<Long, Boolean> endedJobs = Collections.synchronizedMap(new LinkedHashMap<Long, Boolean>() {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, Boolean> eldest) {
+			return size() > MAX_ENDED_JOBS;
+		}
+
+	});
+	private final TotalsWriter writer;
+	private long flushIntervalMillis = 5000;
+	private volatile boolean running = false;
+	private Thread flushThread = null;
+
+	/**
+	 * Writes the current totals of the counters of a job
+	 */
+	@FunctionalInterface
+	public static interface TotalsWriter {
+
+		public void write(long jobInstanceId, List<JobDetailCounter> totals) throws Exception;
+
+	}
+
+	private static class Total {
+
+		private final String name;
+		private final String type;
+		private final LongAdder sum = new LongAdder();
+		private long flushed = 0;
+
+		private Total(String name, String type) {
+			this.name = name;
+			this.type = type;
+		}
+
+	}
+
+	private static class JobCounters {
+
+		private final Map<String, Total> totals = new ConcurrentHashMap<>();
+		private volatile long lastIncrementAt = System.currentTimeMillis();
+
+	}
+
+	public CounterAccumulator(TotalsWriter writer) {
+		if (writer == null) {
+			throw new IllegalArgumentException("writer cannot be null");
+		}
+		this.writer = writer;
+	}
+
+	/**
+	 * Adds the values of the counters to the totals of the job
+	 * @param jobInstanceId
+	 * @param increments counters with the value to add, counters without value are ignored
+	 * @throws IllegalStateException if the job has already ended
+	 */
+	public void add(long jobInstanceId, List<JobDetailCounter> increments) {
+		if (jobInstanceId <= 0) {
+			throw new IllegalArgumentException("jobInstanceId must be greater 0");
+		}
+		if (endedJobs.containsKey(jobInstanceId)) {
+			throw new IllegalStateException("Job with job_instance_id=" + jobInstanceId + " has already ended");
+		}
+		if (increments == null || increments.isEmpty()) {
+			return;
+		}
+		JobCounters jc = jobs.computeIfAbsent(jobInstanceId, k -> new JobCounters());
+		for (JobDetailCounter c : increments) {
+			if (c.getValue() != null) {
+				jc.totals.computeIfAbsent(c.getName() + "\u0000" + c.getType(), k -> new Total(c.getName(), c.getType())).sum.add(c.getValue());
+				incrementCounter.inc();
+			}
+		}
+		jc.lastIncrementAt = System.currentTimeMillis();
+		if (endedJobs.containsKey(jobInstanceId)) {
+			// the job has ended meanwhile, its totals are already taken
+			jobs.remove(jobInstanceId, jc);
+		}
+		jobsGauge.set(jobs.size());
+	}
+
+	/**
+	 * Writes the changed totals of all jobs and removes idle jobs
+	 */
+	public synchronized void flush() {
+		long now = System.currentTimeMillis();
+		for (Map.Entry<Long, JobCounters> entry : jobs.entrySet()) {
+			try {
+				boolean written = flushJob(entry.getKey(), entry.getValue());
+				if (written == false && now - entry.getValue().lastIncrementAt > IDLE_MILLIS) {
+					jobs.remove(entry.getKey(), entry.getValue());
+				}
+			} catch (Exception e) {
+				log.warn("Write counters of job_instance_id=" + entry.getKey() + " failed, retry with the next flush. Error: " + e.getMessage());
+			}
+		}
+		jobsGauge.set(jobs.size());
+	}
+
+	/**
+	 * Removes the ended job from memory, the totals will not be written by a flush anymore.
+	 * Waits for a running flush, so the totals written by it cannot overwrite the final counters.
+	 * @param jobInstanceId
+	 * @return all totals of the job, the caller writes them with the final counters
+	 */
+	public synchronized List<JobDetailCounter> remove(long jobInstanceId) {
+		endedJobs.put(jobInstanceId, Boolean.TRUE);
+		List<JobDetailCounter> list = getTotals(jobInstanceId);
+		jobs.remove(jobInstanceId);
+		jobsGauge.set(jobs.size());
+		return list;
+	}
+
+	/**
+	 * Takes back the totals removed by {@link #remove(long)} because the end of the job could not be written
+	 * @param jobInstanceId
+	 * @param totals
+	 */
+	public synchronized void restore(long jobInstanceId, List<JobDetailCounter> totals) {
+		endedJobs.remove(jobInstanceId);
+		add(jobInstanceId, totals);
+	}
+
+	/**
+	 * Merges the accumulated totals with the final counters of the job, a final counter replaces the total with the same name and type
+	 * @param totals
+	 * @param finalCounters
+	 * @return the counters to write at the end of the job
+	 */
+	public static List<JobDetailCounter> merge(List<JobDetailCounter> totals, List<JobDetailCounter> finalCounters) {
+		Map<String, JobDetailCounter> merged = new LinkedHashMap<>();
+		if (totals != null) {
+			for (JobDetailCounter c : totals) {
+				merged.put(c.getName() + "\u0000" + c.getType(), c);
+			}
+		}
+		if (finalCounters != null) {
+			for (JobDetailCounter c : finalCounters) {
+				if (c.getValue() != null) {
+					merged.put(c.getName() + "\u0000" + c.getType(), c);
+				}
+			}
+		}
+		return new ArrayList<>(merged.values());
+	}
+
+	private boolean flushJob(long jobInstanceId, JobCounters jc) throws Exception {
+		List<Total> changed = new ArrayList<>();
+		List<JobDetailCounter> list = new ArrayList<>();
+		List<Long> sums = new ArrayList<>();
+		for (Total t : jc.totals.values()) {
+			long sum = t.sum.sum();
+			if (sum != t.flushed) {
+				changed.add(t);
+				sums.add(sum);
+				list.add(new JobDetailCounter(t.name, t.type, (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, sum))));
+			}
+		}
+		if (list.isEmpty()) {
+			return false;
+		}
+		writer.write(jobInstanceId, list);
+		for (int i = 0; i < changed.size(); i++) {
+			changed.get(i).flushed = sums.get(i);
+		}
+		flushCounter.inc(list.size());
+		return true;
+	}
+
+	/**
+	 * @param jobInstanceId
+	 * @return the current totals of the job
+	 */
+	public List<JobDetailCounter> getTotals(long jobInstanceId) {
+		List<JobDetailCounter> list = new ArrayList<>();
+		JobCounters jc = jobs.get(jobInstanceId);
+		if (jc != null) {
+			for (Total t : jc.totals.values()) {
+				list.add(new JobDetailCounter(t.name, t.type, (int) t.sum.sum()));
+			}
+		}
+		return list;
+	}
+
+	public int size() {
+		return jobs.size();
+	}
+
+	/**
+	 * Starts the thread writing the totals periodically
+	 */
+	public synchronized void start() {
+		if (running || flushIntervalMillis <= 0) {
+			return;
+		}
+		running = true;
+		flushThread = new Thread(() -> {
+			while (running) {
+				try {
+					Thread.sleep(flushIntervalMillis);
+				} catch (InterruptedException e) {
+					break;
+				}
+				flush();
+			}
+		}, "counter-accumulator-flush");
+		flushThread.setDaemon(true);
+		flushThread.start();
+	}
+
+	/**
+	 * Stops the flush thread and writes the remaining totals
+	 */
+	public void stop() {
+		running = false;
+		if (flushThread != null) {
+			flushThread.interrupt();
+			try {
+				flushThread.join(5000);
+			} catch (InterruptedException e) {
+				// ignore
+			}
+			flushThread = null;
+		}
+		flush();
+	}
+
+	public long getFlushIntervalMillis() {
+		return flushIntervalMillis;
+	}
+
+	public void setFlushIntervalMillis(Long flushIntervalMillis) {
+		if (flushIntervalMillis != null) {
+			this.flushIntervalMillis = flushIntervalMillis;
+		}
+	}
+
+}
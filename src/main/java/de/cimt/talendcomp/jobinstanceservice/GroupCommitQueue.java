@@ -0,0 +1,268 @@
+/**
+ * Copyright 2025 Jan Lolling jan.lolling@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.cimt.talendcomp.jobinstanceservice;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import io.prometheus.client.Histogram;
+
+/**
+ * Collects concurrent write calls for a short time (max linger time) or until the max batch size is reached
+ * and hands them over as one batch to the executor. The executor runs the batch within one transaction.
+ * Every caller waits for its own result and gets its own job_instance_id or its own error.
+ * @author jan.lolling@gmail.com
+ */
+public class GroupCommitQueue {
+
+	private static Logger log = LogManager.getLogger(GroupCommitQueue.class);
+	private static final Histogram batchSizeHistogram = Histogram.build()
+			.name("group_commit_batch_size")
+			.help("Number of write calls sent as one batch")
+			.labelNames("operation")
+			.buckets(1, 2, 5, 10, 20, 50, 100, 200, 500)
+			.register();
+	private static final Histogram lingerHistogram = Histogram.build()
+			.name("group_commit_linger_seconds")
+			.help("Time between the first call of a batch and sending the batch")
+			.labelNames("operation")
+			.buckets(0.0005, 0.001, 0.002, 0.005, 0.01, 0.02, 0.05, 0.1)
+			.register();
+	private final LinkedBlockingQueue<Entry> queue = new LinkedBlockingQueue<>();
+	private final String operation;
+	private final BatchExecutor executor;
+	private int maxBatchSize = 50;
+	private long maxLingerMillis = 5;
+	private volatile boolean running = false;
+	private Thread worker = null;
+
+	/**
+	 * Executes a batch of write calls.
+	 * Every entry must be completed with Entry.complete or Entry.fail.
+	 */
+	@FunctionalInterface
+	public static interface BatchExecutor {
+
+		public void execute(List<Entry> batch) throws Exception;
+
+	}
+
+	/**
+	 * One write call waiting for the result of its batch
+	 */
+	public static class Entry {
+
+		private final JobInstanceStatus status;
+		private final CompletableFuture<Long> result = new CompletableFuture<>();
+		private volatile Exception error = null;
+
+		Entry(JobInstanceStatus status) {
+			this.status = status;
+		}
+
+		public JobInstanceStatus getStatus() {
+			return status;
+		}
+
+		public void complete(long jobInstanceId) {
+			result.complete(jobInstanceId);
+		}
+
+		public void fail(Exception e) {
+			error = e;
+			result.completeExceptionally(e);
+		}
+
+		/**
+		 * @return the error of this entry or null if it was successful or is not done yet
+		 */
+		public Exception getError() {
+			return error;
+		}
+
+		public boolean isDone() {
+			return result.isDone();
+		}
+
+	}
+
+	public GroupCommitQueue(String operation, BatchExecutor executor) {
+		if (operation == null || operation.isBlank()) {
+			throw new IllegalArgumentException("operation cannot be null or empty");
+		}
+		if (executor == null) {
+			throw new IllegalArgumentException("executor cannot be null");
+		}
+		this.operation = operation;
+		this.executor = executor;
+	}
+
+	public synchronized void start() {
+		if (running) {
+			return;
+		}
+		running = true;
+		worker = new Thread(this::run, "group-commit-" + operation);
+		worker.setDaemon(true);
+		worker.start();
+		log.info("Group commit for " + operation + " started with maxBatchSize=" + maxBatchSize + " maxLingerMillis=" + maxLingerMillis);
+	}
+
+	/**
+	 * Put the status into the next batch and waits until the batch is written
+	 * @param status
+	 * @return job_instance_id
+	 * @throws Exception the error of this particular status
+	 */
+	public long submit(JobInstanceStatus status) throws Exception {
+		if (running == false) {
+			throw new IllegalStateException("Group commit for " + operation + " is not running");
+		}
+		Entry entry = new Entry(status);
+		queue.put(entry);
+		if (running == false) {
+			// stopped between the check and the put, nobody else fails the entry anymore
+			failPending();
+		}
+		try {
+			return entry.result.get();
+		} catch (ExecutionException ee) {
+			Throwable cause = ee.getCause();
+			if (cause instanceof Exception) {
+				throw (Exception) cause;
+			} else {
+				throw ee;
+			}
+		}
+	}
+
+	private void run() {
+		while (running) {
+			Entry first = null;
+			try {
+				first = queue.poll(100, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				break;
+			}
+			if (first == null) {
+				continue;
+			}
+			long start = System.nanoTime();
+			long deadline = start + TimeUnit.MILLISECONDS.toNanos(maxLingerMillis);
+			List<Entry> batch = new ArrayList<>(maxBatchSize);
+			batch.add(first);
+			queue.drainTo(batch, maxBatchSize - batch.size());
+			while (batch.size() < maxBatchSize) {
+				long remaining = deadline - System.nanoTime();
+				if (remaining <= 0) {
+					break;
+				}
+				Entry next = null;
+				try {
+					next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+				} catch (InterruptedException e) {
+					running = false;
+					break;
+				}
+				if (next == null) {
+					break;
+				}
+				batch.add(next);
+				queue.drainTo(batch, maxBatchSize - batch.size());
+			}
+			lingerHistogram.labels(operation).observe((System.nanoTime() - start) / 1e9);
+			batchSizeHistogram.labels(operation).observe(batch.size());
+			executeBatch(batch);
+		}
+		failPending();
+	}
+
+	private void executeBatch(List<Entry> batch) {
+		try {
+			executor.execute(batch);
+		} catch (Exception e) {
+			log.error("Group commit batch for " + operation + " with " + batch.size() + " entries failed: " + e.getMessage(), e);
+			for (Entry entry : batch) {
+				if (entry.isDone() == false) {
+					entry.fail(e);
+				}
+			}
+		} catch (Throwable t) {
+			log.error("Group commit batch for " + operation + " failed: " + t.getMessage(), t);
+			for (Entry entry : batch) {
+				if (entry.isDone() == false) {
+					entry.fail(new Exception(t.getMessage(), t));
+				}
+			}
+		}
+	}
+
+	private void failPending() {
+		List<Entry> pending = new ArrayList<>();
+		queue.drainTo(pending);
+		for (Entry entry : pending) {
+			entry.fail(new IllegalStateException("Group commit for " + operation + " has been stopped"));
+		}
+	}
+
+	/**
+	 * Stops the worker. Batches already taken are finished, the other waiting calls will fail.
+	 */
+	public synchronized void stop() {
+		if (running == false) {
+			return;
+		}
+		running = false;
+		if (worker != null) {
+			try {
+				worker.join(5000);
+			} catch (InterruptedException e) {
+				// ignore
+			}
+			worker = null;
+		}
+		failPending();
+		log.info("Group commit for " + operation + " stopped");
+	}
+
+	public int getMaxBatchSize() {
+		return maxBatchSize;
+	}
+
+	public void setMaxBatchSize(Integer maxBatchSize) {
+		if (maxBatchSize != null && maxBatchSize > 0) {
+			this.maxBatchSize = maxBatchSize;
+		}
+	}
+
+	public long getMaxLingerMillis() {
+		return maxLingerMillis;
+	}
+
+	public void setMaxLingerMillis(Long maxLingerMillis) {
+		if (maxLingerMillis != null && maxLingerMillis >= 0) {
+			this.maxLingerMillis = maxLingerMillis;
+		}
+	}
+
+}
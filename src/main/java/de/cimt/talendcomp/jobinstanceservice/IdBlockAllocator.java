@@ -0,0 +1,102 @@
+/**
+ * Copyright 2025 Jan Lolling jan.lolling@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.cimt.talendcomp.jobinstanceservice;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import io.prometheus.client.Counter;
+
+/**
+ * Hi/lo allocator for job_instance_id values.
+ * One value (hi) taken from the database sequence reserves the block of ids hi * blockSize ... hi * blockSize + blockSize - 1,
+ * the ids of the block are handed out from memory.
+ * All services writing into the same table must use the same block size.
+ * Ids of a block not used until the service stops are lost, this leaves gaps but never duplicates.
+ * @author jan.lolling@gmail.com
+ */
+public class IdBlockAllocator {
+
+	private static final Counter blockCounter = Counter.build()
+			.name("job_instance_id_blocks_total")
+			.help("Number of job_instance_id blocks reserved from the database sequence")
+			.register();
+	private final String sequenceSelect;
+	private final int blockSize;
+	private long nextId = 0;
+	private long blockEnd = 0;
+
+	/**
+	 * @param sequenceSelect a query returning the next value of the sequence in the first column of the first row
+	 * @param blockSize number of ids reserved by one sequence value
+	 */
+	public IdBlockAllocator(String sequenceSelect, int blockSize) {
+		if (sequenceSelect == null || sequenceSelect.isBlank()) {
+			throw new IllegalArgumentException("sequenceSelect cannot be null or empty");
+		}
+		if (blockSize < 1) {
+			throw new IllegalArgumentException("blockSize must be greater 0");
+		}
+		this.sequenceSelect = sequenceSelect;
+		this.blockSize = blockSize;
+	}
+
+	/**
+	 * Returns the next id of the current block and reserves a new block if the current is exhausted.
+	 * Sequences are not transactional, the connection can be one within a running transaction.
+	 * @param conn connection used to reserve a new block
+	 * @return the next job_instance_id
+	 * @throws SQLException
+	 */
+	public synchronized long nextId(Connection conn) throws SQLException {
+		if (nextId >= blockEnd) {
+			long hi = selectNextSequenceValue(conn);
+			nextId = hi * blockSize;
+			blockEnd = nextId + blockSize;
+			blockCounter.inc();
+		}
+		return nextId++;
+	}
+
+	private long selectNextSequenceValue(Connection conn) throws SQLException {
+		try (Statement stat = conn.createStatement();
+				ResultSet rs = stat.executeQuery(sequenceSelect)) {
+			if (rs.next()) {
+				long hi = rs.getLong(1);
+				if (hi <= 0) {
+					throw new SQLException("Sequence query: " + sequenceSelect + " returns no positive value: " + hi);
+				}
+				return hi;
+			} else {
+				throw new SQLException("Sequence query: " + sequenceSelect + " returns no row");
+			}
+		}
+	}
+
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	/**
+	 * @return number of ids left in the current block
+	 */
+	public synchronized long getRemaining() {
+		return blockEnd - nextId;
+	}
+
+}
@@ -50,6 +50,8 @@ public class JDBCConnectionPool {
 	private boolean autoCommit = false;
 	private String jndiName = null;
 	private boolean enableJMX = true;
+	private boolean poolPreparedStatements = false;
+	private Integer maxOpenPreparedStatements = -1;
 	
 	/**
 	 * Constructor with necessary params
@@ -96,14 +98,14 @@ public class JDBCConnectionPool {
 		this.connectionProperties = properties.getProperty("connectionProperties");
 		this.autoCommit = "true".equals(properties.getProperty("defaultAutoCommit"));
 		this.defaultCatalog = properties.getProperty("defaultCatalog");
-		this.testOnBorrow = "true".equals(properties.getProperty(properties.getProperty("testOnBorrow")));
+		this.testOnBorrow = "true".equals(properties.getProperty("testOnBorrow"));
 		this.validationQuery = properties.getProperty("validationQuery");
 		this.initialSize = Integer.parseInt(properties.getProperty("initialSize", "0"));
 		this.maxCountConnectionsTotal = Integer.parseInt(properties.getProperty("maxTotal", "8"));
 		this.maxCountConnectionsIdle = Integer.parseInt(properties.getProperty("maxIdle", "8"));
 		this.maxWaitForConnection = Integer.parseInt(properties.getProperty("maxWaitMillis", "-1"));
 		this.numConnectionsPerCheck = Integer.parseInt(properties.getProperty("numTestsPerEvictionRun", "3"));
-		String sqls = properties.getProperty("connectionInitSqls");
+		String sqls = properties.getProperty("connectionInitSqls", "");
 		String[] array = sqls.split(";");
 		for (String sql : array) {
 			if (sql != null && sql.isBlank() == false) {
@@ -115,6 +117,8 @@ public class JDBCConnectionPool {
 		}
 		this.timeIdleConnectionIsChecked = Integer.parseInt(properties.getProperty("minEvictableIdleTimeMillis"));
 		this.timeBetweenChecks = Integer.parseInt(properties.getProperty("timeBetweenEvictionRunsMillis"));
+		this.poolPreparedStatements = "true".equals(properties.getProperty("poolPreparedStatements"));
+		this.maxOpenPreparedStatements = Integer.parseInt(properties.getProperty("maxOpenPreparedStatements", "-1"));
 	}
 
 	/**
@@ -179,6 +183,9 @@ public class JDBCConnectionPool {
 		this.dataSource.setLifo(false);
 		this.dataSource.setLogAbandoned(false);
 		this.dataSource.setLogExpiredConnections(false);
+		// prepared statements are cached per connection and keyed by the SQL text
+		this.dataSource.setPoolPreparedStatements(poolPreparedStatements);
+		this.dataSource.setMaxOpenPreparedStatements(maxOpenPreparedStatements);
 		if (connectionProperties != null) {
 			this.dataSource.setConnectionProperties(connectionProperties);
 		}
@@ -409,6 +416,14 @@ public class JDBCConnectionPool {
 		}
 	}
 
+	public int getNumIdleConnections() {
+		if (dataSource != null) {
+			return dataSource.getNumIdle();
+		} else {
+			return 0;
+		}
+	}
+
 	public boolean isAutoCommit() {
 		return autoCommit;
 	}
@@ -437,6 +452,33 @@ public class JDBCConnectionPool {
 		}
 	}
 
+	public boolean isPoolPreparedStatements() {
+		return poolPreparedStatements;
+	}
+
+	public void setPoolPreparedStatements(boolean poolPreparedStatements) {
+		this.poolPreparedStatements = poolPreparedStatements;
+	}
+
+	public Integer getMaxOpenPreparedStatements() {
+		return maxOpenPreparedStatements;
+	}
+
+	/**
+	 * max number of pooled prepared statements per connection<br>
+	 * requires poolPreparedStatements = true<br>
+	 * default = -1 (unlimited)
+	 * 
+	 * @param maxOpenPreparedStatements
+	 */
+	public void setMaxOpenPreparedStatements(Integer maxOpenPreparedStatements) {
+		if (maxOpenPreparedStatements == null) {
+			throw new IllegalArgumentException("maxOpenPreparedStatements can not be null");
+		} else {
+			this.maxOpenPreparedStatements = maxOpenPreparedStatements;
+		}
+	}
+
 	public boolean isEnableJMX() {
 		return enableJMX;
 	}
@@ -11,17 +11,50 @@ import java.sql.Statement;
 import java.sql.Timestamp;
 import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import io.prometheus.client.Gauge;
+import io.prometheus.client.Histogram;
+
 public class JDBCJobInstanceStorage implements JobInstanceStorage {
 	
 	private static Logger log = LogManager.getLogger(JDBCJobInstanceStorage.class);
 	private Properties properties = new Properties();
 	private JDBCConnectionPool connectionPool = null;
+	private JDBCConnectionPool replicaConnectionPool = null;
+	public static final String ROUTE_PRIMARY = "primary";
+	public static final String ROUTE_REPLICA = "replica";
+	private static final String REPLICA_PROPERTY_PREFIX = "replica.";
+	private static final Gauge poolActiveGauge = Gauge.build()
+			.name("jdbc_pool_active_connections")
+			.help("Number of borrowed connections of the pool")
+			.labelNames("route")
+			.register();
+	private static final Gauge poolIdleGauge = Gauge.build()
+			.name("jdbc_pool_idle_connections")
+			.help("Number of idle connections of the pool")
+			.labelNames("route")
+			.register();
+	private static final Histogram poolBorrowHistogram = Histogram.build()
+			.name("jdbc_pool_borrow_seconds")
+			.help("Time to borrow a connection from the pool")
+			.labelNames("route")
+			.register();
+	private long readYourWritesMillis = 5000;
+	private final Map<Long, Long> recentWrites = new ConcurrentHashMap<>();
+	private static final int MAX_RECENT_WRITES_BEFORE_CLEANUP = 10000;
 	public static final String TABLE_JOB_INSTANCE_STATUS = "JOB_INSTANCE_STATUS";
 	public static final String VIEW_JOB_INSTANCE_STATUS = "JOB_INSTANCE_STATUS_VIEW";
 	public static final String JOB_INSTANCE_ID = "JOB_INSTANCE_ID";
@@ -63,7 +96,29 @@ public class JDBCJobInstanceStorage implements JobInstanceStorage {
 	private boolean autoIncrementColumn = true;
 	private boolean useGeneratedJID = false;
 	private static JID jid = new JID();
+	private final List<JobInstanceListener> listeners = new CopyOnWriteArrayList<>();
+	private long jidTimeToleranceMillis = 60000l;
+	private IdBlockAllocator idAllocator = null;
 	private int messageMaxLength = 1000;
+	private boolean returnGeneratedKeys = true;
+	private String insertStatement = null;
+	private String updateStatement = null;
+	private String counterInsertStatement = null;
+	private String counterUpdateStatement = null;
+	private String selectByGuidStatement = null;
+	private String selectByIdStatement = null;
+	private GroupCommitQueue createQueue = null;
+	private GroupCommitQueue updateQueue = null;
+	private JobGuidCache guidCache = null;
+	private JobInstanceStatusCache statusCache = null;
+	private RunningJobIndex runningIndex = null;
+	private CounterAccumulator counterAccumulator = null;
+	private RetentionPurger retentionPurger = null;
+	private int fetchSize = 1000;
+	private static final int MAX_CACHED_SELECT_STATEMENTS = 1000;
+	private static final int MAX_GUIDS_PER_SELECT = 500;
+	private static final int MAX_IDS_PER_SELECT = 500;
+	private final Map<String, String> selectStatementCache = new ConcurrentHashMap<>();
 	
 	/**
 	 * Initialize the storage by a properties file.
@@ -71,41 +126,710 @@ public class JDBCJobInstanceStorage implements JobInstanceStorage {
 	 * Please refer https://commons.apache.org/proper/commons-dbcp/configuration.html
 	 * The property defaultCatalog have to set for the database containing the tables
 	 * The additional property schema is need for the database schema in which the tables exists
+	 * The SQL statements of the write path are built once here.
 	 * @param propertiesFile
 	 * @throws Exception
 	 */
 	public void initialize(String propertiesFile) throws Exception {
+		initialize(loadProperties(propertiesFile));
+	}
+
+	/**
+	 * Loads the properties file
+	 * @param propertiesFile
+	 * @return the properties
+	 * @throws Exception
+	 */
+	public static Properties loadProperties(String propertiesFile) throws Exception {
 		File f = new File(propertiesFile);
 		if (f.exists() == false) {
 			throw new Exception("Properties file: " + f.getAbsolutePath() + " does not exist!");
 		}
-		try {
-			properties.load(new FileReader(f, Charset.forName("UTF-8")));
+		Properties properties = new Properties();
+		try (FileReader reader = new FileReader(f, Charset.forName("UTF-8"))) {
+			properties.load(reader);
 		} catch (Exception e) {
 			throw new Exception("Load properties from file: " + f.getAbsolutePath() + " failed: " + e.getMessage(), e);
 		}
+		return properties;
+	}
+
+	/**
+	 * Initialize the storage by the already loaded properties
+	 * @param properties
+	 * @throws Exception
+	 */
+	public void initialize(Properties properties) throws Exception {
+		this.properties = properties;
 		// setup connection pool
 		connectionPool = new JDBCConnectionPool(properties);
 		connectionPool.initializePool();
+		registerPoolMetrics(ROUTE_PRIMARY, connectionPool);
+		if (properties.getProperty(REPLICA_PROPERTY_PREFIX + "url") != null) {
+			replicaConnectionPool = new JDBCConnectionPool(buildReplicaProperties(properties));
+			replicaConnectionPool.initializePool();
+			registerPoolMetrics(ROUTE_REPLICA, replicaConnectionPool);
+			readYourWritesMillis = Long.parseLong(properties.getProperty("readYourWritesMillis", String.valueOf(readYourWritesMillis)));
+			log.info("Queries will be sent to the read replica: " + properties.getProperty(REPLICA_PROPERTY_PREFIX + "url"));
+		}
+		fetchSize = Integer.parseInt(properties.getProperty("fetchSize", String.valueOf(fetchSize)));
+		String schema = properties.getProperty("schema");
+		if (schema != null && schema.isBlank() == false) {
+			schemaName = schema.trim();
+		}
+		sequenceExpression = properties.getProperty("sequenceExpression");
+		autoIncrementColumn = Boolean.parseBoolean(properties.getProperty("autoIncrementColumn", "true"));
+		useGeneratedJID = Boolean.parseBoolean(properties.getProperty("useGeneratedJID", "false"));
+		messageMaxLength = Integer.parseInt(properties.getProperty("messageMaxLength", String.valueOf(messageMaxLength)));
+		jidTimeToleranceMillis = Long.parseLong(properties.getProperty("jidTimeToleranceMillis", String.valueOf(jidTimeToleranceMillis)));
+		if (autoIncrementColumn == false && useGeneratedJID == false && (sequenceExpression == null || sequenceExpression.isBlank())) {
+			throw new Exception("Property sequenceExpression is mandatory if autoIncrementColumn=false and useGeneratedJID=false");
+		}
+		int idBlockSize = Integer.parseInt(properties.getProperty("idBlockSize", "0"));
+		if (idBlockSize > 0 && autoIncrementColumn == false && useGeneratedJID == false) {
+			idAllocator = new IdBlockAllocator(properties.getProperty("idBlockSequenceSelect", "select " + sequenceExpression), idBlockSize);
+			log.info("Reserve job_instance_id blocks of size " + idBlockSize + " from the sequence");
+		}
+		returnGeneratedKeys = autoIncrementColumn && useGeneratedJID == false && probeGeneratedKeys();
+		prepareStatements();
+		if (Boolean.parseBoolean(properties.getProperty("verifySchema", "true"))) {
+			verifySchema(Boolean.parseBoolean(properties.getProperty("createMissingIndexes", "false")));
+		}
+		int guidCacheMaxSize = Integer.parseInt(properties.getProperty("guidCacheMaxSize", "10000"));
+		if (guidCacheMaxSize > 0) {
+			guidCache = new JobGuidCache(guidCacheMaxSize, Long.parseLong(properties.getProperty("guidCacheTtlSeconds", "3600")) * 1000l);
+		}
+		int statusCacheMaxEntries = Integer.parseInt(properties.getProperty("statusCacheMaxEntries", "10000"));
+		if (statusCacheMaxEntries > 0) {
+			statusCache = new JobInstanceStatusCache(statusCacheMaxEntries, Long.parseLong(properties.getProperty("statusCacheMaxBytes", "67108864")));
+		}
+		counterAccumulator = new CounterAccumulator((jobInstanceId, totals) -> runInTransaction(conn -> {
+			upsertCounters(conn, Collections.singletonMap(jobInstanceId, totals));
+			return null;
+		}));
+		counterAccumulator.setFlushIntervalMillis(Long.valueOf(properties.getProperty("counterFlushIntervalMillis", String.valueOf(counterAccumulator.getFlushIntervalMillis()))));
+		counterAccumulator.start();
+		retentionPurger = new RetentionPurger(this);
+		retentionPurger.configure(properties);
+		retentionPurger.start();
+		if (Boolean.parseBoolean(properties.getProperty("runningIndexEnabled", "false"))) {
+			setupRunningIndex();
+		}
+		if (Boolean.parseBoolean(properties.getProperty("groupCommitEnabled", "false"))) {
+			setupGroupCommit(
+					Integer.parseInt(properties.getProperty("groupCommitMaxBatchSize", "50")),
+					Long.parseLong(properties.getProperty("groupCommitMaxLingerMillis", "5")));
+		}
+	}
+	
+	/**
+	 * The replica pool takes all properties of the primary pool, 
+	 * properties with the prefix replica. overwrite them.
+	 * @param properties
+	 * @return properties for the replica pool
+	 */
+	static Properties buildReplicaProperties(Properties properties) {
+		Properties replicaProperties = new Properties();
+		for (String key : properties.stringPropertyNames()) {
+			if (key.startsWith(REPLICA_PROPERTY_PREFIX) == false) {
+				replicaProperties.setProperty(key, properties.getProperty(key));
+			}
+		}
+		for (String key : properties.stringPropertyNames()) {
+			if (key.startsWith(REPLICA_PROPERTY_PREFIX)) {
+				replicaProperties.setProperty(key.substring(REPLICA_PROPERTY_PREFIX.length()), properties.getProperty(key));
+			}
+		}
+		return replicaProperties;
+	}
+
+	private static void registerPoolMetrics(String route, JDBCConnectionPool pool) {
+		poolActiveGauge.setChild(new Gauge.Child() {
+			
+			@Override
+			public double get() {
+				return pool.getNumActiveConnections();
+			}
+			
+		}, route);
+		poolIdleGauge.setChild(new Gauge.Child() {
+			
+			@Override
+			public double get() {
+				return pool.getNumIdleConnections();
+			}
+			
+		}, route);
+	}
+
+	/**
+	 * Checks once if the driver can return generated keys.
+	 * Snowflake and Exasol database does not support the return of generated keys,
+	 * in this case the job_instance_id will be selected by the job_guid.
+	 * @return true if the driver supports getGeneratedKeys
+	 */
+	private boolean probeGeneratedKeys() {
+		try (Connection conn = getConnection()) {
+			boolean supported = conn.getMetaData().supportsGetGeneratedKeys();
+			log.info("Database supports generated keys: " + supported);
+			return supported;
+		} catch (Exception e) {
+			log.warn("Check support of generated keys failed, select job_instance_id by job_guid instead. Error: " + e.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * Checks the indexes of the status and counter table and writes the readiness report into the log.
+	 * A failed check does not prevent the start of the service.
+	 * @param createMissingIndexes true to create the missing indexes
+	 * @return the result of every required index, empty if the database does not use indexes or the check failed
+	 */
+	public List<SchemaVerifier.IndexCheck> verifySchema(boolean createMissingIndexes) {
+		SchemaVerifier verifier = new SchemaVerifier(schemaName, statusTableName, counterTableName);
+		try (Connection conn = getConnection()) {
+			if (SchemaVerifier.supportsIndexes(conn) == false) {
+				log.info("Database " + conn.getMetaData().getDatabaseProductName() + " does not use indexes, skip schema verification");
+				return Collections.emptyList();
+			}
+			List<SchemaVerifier.IndexCheck> checks = verifier.verify(conn);
+			if (createMissingIndexes && verifier.createMissingIndexes(conn, checks) > 0) {
+				checks = verifier.verify(conn);
+			}
+			String report = SchemaVerifier.buildReport(checks);
+			boolean ready = true;
+			for (SchemaVerifier.IndexCheck check : checks) {
+				if (check.isReady() == false) {
+					ready = false;
+				}
+			}
+			if (ready) {
+				log.info(report);
+			} else {
+				log.warn(report);
+			}
+			return checks;
+		} catch (Exception e) {
+			log.warn("Schema verification failed: " + e.getMessage(), e);
+			return Collections.emptyList();
+		}
+	}
+
+	/**
+	 * Builds all statements depending on the schema and the job_instance_id mode.
+	 * Must be called again if one of these settings changes.
+	 */
+	private void prepareStatements() {
+		insertStatement = buildInsertStatement();
+		updateStatement = buildUpdateStatement();
+		counterInsertStatement = buildCounterInsertStatement();
+		counterUpdateStatement = buildCounterUpdateStatement();
+		selectByGuidStatement = buildSelectByGuidStatement();
+		selectByIdStatement = buildSelectByIdStatement();
+		selectStatementCache.clear();
+	}
+
+	/**
+	 * Creates the index of the running jobs and fills it with the running jobs from the primary database.
+	 * Queries for running jobs will be answered by the index.
+	 * The index is only correct if this service is the only one writing into the database.
+	 * @throws Exception
+	 */
+	public void setupRunningIndex() throws Exception {
+		RunningJobIndex index = new RunningJobIndex();
+		JobInstanceFilter filter = new JobInstanceFilter();
+		filter.setRunning(true);
+		List<Object> params = new ArrayList<>();
+		String sql = getSelectStatement("*", collectParameters(filter, params), filter);
+		try (Connection conn = getConnection()) {
+			executeSelect(conn, sql, params, filter, rs -> index.add(getJobInstanceStatusFromResultSet(rs)));
+		}
+		runningIndex = index;
+		log.info("Running job index created with " + index.size() + " running jobs");
+	}
+
+	/**
+	 * Starts the group commit for createEntry and updateEntry.
+	 * Concurrent calls are collected until maxLingerMillis has been elapsed or maxBatchSize is reached
+	 * and written as one JDBC batch in one transaction.
+	 * @param maxBatchSize
+	 * @param maxLingerMillis
+	 */
+	public void setupGroupCommit(int maxBatchSize, long maxLingerMillis) {
+		createQueue = new GroupCommitQueue("create", this::executeCreateBatch);
+		createQueue.setMaxBatchSize(maxBatchSize);
+		createQueue.setMaxLingerMillis(maxLingerMillis);
+		createQueue.start();
+		updateQueue = new GroupCommitQueue("update", this::executeUpdateBatch);
+		updateQueue.setMaxBatchSize(maxBatchSize);
+		updateQueue.setMaxLingerMillis(maxLingerMillis);
+		updateQueue.start();
 	}
 	
+	/**
+	 * @return the properties used to initialize the storage
+	 */
+	public Properties getProperties() {
+		return properties;
+	}
+
 	public Connection getConnection() throws Exception {
-		return connectionPool.borrowConnection();
+		return borrowConnection(ROUTE_PRIMARY, connectionPool);
+	}
+
+	/**
+	 * @return a connection to the read replica or to the primary database if there is no replica configured
+	 * @throws Exception
+	 */
+	public Connection getReadConnection() throws Exception {
+		if (replicaConnectionPool != null) {
+			return borrowConnection(ROUTE_REPLICA, replicaConnectionPool);
+		} else {
+			return getConnection();
+		}
+	}
+
+	private Connection borrowConnection(String route, JDBCConnectionPool pool) throws Exception {
+		Histogram.Timer timer = poolBorrowHistogram.labels(route).startTimer();
+		try {
+			return pool.borrowConnection();
+		} finally {
+			timer.observeDuration();
+		}
+	}
+
+	/**
+	 * Remembers the write to send reads of this entry to the primary database within the read-your-writes window
+	 * @param jobInstanceId
+	 */
+	private void entryWritten(long jobInstanceId) {
+		if (replicaConnectionPool != null && readYourWritesMillis > 0) {
+			long now = System.currentTimeMillis();
+			recentWrites.put(jobInstanceId, now);
+			if (recentWrites.size() > MAX_RECENT_WRITES_BEFORE_CLEANUP) {
+				recentWrites.values().removeIf(writtenAt -> now - writtenAt > readYourWritesMillis);
+			}
+		}
+	}
+
+	/**
+	 * @param jobInstanceId
+	 * @return true if the entry has been written within the read-your-writes window
+	 */
+	private boolean isRecentlyWritten(long jobInstanceId) {
+		Long writtenAt = recentWrites.get(jobInstanceId);
+		if (writtenAt != null) {
+			if (System.currentTimeMillis() - writtenAt <= readYourWritesMillis) {
+				return true;
+			}
+			recentWrites.remove(jobInstanceId, writtenAt);
+		}
+		return false;
 	}
 
 	@Override
 	public long createEntry(JobInstanceStatus jobInfo) throws Exception {
-		if (jobInfo.isRootJob() == false && jobInfo.getProcessInstanceId() == 0) {
-			long id = getJobInstanceIdByJobGuid(jobInfo.getRootJobGuid());
-			if (id > 0) {
-				jobInfo.setProcessInstanceId(id);
-			} else if (jobInfo.getParentJobGuid() != null && jobInfo.getParentJobGuid().isEmpty() == false) {
-				id = getJobInstanceIdByJobGuid(jobInfo.getParentJobGuid());
-				if (id > 0) {
+		if (createQueue != null) {
+			return createQueue.submit(jobInfo);
+		} else {
+			resolveProcessInstanceId(jobInfo);
+			checkCreateAttributes(jobInfo);
+			return insertEntry(jobInfo);
+		}
+	}
+
+	/**
+	 * Inserts one entry with its own connection
+	 * @param jobInfo
+	 * @return job_instance_id
+	 * @throws Exception
+	 */
+	private long insertEntry(JobInstanceStatus jobInfo) throws Exception {
+		log.debug(insertStatement);
+		long currentJobInstanceId = runInTransaction(conn -> {
+			PreparedStatement psInsert = conn.prepareStatement(insertStatement,
+					(returnGeneratedKeys ? Statement.RETURN_GENERATED_KEYS : Statement.NO_GENERATED_KEYS));
+			long genJid = -1;
+			if (isJobInstanceIdBound()) {
+				genJid = nextJobInstanceId(conn);
+				log.debug("Use generated job_instance_id=" + genJid);
+			}
+			setInsertParameters(psInsert, jobInfo, genJid);
+			int count = psInsert.executeUpdate();
+			if (count == 0) {
+				throw new SQLException("No dataset inserted!");
+			}
+			long id = -1;
+			if (isJobInstanceIdBound()) {
+				id = genJid;
+			} else if (returnGeneratedKeys) {
+				// sometimes this does not work
+				ResultSet rsKeys = psInsert.getGeneratedKeys();
+				if (rsKeys.next()) {
+					id = rsKeys.getLong(1);
+				}
+				rsKeys.close();
+			} else {
+				id = selectJobInstanceIdByJobGuid(conn, jobInfo.getGuid());
+			}
+			psInsert.close();
+			if (id <= 0) {
+				throw new SQLException("No job_instances entry found for jobGuid=" + jobInfo.getGuid());
+			}
+			return id;
+		});
+		jobInfo.setJobInstanceId(currentJobInstanceId);
+		entryCreated(jobInfo);
+		return currentJobInstanceId;
+	}
+
+	/**
+	 * @return true if the job_instance_id is created by the service and bound in the insert statement
+	 */
+	private boolean isJobInstanceIdBound() {
+		return useGeneratedJID || idAllocator != null;
+	}
+
+	/**
+	 * The JID contains the time the entry was created, a started_after/started_before window can be
+	 * restricted on the primary key in addition to the JOB_STARTED_AT bounds.
+	 * The tolerance covers the time between the start of the job and the creation of the entry.
+	 * @return true if the time window is also applied as range of the job_instance_id
+	 */
+	private boolean isJIDRangePushdown() {
+		return useGeneratedJID && jidTimeToleranceMillis >= 0;
+	}
+
+	/**
+	 * Creates the job_instance_id by the JID generator or takes it from the reserved id block
+	 * @param conn connection used to reserve a new id block if necessary
+	 * @return the job_instance_id
+	 * @throws SQLException
+	 */
+	private long nextJobInstanceId(Connection conn) throws SQLException {
+		if (useGeneratedJID) {
+			return jid.createJID();
+		} else {
+			return idAllocator.nextId(conn);
+		}
+	}
+
+	/**
+	 * @return the purger enforcing the retention policy
+	 */
+	public RetentionPurger getRetentionPurger() {
+		return retentionPurger;
+	}
+
+	/**
+	 * Selects the next chunk of job instances to purge ordered by the job_instance_id.
+	 * Running jobs are only selected if they are started before runningStartedBefore.
+	 * @param startedBefore
+	 * @param runningStartedBefore running jobs started before are treated as stale, null to keep all running jobs
+	 * @param jobName only this job or null for all jobs
+	 * @param excludedJobNames jobs not to select or null
+	 * @param afterJobInstanceId the last job_instance_id of the previous chunk
+	 * @param limit chunk size
+	 * @return the job_guids by the job_instance_ids in the order of the job_instance_ids
+	 * @throws Exception
+	 */
+	Map<Long, String> selectPurgeCandidates(Timestamp startedBefore, Timestamp runningStartedBefore, String jobName, Set<String> excludedJobNames, long afterJobInstanceId, int limit) throws Exception {
+		StringBuilder sb = new StringBuilder();
+		sb.append("select ");
+		sb.append(JOB_INSTANCE_ID);
+		sb.append(",");
+		sb.append(JOB_GUID);
+		sb.append(" from ");
+		sb.append(getStatusTable());
+		sb.append(" where ");
+		sb.append(JOB_STARTED_AT);
+		sb.append(" < ? and ");
+		sb.append(JOB_INSTANCE_ID);
+		sb.append(" > ?");
+		List<Object> params = new ArrayList<>();
+		params.add(startedBefore);
+		params.add(afterJobInstanceId);
+		if (runningStartedBefore != null) {
+			sb.append(" and (");
+			sb.append(JOB_ENDED_AT);
+			sb.append(" is not null or ");
+			sb.append(JOB_STARTED_AT);
+			sb.append(" < ?)");
+			params.add(runningStartedBefore);
+		} else {
+			sb.append(" and ");
+			sb.append(JOB_ENDED_AT);
+			sb.append(" is not null");
+		}
+		if (jobName != null) {
+			sb.append(" and ");
+			sb.append(JOB_NAME);
+			sb.append(" = ?");
+			params.add(jobName);
+		}
+		if (excludedJobNames != null && excludedJobNames.isEmpty() == false) {
+			sb.append(" and ");
+			sb.append(JOB_NAME);
+			sb.append(" not in (");
+			boolean first = true;
+			for (String name : excludedJobNames) {
+				if (first == false) {
+					sb.append(",");
+				}
+				first = false;
+				sb.append("?");
+				params.add(name);
+			}
+			sb.append(")");
+		}
+		sb.append(" order by ");
+		sb.append(JOB_INSTANCE_ID);
+		Map<Long, String> candidates = new LinkedHashMap<>();
+		try (Connection conn = getConnection();
+				PreparedStatement psSelect = conn.prepareStatement(sb.toString())) {
+			psSelect.setMaxRows(limit);
+			setParameters(psSelect, params);
+			try (ResultSet rs = psSelect.executeQuery()) {
+				while (rs.next()) {
+					candidates.put(rs.getLong(1), rs.getString(2));
+				}
+			}
+		}
+		return candidates;
+	}
+
+	/**
+	 * Deletes the counters and the status entries of the job instances in one transaction
+	 * and removes them from the caches
+	 * @param candidates the job_guids by the job_instance_ids
+	 * @return number of deleted counter rows and status rows
+	 * @throws Exception
+	 */
+	int[] deleteEntries(Map<Long, String> candidates) throws Exception {
+		List<Long> jobInstanceIds = new ArrayList<>(candidates.keySet());
+		int[] deleted = runInTransaction(conn -> {
+			int[] counts = new int[2];
+			counts[0] = deleteByIds(conn, getCounterTable(), jobInstanceIds);
+			counts[1] = deleteByIds(conn, getStatusTable(), jobInstanceIds);
+			return counts;
+		});
+		for (Map.Entry<Long, String> entry : candidates.entrySet()) {
+			if (statusCache != null) {
+				statusCache.remove(entry.getKey());
+			}
+			if (runningIndex != null) {
+				runningIndex.remove(entry.getKey());
+			}
+			if (guidCache != null && entry.getValue() != null) {
+				// a child job must not resolve the guid of a purged parent
+				guidCache.remove(entry.getValue());
+			}
+		}
+		return deleted;
+	}
+
+	private int deleteByIds(Connection conn, String table, List<Long> jobInstanceIds) throws SQLException {
+		StringBuilder sb = new StringBuilder();
+		sb.append("delete from ");
+		sb.append(table);
+		sb.append(" where ");
+		sb.append(JOB_INSTANCE_ID);
+		sb.append(" in (");
+		for (int i = 0; i < jobInstanceIds.size(); i++) {
+			if (i > 0) {
+				sb.append(",");
+			}
+			sb.append("?");
+		}
+		sb.append(")");
+		try (PreparedStatement psDelete = conn.prepareStatement(sb.toString())) {
+			for (int i = 0; i < jobInstanceIds.size(); i++) {
+				psDelete.setLong(i + 1, jobInstanceIds.get(i));
+			}
+			return psDelete.executeUpdate();
+		}
+	}
+
+	/**
+	 * Work to be done within one transaction
+	 * @param <T> type of the result
+	 */
+	@FunctionalInterface
+	private static interface TransactionWork<T> {
+
+		public T execute(Connection conn) throws Exception;
+
+	}
+
+	/**
+	 * Runs the work on one connection within one transaction.
+	 * The transaction is committed if the work succeeds and rolled back if it fails,
+	 * regardless of the defaultAutoCommit setting of the pool.
+	 * The auto commit state of the connection will be restored before the connection is returned to the pool.
+	 * @param work
+	 * @return result of the work
+	 * @throws Exception the error of the work
+	 */
+	private <T> T runInTransaction(TransactionWork<T> work) throws Exception {
+		try (Connection conn = getConnection()) {
+			return runInTransaction(conn, work);
+		}
+	}
+
+	private <T> T runInTransaction(Connection conn, TransactionWork<T> work) throws Exception {
+		boolean autoCommit = conn.getAutoCommit();
+		if (autoCommit) {
+			conn.setAutoCommit(false);
+		}
+		try {
+			T result = work.execute(conn);
+			conn.commit();
+			return result;
+		} catch (Exception e) {
+			try {
+				conn.rollback();
+			} catch (SQLException re) {
+				log.warn("Rollback failed: " + re.getMessage());
+			}
+			throw e;
+		} finally {
+			if (autoCommit) {
+				conn.setAutoCommit(true);
+			}
+		}
+	}
+
+	/**
+	 * Sets the root job_instance_id for child jobs by the root or parent job guid
+	 * @param jobInfo
+	 * @throws Exception
+	 */
+	private void resolveProcessInstanceId(JobInstanceStatus jobInfo) throws Exception {
+		resolveProcessInstanceIds(Collections.singletonList(jobInfo));
+	}
+
+	/**
+	 * Sets the root job_instance_id for all child jobs of the list by the root or parent job guid.
+	 * Every guid is resolved only once, guids not found in the cache are selected with one query.
+	 * @param list
+	 * @throws Exception
+	 */
+	private void resolveProcessInstanceIds(List<JobInstanceStatus> list) throws Exception {
+		Map<String, Long> ids = new HashMap<>();
+		Set<String> missingGuids = new LinkedHashSet<>();
+		for (JobInstanceStatus jobInfo : list) {
+			if (jobInfo.isRootJob() == false && jobInfo.getProcessInstanceId() == 0) {
+				if (lookupCachedJobInstanceId(jobInfo.getRootJobGuid(), ids) == false) {
+					missingGuids.add(jobInfo.getRootJobGuid());
+					String parentGuid = jobInfo.getParentJobGuid();
+					if (parentGuid != null && parentGuid.isEmpty() == false && lookupCachedJobInstanceId(parentGuid, ids) == false) {
+						missingGuids.add(parentGuid);
+					}
+				}
+			}
+		}
+		if (missingGuids.isEmpty() == false) {
+			try (Connection conn = getConnection()) {
+				selectJobInstanceIdsByJobGuids(conn, new ArrayList<>(missingGuids), ids);
+			} catch (Exception e) {
+				throw new Exception("Select job_instance_id for " + missingGuids.size() + " job guids failed: " + e.getMessage(), e);
+			}
+			if (guidCache != null) {
+				for (String guid : missingGuids) {
+					Long id = ids.get(guid);
+					if (id != null) {
+						guidCache.put(guid, id);
+					}
+				}
+			}
+		}
+		for (JobInstanceStatus jobInfo : list) {
+			if (jobInfo.isRootJob() == false && jobInfo.getProcessInstanceId() == 0) {
+				Long id = ids.get(jobInfo.getRootJobGuid());
+				if (id == null && jobInfo.getParentJobGuid() != null) {
+					id = ids.get(jobInfo.getParentJobGuid());
+				}
+				if (id != null && id > 0) {
 					jobInfo.setProcessInstanceId(id);
 				}
 			}
 		}
+	}
+
+	/**
+	 * Called after the entry has been created and committed
+	 * @param jobInfo with the new job_instance_id
+	 */
+	private void entryCreated(JobInstanceStatus jobInfo) {
+		if (guidCache != null) {
+			guidCache.put(jobInfo.getGuid(), jobInfo.getJobInstanceId());
+		}
+		if (statusCache != null) {
+			statusCache.putCreated(jobInfo);
+		}
+		if (runningIndex != null) {
+			runningIndex.add(JobInstanceStatusCache.copyCreateAttributes(jobInfo));
+		}
+		entryWritten(jobInfo.getJobInstanceId());
+	}
+
+	/**
+	 * Called after the update has been committed
+	 * @param jobInfo
+	 * @param endedAt the end time written into the database
+	 */
+	private void entryUpdated(JobInstanceStatus jobInfo, Timestamp endedAt) {
+		if (statusCache != null) {
+			statusCache.applyUpdate(jobInfo, endedAt, enforceTextLength(jobInfo.getReturnMessage(), messageMaxLength, 1));
+		}
+		if (runningIndex != null) {
+			runningIndex.remove(jobInfo.getJobInstanceId());
+		}
+		entryWritten(jobInfo.getJobInstanceId());
+		if (isListenerInterested(jobInfo.getJobInstanceId())) {
+			try {
+				// usually taken from the status cache, it contains the entry already with the update
+				JobInstanceStatus ended = getJobInstanceStatus(jobInfo.getJobInstanceId());
+				if (ended != null) {
+					for (JobInstanceListener listener : listeners) {
+						if (listener.isInterested(ended.getJobInstanceId())) {
+							listener.entryEnded(ended);
+						}
+					}
+				}
+			} catch (Exception e) {
+				log.warn("Notify listeners about the end of job_instance_id=" + jobInfo.getJobInstanceId() + " failed: " + e.getMessage());
+			}
+		}
+	}
+
+	private boolean isListenerInterested(long jobInstanceId) {
+		for (JobInstanceListener listener : listeners) {
+			if (listener.isInterested(jobInstanceId)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public void addListener(JobInstanceListener listener) {
+		if (listener == null) {
+			throw new IllegalArgumentException("listener cannot be null");
+		}
+		listeners.add(listener);
+	}
+
+	static void checkCreateAttributes(JobInstanceStatus jobInfo) {
+		if (jobInfo.getGuid() == null) {
+			throw new IllegalStateException("Job guid is null. Please call setJobGuid(String) before!");
+		}
+		if (jobInfo.getStartDate() == null) {
+			throw new IllegalArgumentException("Job start date is null. Please call setJobStartedAt(long) before!");
+		}
+	}
+
+	private String buildInsertStatement() {
 		StringBuilder sb = new StringBuilder();
 		sb.append("insert into ");
 		sb.append(getStatusTable());
@@ -149,8 +873,7 @@ public class JDBCJobInstanceStorage implements JobInstanceStorage {
 		sb.append(JOB_DISPLAY_NAME); // 18
 		sb.append(")");
 		sb.append(" values (");
-		int paramIndex = 1;
-		if (useGeneratedJID) {
+		if (isJobInstanceIdBound()) {
 			sb.append("?,");
 		} else {
 			if (autoIncrementColumn == false) {
@@ -159,108 +882,247 @@ public class JDBCJobInstanceStorage implements JobInstanceStorage {
 				sb.append("),");
 			}
 		}
-		// parameter 1-18 or 2-19
-		sb.append("?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)");
-		String sql = sb.toString();
-		log.debug(sql);
-		try (Connection conn = getConnection()) {
-			PreparedStatement psInsert = null;
+		// parameter 1-17 or 2-18
+		sb.append("?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)");
+		return sb.toString();
+	}
+
+	/**
+	 * Sets the parameters of the insert statement
+	 * @param psInsert
+	 * @param jobInfo
+	 * @param genJid the generated job_instance_id, only used if the job_instance_id is bound
+	 * @throws SQLException
+	 */
+	private void setInsertParameters(PreparedStatement psInsert, JobInstanceStatus jobInfo, long genJid) throws SQLException {
+		int paramIndex = 1;
+		if (isJobInstanceIdBound()) {
+			psInsert.setLong(paramIndex++, genJid);
+		}
+		psInsert.setString(paramIndex++, jobInfo.getName());
+		psInsert.setString(paramIndex++, jobInfo.getGuid());
+		if (jobInfo.getRootJobGuid() != null) {
+			psInsert.setString(paramIndex++, jobInfo.getRootJobGuid());
+		} else {
+			psInsert.setNull(paramIndex++, Types.VARCHAR);
+		}
+		if (jobInfo.getWorkItem() != null) {
+			psInsert.setString(paramIndex++, jobInfo.getWorkItem());
+		} else {
+			psInsert.setNull(paramIndex++, Types.VARCHAR);
+		}
+		if (jobInfo.getTimeRangeStart() != null) {
+			psInsert.setTimestamp(paramIndex++, new Timestamp(jobInfo.getTimeRangeStart().getTime()));
+		} else {
+			psInsert.setNull(paramIndex++, Types.TIMESTAMP);
+		}
+		if (jobInfo.getTimeRangeEnd() != null) {
+			psInsert.setTimestamp(paramIndex++, new Timestamp(jobInfo.getTimeRangeEnd().getTime()));
+		} else {
+			psInsert.setNull(paramIndex++, Types.TIMESTAMP);
+		}
+		if (jobInfo.getValueRangeStart() != null) {
+			psInsert.setString(paramIndex++, jobInfo.getValueRangeStart());
+		} else {
+			psInsert.setNull(paramIndex++, Types.VARCHAR);
+		}
+		if (jobInfo.getValueRangeEnd() != null) {
+			psInsert.setString(paramIndex++, jobInfo.getValueRangeEnd());
+		} else {
+			psInsert.setNull(paramIndex++, Types.VARCHAR);
+		}
+		psInsert.setTimestamp(paramIndex++, new Timestamp(jobInfo.getStartDate().getTime()));
+		psInsert.setLong(paramIndex++, jobInfo.getProcessInstanceId());
+		psInsert.setString(paramIndex++, jobInfo.getHostName());
+		setInteger(psInsert, paramIndex++, jobInfo.getHostPid());
+		psInsert.setString(paramIndex++, jobInfo.getExtJobId());
+		psInsert.setString(paramIndex++, jobInfo.getJobInfo());
+		psInsert.setString(paramIndex++, jobInfo.getHostUser());
+		psInsert.setString(paramIndex++, jobInfo.getProject());
+		if (jobInfo.getTaskName() != null) {
+			psInsert.setString(paramIndex++, jobInfo.getTaskName());
+		} else {
+			psInsert.setNull(paramIndex++, Types.VARCHAR);
+		}
+	}
+
+	/**
+	 * Creates all entries with one JDBC batch in one transaction,
+	 * the root and parent job guids of the entries are resolved together.
+	 */
+	@Override
+	public List<Exception> createEntries(List<JobInstanceStatus> list) throws Exception {
+		List<GroupCommitQueue.Entry> batch = new ArrayList<>(list.size());
+		for (JobInstanceStatus jobInfo : list) {
+			batch.add(new GroupCommitQueue.Entry(jobInfo));
+		}
+		executeCreateBatch(batch);
+		return collectErrors(batch);
+	}
+
+	/**
+	 * Updates all entries with one JDBC batch in one transaction
+	 */
+	@Override
+	public List<Exception> updateEntries(List<JobInstanceStatus> list) throws Exception {
+		List<GroupCommitQueue.Entry> all = new ArrayList<>(list.size());
+		List<GroupCommitQueue.Entry> validEntries = new ArrayList<>(list.size());
+		for (JobInstanceStatus jobInfo : list) {
+			GroupCommitQueue.Entry entry = new GroupCommitQueue.Entry(jobInfo);
+			all.add(entry);
 			try {
-				psInsert = conn.prepareStatement(sql,
-						(autoIncrementColumn ? Statement.RETURN_GENERATED_KEYS : Statement.NO_GENERATED_KEYS));
-			} catch (Exception nse) {
-				// Snowflake and Exasol database does not support the return of generated keys
-				psInsert = conn.prepareStatement(sql);
-				autoIncrementColumn = false;
-			}
-			// #1
-			// start set parameters
-			if (useGeneratedJID) {
-				long genJid = jid.createJID();
-				log.debug("Use generated job_instance_id=" + genJid);
-				psInsert.setLong(paramIndex++, genJid);
-			}
-			psInsert.setString(paramIndex++, jobInfo.getName());
-			if (jobInfo.getGuid() == null) {
-				throw new IllegalStateException("Job guid is null. Please call setJobGuid(String) before!");
+				checkUpdateAttributes(jobInfo);
+				validEntries.add(entry);
+			} catch (Exception e) {
+				entry.fail(e);
 			}
-			psInsert.setString(paramIndex++, jobInfo.getGuid());
-			if (jobInfo.getRootJobGuid() != null) {
-				psInsert.setString(paramIndex++, jobInfo.getRootJobGuid());
+		}
+		if (validEntries.isEmpty() == false) {
+			executeUpdateBatch(validEntries);
+		}
+		return collectErrors(all);
+	}
+
+	private static List<Exception> collectErrors(List<GroupCommitQueue.Entry> batch) {
+		List<Exception> errors = new ArrayList<>(batch.size());
+		for (GroupCommitQueue.Entry entry : batch) {
+			if (entry.isDone()) {
+				errors.add(entry.getError());
 			} else {
-				psInsert.setNull(paramIndex++, Types.VARCHAR);
+				errors.add(new Exception("Entry has not been written"));
 			}
-			if (jobInfo.getWorkItem() != null) {
-				psInsert.setString(paramIndex++, jobInfo.getWorkItem());
-			} else {
-				psInsert.setNull(paramIndex++, Types.VARCHAR);
+		}
+		return errors;
+	}
+
+	/**
+	 * Inserts all entries of the batch with one JDBC batch in one transaction.
+	 * If the batch fails, every entry will be inserted separately to get the individual error.
+	 * @param batch
+	 * @throws Exception
+	 */
+	private void executeCreateBatch(List<GroupCommitQueue.Entry> batch) throws Exception {
+		List<GroupCommitQueue.Entry> validEntries = new ArrayList<>(batch.size());
+		List<JobInstanceStatus> statusList = new ArrayList<>(batch.size());
+		for (GroupCommitQueue.Entry entry : batch) {
+			try {
+				checkCreateAttributes(entry.getStatus());
+				validEntries.add(entry);
+				statusList.add(entry.getStatus());
+			} catch (Exception e) {
+				entry.fail(e);
 			}
-			if (jobInfo.getTimeRangeStart() != null) {
-				psInsert.setTimestamp(paramIndex++, new Timestamp(jobInfo.getTimeRangeStart().getTime()));
-			} else {
-				psInsert.setNull(paramIndex++, Types.TIMESTAMP);
+		}
+		if (validEntries.isEmpty()) {
+			return;
+		}
+		try {
+			resolveProcessInstanceIds(statusList);
+		} catch (Exception e) {
+			for (GroupCommitQueue.Entry entry : validEntries) {
+				entry.fail(e);
 			}
-			if (jobInfo.getTimeRangeEnd() != null) {
-				psInsert.setTimestamp(paramIndex++, new Timestamp(jobInfo.getTimeRangeEnd().getTime()));
-			} else {
-				psInsert.setNull(paramIndex++, Types.TIMESTAMP);
+			return;
+		}
+		long[] ids = null;
+		if (validEntries.size() > 1) {
+			try {
+				ids = runInTransaction(conn -> insertBatch(conn, validEntries));
+			} catch (Exception e) {
+				// any error of the batch, the separate inserts give every entry its own result
+				log.warn("Insert batch with " + validEntries.size() + " entries failed, insert entries separately. Error: " + e.getMessage());
 			}
-			if (jobInfo.getValueRangeStart() != null) {
-				psInsert.setString(paramIndex++, jobInfo.getValueRangeStart());
-			} else {
-				psInsert.setNull(paramIndex++, Types.VARCHAR);
+		}
+		if (ids != null) {
+			for (int i = 0; i < ids.length; i++) {
+				validEntries.get(i).getStatus().setJobInstanceId(ids[i]);
+				entryCreated(validEntries.get(i).getStatus());
+				validEntries.get(i).complete(ids[i]);
 			}
-			if (jobInfo.getValueRangeEnd() != null) {
-				psInsert.setString(paramIndex++, jobInfo.getValueRangeEnd());
-			} else {
-				psInsert.setNull(paramIndex++, Types.VARCHAR);
-			}
-			if (jobInfo.getStartDate() == null) {
-				throw new IllegalArgumentException("Job start date is null. Please call setJobStartedAt(long) before!");
-			}
-			psInsert.setTimestamp(paramIndex++, new Timestamp(jobInfo.getStartDate().getTime()));
-			psInsert.setLong(paramIndex++, jobInfo.getProcessInstanceId());
-			psInsert.setString(paramIndex++, jobInfo.getHostName());
-			psInsert.setInt(paramIndex++, jobInfo.getHostPid());
-			psInsert.setString(paramIndex++, jobInfo.getExtJobId());
-			psInsert.setString(paramIndex++, jobInfo.getJobInfo());
-			psInsert.setString(paramIndex++, jobInfo.getHostUser());
-			psInsert.setString(paramIndex++, jobInfo.getProject());
-			if (jobInfo.getTaskName() != null) {
-				psInsert.setString(paramIndex++, jobInfo.getTaskName());
-			} else {
-				psInsert.setNull(paramIndex++, Types.VARCHAR);
+		} else {
+			for (GroupCommitQueue.Entry entry : validEntries) {
+				try {
+					entry.complete(insertEntry(entry.getStatus()));
+				} catch (Exception e) {
+					entry.fail(e);
+				}
 			}
-			int count = psInsert.executeUpdate();
-			if (count == 0) {
-				throw new SQLException("No dataset inserted!");
+		}
+	}
+
+	private long[] insertBatch(Connection conn, List<GroupCommitQueue.Entry> entries) throws Exception {
+		PreparedStatement psInsert = conn.prepareStatement(insertStatement,
+				(returnGeneratedKeys ? Statement.RETURN_GENERATED_KEYS : Statement.NO_GENERATED_KEYS));
+		long[] ids = new long[entries.size()];
+		for (int i = 0; i < entries.size(); i++) {
+			if (isJobInstanceIdBound()) {
+				ids[i] = nextJobInstanceId(conn);
 			}
-			long currentJobInstanceId = -1;
-			if (useGeneratedJID) {
-				psInsert.close();
-				currentJobInstanceId = jid.getJID();
-			} else if (autoIncrementColumn) {
-				// sometimes this does not work
+			setInsertParameters(psInsert, entries.get(i).getStatus(), ids[i]);
+			psInsert.addBatch();
+		}
+		psInsert.executeBatch();
+		if (isJobInstanceIdBound() == false) {
+			int index = 0;
+			if (returnGeneratedKeys) {
 				ResultSet rsKeys = psInsert.getGeneratedKeys();
-				if (rsKeys.next()) {
-					currentJobInstanceId = rsKeys.getLong(1);
+				while (rsKeys.next() && index < ids.length) {
+					ids[index++] = rsKeys.getLong(1);
 				}
 				rsKeys.close();
-				psInsert.close();
-			} else {
-				psInsert.close();
-				currentJobInstanceId = getJobInstanceIdByJobGuid(jobInfo.getGuid());
 			}
-			jobInfo.setJobInstanceId(currentJobInstanceId);
-		}
-		if (jobInfo.getJobInstanceId() == -1) {
-			throw new SQLException("No job_instances entry found for jobGuid=" + jobInfo.getGuid());
+			// databases not returning the keys for batches need the guid lookup
+			for (int i = index; i < ids.length; i++) {
+				ids[i] = selectJobInstanceIdByJobGuid(conn, entries.get(i).getStatus().getGuid());
+				if (ids[i] <= 0) {
+					throw new SQLException("No job_instances entry found for jobGuid=" + entries.get(i).getStatus().getGuid());
+				}
+			}
 		}
-		return jobInfo.getJobInstanceId();
+		psInsert.close();
+		return ids;
 	}
 
 	@Override
 	public void updateEntry(JobInstanceStatus jobInfo) throws Exception {
+		checkUpdateAttributes(jobInfo);
+		if (updateQueue != null) {
+			updateQueue.submit(jobInfo);
+		} else {
+			writeUpdate(jobInfo);
+		}
+	}
+
+	/**
+	 * Updates one entry with its own connection
+	 * @param jobInfo
+	 * @throws Exception
+	 */
+	private void writeUpdate(JobInstanceStatus jobInfo) throws Exception {
+		Timestamp endedAt = new Timestamp(System.currentTimeMillis());
+		long jobInstanceId = jobInfo.getJobInstanceId();
+		List<JobDetailCounter> accumulated = counterAccumulator.remove(jobInstanceId);
+		try {
+			runInTransaction(conn -> {
+				PreparedStatement psUpdate = conn.prepareStatement(updateStatement);
+				setUpdateParameters(psUpdate, jobInfo, endedAt);
+				int count = psUpdate.executeUpdate();
+				psUpdate.close();
+				if (count != 1) {
+					throw new Exception("Update of job_instance_status id=" + jobInstanceId + " failed because no entry was updated!");
+				}
+				// the counters are written with the same connection in the same transaction
+				upsertCounters(conn, Collections.singletonMap(jobInstanceId, CounterAccumulator.merge(accumulated, jobInfo.getCounters())));
+				return null;
+			});
+		} catch (Exception e) {
+			counterAccumulator.restore(jobInstanceId, accumulated);
+			throw e;
+		}
+		entryUpdated(jobInfo, endedAt);
+	}
+
+	static void checkUpdateAttributes(JobInstanceStatus jobInfo) throws Exception {
 		if (jobInfo.getJobInstanceId() == 0l) {
 			throw new Exception("Attribute job_instance_id is missing but mandatory for update");
 		}
@@ -270,6 +1132,9 @@ public class JDBCJobInstanceStorage implements JobInstanceStorage {
 		if (jobInfo.getReturnCode() == null) {
 			throw new Exception("Attribute return_code is missing but mandatory for update");
 		}
+	}
+
+	private String buildUpdateStatement() {
 		StringBuilder sb = new StringBuilder();
 		sb.append("update ");
 		sb.append(getStatusTable());
@@ -303,58 +1168,226 @@ public class JDBCJobInstanceStorage implements JobInstanceStorage {
 		sb.append("where ");
 		sb.append(JOB_INSTANCE_ID); // 14
 		sb.append("=?");
-		String sql = sb.toString();
-		try (Connection connection = getConnection()) {
-			PreparedStatement psUpdate = connection.prepareStatement(sql);
-			int paramIndex = 1;
-			psUpdate.setTimestamp(paramIndex++, new Timestamp(System.currentTimeMillis()));
-			if (jobInfo.getJobResult() != null) {
-				psUpdate.setString(paramIndex++, jobInfo.getJobResult());
+		return sb.toString();
+	}
+
+	private void setUpdateParameters(PreparedStatement psUpdate, JobInstanceStatus jobInfo, Timestamp endedAt) throws SQLException {
+		int paramIndex = 1;
+		psUpdate.setTimestamp(paramIndex++, endedAt);
+		if (jobInfo.getJobResult() != null) {
+			psUpdate.setString(paramIndex++, jobInfo.getJobResult());
+		} else {
+			psUpdate.setNull(paramIndex++, Types.VARCHAR);
+		}
+		if (jobInfo.getTimeRangeStart() != null) {
+			psUpdate.setTimestamp(paramIndex++, new Timestamp(jobInfo.getTimeRangeStart().getTime()));
+		} else {
+			psUpdate.setNull(paramIndex++, Types.TIMESTAMP);
+		}
+		if (jobInfo.getTimeRangeEnd() != null) {
+			psUpdate.setTimestamp(paramIndex++, new Timestamp(jobInfo.getTimeRangeEnd().getTime()));
+		} else {
+			psUpdate.setNull(paramIndex++, Types.TIMESTAMP);
+		}
+		setCount(psUpdate, paramIndex++, jobInfo.getCountInput());
+		setCount(psUpdate, paramIndex++, jobInfo.getCountOutput());
+		setCount(psUpdate, paramIndex++, jobInfo.getCountReject());
+		setCount(psUpdate, paramIndex++, jobInfo.getCountDelete());
+		psUpdate.setInt(paramIndex++, jobInfo.getReturnCode());
+		psUpdate.setString(paramIndex++, enforceTextLength(jobInfo.getReturnMessage(), messageMaxLength, 1));
+		if (jobInfo.getValueRangeStart() != null) {
+			psUpdate.setString(paramIndex++, jobInfo.getValueRangeStart());
+		} else {
+			psUpdate.setNull(paramIndex++, Types.VARCHAR);
+		}
+		if (jobInfo.getValueRangeEnd() != null) {
+			psUpdate.setString(paramIndex++, jobInfo.getValueRangeEnd());
+		} else {
+			psUpdate.setNull(paramIndex++, Types.VARCHAR);
+		}
+		setCount(psUpdate, paramIndex++, jobInfo.getCountUpdate());
+		psUpdate.setLong(paramIndex++, jobInfo.getJobInstanceId());
+	}
+
+	/**
+	 * A count not sent by the job is written as 0, the filters with_input and with_output compare with 0
+	 */
+	private static void setCount(PreparedStatement ps, int paramIndex, Integer count) throws SQLException {
+		ps.setInt(paramIndex, count != null ? count : 0);
+	}
+
+	private static void setInteger(PreparedStatement ps, int paramIndex, Integer value) throws SQLException {
+		if (value != null) {
+			ps.setInt(paramIndex, value);
+		} else {
+			ps.setNull(paramIndex, Types.INTEGER);
+		}
+	}
+
+	/**
+	 * Updates the entries and writes the counters of the updated entries
+	 * @param conn
+	 * @param entries
+	 * @param endedAt the end time written for all entries
+	 * @param accumulated the accumulated totals of the entries
+	 * @return the entries without a dataset to update
+	 * @throws Exception
+	 */
+	private List<GroupCommitQueue.Entry> updateBatch(Connection conn, List<GroupCommitQueue.Entry> entries, Timestamp endedAt, Map<Long, List<JobDetailCounter>> accumulated) throws Exception {
+		PreparedStatement psUpdate = conn.prepareStatement(updateStatement);
+		for (GroupCommitQueue.Entry entry : entries) {
+			setUpdateParameters(psUpdate, entry.getStatus(), endedAt);
+			psUpdate.addBatch();
+		}
+		int[] counts = psUpdate.executeBatch();
+		psUpdate.close();
+		List<GroupCommitQueue.Entry> missingEntries = new ArrayList<>();
+		Map<Long, List<JobDetailCounter>> counters = new LinkedHashMap<>();
+		for (int i = 0; i < entries.size(); i++) {
+			GroupCommitQueue.Entry entry = entries.get(i);
+			if (counts[i] == 0) {
+				missingEntries.add(entry);
 			} else {
-				psUpdate.setNull(paramIndex++, Types.VARCHAR);
+				long jobInstanceId = entry.getStatus().getJobInstanceId();
+				counters.put(jobInstanceId, CounterAccumulator.merge(accumulated.get(jobInstanceId), entry.getStatus().getCounters()));
 			}
-			if (jobInfo.getTimeRangeStart() != null) {
-				psUpdate.setTimestamp(paramIndex++, new Timestamp(jobInfo.getTimeRangeStart().getTime()));
-			} else {
-				psUpdate.setNull(paramIndex++, Types.TIMESTAMP);
+		}
+		upsertCounters(conn, counters);
+		return missingEntries;
+	}
+
+	/**
+	 * Updates all entries of the batch with one JDBC batch in one transaction.
+	 * The counters of the successfully updated entries will be written in the same transaction.
+	 * If the batch fails, every entry will be updated separately to get the individual error.
+	 * @param batch
+	 * @throws Exception
+	 */
+	private void executeUpdateBatch(List<GroupCommitQueue.Entry> batch) throws Exception {
+		List<GroupCommitQueue.Entry> missingEntries = null;
+		Timestamp endedAt = new Timestamp(System.currentTimeMillis());
+		if (batch.size() > 1) {
+			Map<Long, List<JobDetailCounter>> accumulated = new HashMap<>();
+			for (GroupCommitQueue.Entry entry : batch) {
+				accumulated.computeIfAbsent(entry.getStatus().getJobInstanceId(), counterAccumulator::remove);
 			}
-			if (jobInfo.getTimeRangeEnd() != null) {
-				psUpdate.setTimestamp(paramIndex++, new Timestamp(jobInfo.getTimeRangeEnd().getTime()));
-			} else {
-				psUpdate.setNull(paramIndex++, Types.TIMESTAMP);
-			}
-			psUpdate.setInt(paramIndex++, jobInfo.getCountInput());
-			psUpdate.setInt(paramIndex++, jobInfo.getCountOutput());
-			psUpdate.setInt(paramIndex++, jobInfo.getCountReject());
-			psUpdate.setInt(paramIndex++, jobInfo.getCountDelete());
-			psUpdate.setInt(paramIndex++, jobInfo.getReturnCode());
-			psUpdate.setString(paramIndex++, enforceTextLength(jobInfo.getReturnMessage(), messageMaxLength, 1));
-			if (jobInfo.getValueRangeStart() != null) {
-				psUpdate.setString(paramIndex++, jobInfo.getValueRangeStart());
-			} else {
-				psUpdate.setNull(paramIndex++, Types.VARCHAR);
+			try {
+				missingEntries = runInTransaction(conn -> updateBatch(conn, batch, endedAt, accumulated));
+			} catch (Exception e) {
+				// any error of the batch, the separate updates give every entry its own result
+				log.warn("Update batch with " + batch.size() + " entries failed, update entries separately. Error: " + e.getMessage());
+				// the separate updates take the totals again
+				for (Map.Entry<Long, List<JobDetailCounter>> a : accumulated.entrySet()) {
+					counterAccumulator.restore(a.getKey(), a.getValue());
+				}
 			}
-			if (jobInfo.getValueRangeEnd() != null) {
-				psUpdate.setString(paramIndex++, jobInfo.getValueRangeEnd());
-			} else {
-				psUpdate.setNull(paramIndex++, Types.VARCHAR);
+		}
+		if (missingEntries != null) {
+			for (GroupCommitQueue.Entry entry : batch) {
+				if (missingEntries.contains(entry)) {
+					entry.fail(new Exception("Update of job_instance_status id=" + entry.getStatus().getJobInstanceId() + " failed because no entry was updated!"));
+				} else {
+					entryUpdated(entry.getStatus(), endedAt);
+					entry.complete(entry.getStatus().getJobInstanceId());
+				}
+			}
+		} else {
+			for (GroupCommitQueue.Entry entry : batch) {
+				try {
+					writeUpdate(entry.getStatus());
+					entry.complete(entry.getStatus().getJobInstanceId());
+				} catch (Exception e) {
+					entry.fail(e);
+				}
+			}
+		}
+	}
+
+	@Override
+	public long getJobInstanceIdByJobGuid(String jobGuid) throws Exception {
+		if (jobGuid == null || jobGuid.trim().isEmpty()) {
+			throw new IllegalArgumentException("jobGuid cannot be null or empty");
+		}
+		try (Connection conn = getConnection()) {
+			return selectJobInstanceIdByJobGuid(conn, jobGuid);
+		} catch (Exception e) {
+			throw new Exception("getJobInstanceIdByJobGuid for jobGuid=" + jobGuid + " failed: " + e.getMessage(), e);
+		}
+	}
+
+	private long selectJobInstanceIdByJobGuid(Connection conn, String jobGuid) throws SQLException {
+		long id = 0;
+		PreparedStatement psSelect = conn.prepareStatement(selectByGuidStatement);
+		psSelect.setString(1, jobGuid);
+		ResultSet rs = psSelect.executeQuery();
+		if (rs.next()) {
+			id = rs.getLong(1);
+		}
+		rs.close();
+		psSelect.close();
+		return id;
+	}
+
+	/**
+	 * @param jobGuid
+	 * @param ids receives the job_instance_id if the guid is cached
+	 * @return true if the guid is cached
+	 */
+	private boolean lookupCachedJobInstanceId(String jobGuid, Map<String, Long> ids) {
+		if (ids.containsKey(jobGuid)) {
+			return true;
+		}
+		Long id = guidCache != null ? guidCache.get(jobGuid) : null;
+		if (id != null) {
+			ids.put(jobGuid, id);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Selects the job_instance_id of many guids, for every guid the latest entry is taken
+	 * @param conn
+	 * @param guids
+	 * @param ids receives the found guids and job_instance_ids
+	 * @throws SQLException
+	 */
+	private void selectJobInstanceIdsByJobGuids(Connection conn, List<String> guids, Map<String, Long> ids) throws SQLException {
+		for (int start = 0; start < guids.size(); start += MAX_GUIDS_PER_SELECT) {
+			List<String> chunk = guids.subList(start, Math.min(guids.size(), start + MAX_GUIDS_PER_SELECT));
+			StringBuilder sb = new StringBuilder();
+			sb.append("select ");
+			sb.append(JOB_GUID);
+			sb.append(",");
+			sb.append(JOB_INSTANCE_ID);
+			sb.append(" from ");
+			sb.append(getStatusTable());
+			sb.append(" where ");
+			sb.append(JOB_GUID);
+			sb.append(" in (");
+			for (int i = 0; i < chunk.size(); i++) {
+				if (i > 0) {
+					sb.append(",");
+				}
+				sb.append("?");
 			}
-			psUpdate.setInt(paramIndex++, jobInfo.getCountUpdate());
-			psUpdate.setLong(paramIndex++, jobInfo.getJobInstanceId());
-			int count = psUpdate.executeUpdate();
-			if (count != 1) {
-				throw new Exception("Update of job_instance_status id=" + jobInfo.getJobInstanceId() + " failed because no entry was updated!");
+			sb.append(") order by ");
+			sb.append(JOB_STARTED_AT);
+			sb.append(" desc");
+			try (PreparedStatement psSelect = conn.prepareStatement(sb.toString())) {
+				for (int i = 0; i < chunk.size(); i++) {
+					psSelect.setString(i + 1, chunk.get(i));
+				}
+				try (ResultSet rs = psSelect.executeQuery()) {
+					while (rs.next()) {
+						ids.putIfAbsent(rs.getString(1), rs.getLong(2));
+					}
+				}
 			}
-			psUpdate.close();
-			writeCounters(jobInfo.getCounters(), jobInfo.getJobInstanceId());
 		}
 	}
 
-	@Override
-	public long getJobInstanceIdByJobGuid(String jobGuid) throws Exception {
-		if (jobGuid == null || jobGuid.trim().isEmpty()) {
-			throw new IllegalArgumentException("jobGuid cannot be null or empty");
-		}
+	private String buildSelectByGuidStatement() {
 		StringBuilder sb = new StringBuilder();
 		sb.append("select ");
 		sb.append(JOB_INSTANCE_ID);
@@ -365,77 +1398,130 @@ public class JDBCJobInstanceStorage implements JobInstanceStorage {
 		sb.append("=? order by ");
 		sb.append(JOB_STARTED_AT);
 		sb.append(" desc");
-		String sql = sb.toString();
-		long id = 0;
-		try (Connection conn = getConnection()) {
-			PreparedStatement psSelect = conn.prepareStatement(sql);
-			psSelect.setString(1, jobGuid);
-			ResultSet rs = psSelect.executeQuery();
-			if (rs.next()) {
-				id = rs.getLong(1);
+		return sb.toString();
+	}
+	
+	/**
+	 * Collects the parameter values of the filter in the order of the place holders of the where condition
+	 * and describes which criteria are used (the shape of the filter). 
+	 * Filters with the same shape share the same SQL statement.
+	 * @param filter
+	 * @param params collects the values for the parameters of the condition
+	 * @return the shape of the filter
+	 */
+	private String collectParameters(JobInstanceFilter filter, List<Object> params) {
+		StringBuilder shape = new StringBuilder();
+		if (filter.getExcludeJobName() != null) {
+			shape.append("ex|");
+			params.add(filter.getExcludeJobName().trim());
+		}
+		if (filter.getIncludeJobNames() != null) {
+			String[] array = filter.getIncludeJobNames().split(",");
+			shape.append("in");
+			shape.append(array.length);
+			shape.append("|");
+			for (String jobName : array) {
+				params.add(jobName.trim());
 			}
-			rs.close();
-			psSelect.close();
-		} catch (Exception e) {
-			throw new Exception("getJobInstanceIdByJobGuid for jobGuid=" + jobGuid + " failed: " + e.getMessage(), e);
 		}
-		return id;
+		if (filter.getTaskName() != null) {
+			shape.append("task|");
+			params.add(filter.getTaskName());
+		}
+		if (filter.getWorkItem() != null) {
+			shape.append("wi|");
+			params.add(filter.getWorkItem().trim());
+		}
+		if (filter.getWithInput() != null) {
+			shape.append(filter.getWithInput() ? "input|" : "noinput|");
+		}
+		if (filter.getWithOutput() != null) {
+			shape.append(filter.getWithOutput() ? "output|" : "nooutput|");
+		}
+		if (filter.getBeforeJobInstanceId() != null) {
+			shape.append("before|");
+			params.add(filter.getBeforeJobInstanceId());
+		}
+		if (filter.getAfterJobInstanceId() != null) {
+			shape.append("after|");
+			params.add(filter.getAfterJobInstanceId());
+		}
+		if (filter.getStartedAfter() != null) {
+			shape.append("sa|");
+			if (isJIDRangePushdown()) {
+				params.add(JID.fromMillis(filter.getStartedAfter().getTime() - jidTimeToleranceMillis));
+			}
+			params.add(new Timestamp(filter.getStartedAfter().getTime()));
+		}
+		if (filter.getStartedBefore() != null) {
+			shape.append("sb|");
+			if (isJIDRangePushdown()) {
+				params.add(JID.fromMillis(filter.getStartedBefore().getTime() + jidTimeToleranceMillis));
+			}
+			params.add(new Timestamp(filter.getStartedBefore().getTime()));
+		}
+		if (filter.getRootJobInstanceId() != null) {
+			shape.append("root|");
+			params.add(filter.getRootJobInstanceId());
+		}
+		if (filter.getReturnCode() != null) {
+			shape.append("rc|");
+			params.add(filter.getReturnCode());
+		}
+		if (filter.getRunning() != null) {
+			shape.append(filter.getRunning() ? "running|" : "ended|");
+		}
+		if (filter.getSuccessful() != null) {
+			shape.append(filter.getSuccessful() ? "ok|" : "failed|");
+		}
+		if (filter.hasCursor()) {
+			shape.append("cursor|");
+			Timestamp cursorStartedAt = new Timestamp(filter.getCursorStartedAt().getTime());
+			params.add(cursorStartedAt);
+			params.add(cursorStartedAt);
+			params.add(filter.getCursorJobInstanceId());
+		}
+		return shape.toString();
 	}
-	
-	private String buildWhereCondition(
-			String excludeJobName,
-			String includeJobNames,
-			String taskName,
-			String workItem,
-			Boolean withInput, 
-			Boolean withOutput, 
-			Boolean successful, 
-			Boolean running,
-			Integer returnCode,
-			Long beforeJobInstanceId,
-			Long afterJobInstanceId,
-			Long rootJobInstanceId) {
+
+	/**
+	 * Builds the where condition and the order by clause for the filter.
+	 * All values are place holders, the values are collected by collectParameters in the same order.
+	 * @param filter
+	 * @return the condition
+	 */
+	private String buildWhereCondition(JobInstanceFilter filter) {
 		StringBuilder sb = new StringBuilder();
 		sb.append(" where 1=1");
-		if (excludeJobName != null) {
+		if (filter.getExcludeJobName() != null) {
 			sb.append(" and ");
 			sb.append(JOB_NAME);
-			sb.append(" <> '");
-			sb.append(excludeJobName.trim());
-			sb.append("'");
+			sb.append(" <> ?");
 		}
-		if (includeJobNames != null) {
-			String[] array = includeJobNames.split(",");
+		if (filter.getIncludeJobNames() != null) {
+			int count = filter.getIncludeJobNames().split(",").length;
 			sb.append(" and ");
 			sb.append(JOB_NAME);
 			sb.append(" in (");
-			boolean firstLoop = true;
-			for (String jobName : array) {
-				if (firstLoop) {
-					firstLoop = false;
-				} else {
+			for (int i = 0; i < count; i++) {
+				if (i > 0) {
 					sb.append(",");
 				}
-				sb.append("'");
-				sb.append(jobName.trim());
-				sb.append("'");
+				sb.append("?");
 			}
 			sb.append(")");
 		}
-		if (taskName != null) {
+		if (filter.getTaskName() != null) {
 			sb.append(" and ");
 			sb.append(JOB_DISPLAY_NAME);
-			sb.append(" = '");
-			sb.append(taskName);
-			sb.append("'");
+			sb.append(" = ?");
 		} 
-		if (workItem != null) {
+		if (filter.getWorkItem() != null) {
 			sb.append(" and ");
 			sb.append(JOB_WORK_ITEM);
-			sb.append(" = '");
-			sb.append(workItem.trim());
-			sb.append("'");
+			sb.append(" = ?");
 		}
+		Boolean withInput = filter.getWithInput();
 		if (withInput != null) {
 			if (withInput) {
 				sb.append(" and ");
@@ -447,6 +1533,7 @@ public class JDBCJobInstanceStorage implements JobInstanceStorage {
 				sb.append(" = 0");
 			}
 		}
+		Boolean withOutput = filter.getWithOutput();
 		if (withOutput != null) {
 			if (withOutput) {
 				sb.append(" and (");
@@ -466,30 +1553,48 @@ public class JDBCJobInstanceStorage implements JobInstanceStorage {
 				sb.append(" = 0)");
 			}
 		}
-		if (beforeJobInstanceId != null) {
+		if (filter.getBeforeJobInstanceId() != null) {
 			sb.append(" and ");
 			sb.append(JOB_INSTANCE_ID);
-			sb.append(" < ");
-			sb.append(beforeJobInstanceId);
+			sb.append(" < ?");
 		} 
-		if (afterJobInstanceId != null) {
+		if (filter.getAfterJobInstanceId() != null) {
 			sb.append(" and ");
 			sb.append(JOB_INSTANCE_ID);
-			sb.append(" > ");
-			sb.append(afterJobInstanceId);
+			sb.append(" > ?");
 		} 
-		if (rootJobInstanceId != null) {
+		if (filter.getStartedAfter() != null) {
+			if (isJIDRangePushdown()) {
+				// the JID starts with the creation time: range scan on the primary key
+				sb.append(" and ");
+				sb.append(JOB_INSTANCE_ID);
+				sb.append(" >= ?");
+			}
+			sb.append(" and ");
+			sb.append(JOB_STARTED_AT);
+			sb.append(" >= ?");
+		}
+		if (filter.getStartedBefore() != null) {
+			if (isJIDRangePushdown()) {
+				sb.append(" and ");
+				sb.append(JOB_INSTANCE_ID);
+				sb.append(" < ?");
+			}
+			sb.append(" and ");
+			sb.append(JOB_STARTED_AT);
+			sb.append(" < ?");
+		}
+		if (filter.getRootJobInstanceId() != null) {
 			sb.append(" and ");
 			sb.append(PROCESS_INSTANCE_ID);
-			sb.append(" = ");
-			sb.append(rootJobInstanceId);
+			sb.append(" = ?");
 		} 
-		if (returnCode != null) {
+		if (filter.getReturnCode() != null) {
 			sb.append(" and ");
 			sb.append(JOB_RETURN_CODE);
-			sb.append(" = ");
-			sb.append(returnCode);
+			sb.append(" = ?");
 		} 
+		Boolean running = filter.getRunning();
 		if (running != null) {
 			sb.append(" and ");
 			sb.append(JOB_ENDED_AT);
@@ -499,6 +1604,7 @@ public class JDBCJobInstanceStorage implements JobInstanceStorage {
 				sb.append(" is not null");
 			}
 		} 
+		Boolean successful = filter.getSuccessful();
 		if (successful != null) {
 			sb.append(" and ");
 			sb.append(JOB_RETURN_CODE);
@@ -508,99 +1614,238 @@ public class JDBCJobInstanceStorage implements JobInstanceStorage {
 				sb.append(" > 0 ");
 			}
 		}
+		if (filter.hasCursor()) {
+			// keyset pagination: continue after the last row of the previous page
+			sb.append(" and (");
+			sb.append(JOB_STARTED_AT);
+			sb.append(" > ? or (");
+			sb.append(JOB_STARTED_AT);
+			sb.append(" = ? and ");
+			sb.append(JOB_INSTANCE_ID);
+			sb.append(" > ?))");
+		}
 		sb.append(" order by ");
 		sb.append(JOB_STARTED_AT);
+		sb.append(",");
+		sb.append(JOB_INSTANCE_ID);
 		return sb.toString();
 	}
 
+	/**
+	 * Returns the cached select statement for the shape or builds it
+	 * @param selectList columns to select, also used as part of the cache key
+	 * @param shape the shape of the filter returned by collectParameters
+	 * @param filter
+	 * @return the complete select statement
+	 */
+	private String getSelectStatement(String selectList, String shape, JobInstanceFilter filter) {
+		String key = selectList + "#" + shape;
+		String sql = selectStatementCache.get(key);
+		if (sql == null) {
+			sql = "select " + selectList + " from " + getStatusTable() + buildWhereCondition(filter);
+			// the number of include job names is part of the shape, do not let the cache grow endless 
+			if (selectStatementCache.size() < MAX_CACHED_SELECT_STATEMENTS) {
+				selectStatementCache.putIfAbsent(key, sql);
+			}
+		}
+		return sql;
+	}
+
+	@Override
+	public String selectIds(JobInstanceFilter filter, ResultHandler<Long> handler) throws Exception {
+		if (runningIndex != null && runningIndex.canAnswer(filter)) {
+			return runningIndex.select(filter, status -> handler.handle(status.getJobInstanceId()));
+		}
+		List<Object> params = new ArrayList<>();
+		String shape = collectParameters(filter, params);
+		String sql = getSelectStatement(JOB_INSTANCE_ID + "," + JOB_STARTED_AT, shape, filter);
+		return executeSelect(sql, params, filter, rs -> handler.handle(rs.getLong(1)));
+	}
+
+	@Override
+	public String selectObjects(JobInstanceFilter filter, ResultHandler<JobInstanceStatus> handler) throws Exception {
+		if (runningIndex != null && runningIndex.canAnswer(filter)) {
+			if (filter.isWithCounters()) {
+				List<JobInstanceStatus> list = new ArrayList<>();
+				String cursor = runningIndex.select(filter, list::add);
+				loadCounters(list);
+				for (JobInstanceStatus status : list) {
+					handler.handle(status);
+				}
+				return cursor;
+			}
+			return runningIndex.select(filter, handler);
+		}
+		if (filter.isWithCounters() == false) {
+			List<Object> params = new ArrayList<>();
+			String shape = collectParameters(filter, params);
+			String sql = getSelectStatement("*", shape, filter);
+			return executeSelect(sql, params, filter, rs -> handler.handle(getJobInstanceStatusFromResultSet(rs)));
+		}
+		// The rows are read in chunks, every chunk is read completely before its counters are loaded with one query.
+		// Drivers streaming the result (e.g. MySQL, SQL Server) do not allow a second query while a result set is open.
+		JobInstanceFilter chunkFilter = filter.copy();
+		Integer remaining = filter.getLimit();
+		String cursor = null;
+		try (Connection readConn = getReadConnection()) {
+			while (remaining == null || remaining > 0) {
+				int chunkSize = remaining != null ? Math.min(remaining, MAX_IDS_PER_SELECT) : MAX_IDS_PER_SELECT;
+				chunkFilter.setLimit(chunkSize);
+				List<Object> params = new ArrayList<>();
+				String shape = collectParameters(chunkFilter, params);
+				String sql = getSelectStatement("*", shape, chunkFilter);
+				List<JobInstanceStatus> chunk = new ArrayList<>(chunkSize);
+				String chunkCursor = executeSelect(readConn, sql, params, chunkFilter, rs -> chunk.add(getJobInstanceStatusFromResultSet(rs)));
+				if (chunk.isEmpty()) {
+					break;
+				}
+				cursor = chunkCursor;
+				loadCounters(readConn, chunk);
+				for (JobInstanceStatus status : chunk) {
+					handler.handle(status);
+				}
+				if (chunk.size() < chunkSize) {
+					break;
+				}
+				if (remaining != null) {
+					remaining -= chunk.size();
+				}
+				// the next chunk continues after the last row like the next page of a client
+				chunkFilter.setCursor(chunkCursor);
+			}
+		}
+		return cursor;
+	}
+
 	@Override
-	public List<Long> selectIds(
-			String excludeJobName,
-			String includeJobNames,
-			String taskName,
-			String workItem,
-			Boolean withInput, 
-			Boolean withOutput, 
-			Boolean successful, 
-			Boolean running,
-			Integer returnCode,
-			Long beforeJobInstanceId,
-			Long afterJobInstanceId,
-			Long rootJobInstanceId) throws Exception {
+	public void loadCounters(List<JobInstanceStatus> list) throws Exception {
+		if (list.isEmpty()) {
+			return;
+		}
+		try (Connection conn = getReadConnection()) {
+			loadCounters(conn, list);
+		}
+	}
+
+	/**
+	 * Loads the counters of all entries with one query per chunk of MAX_IDS_PER_SELECT entries
+	 * @param conn
+	 * @param list
+	 * @throws SQLException
+	 */
+	private void loadCounters(Connection conn, List<JobInstanceStatus> list) throws SQLException {
+		for (int start = 0; start < list.size(); start += MAX_IDS_PER_SELECT) {
+			List<JobInstanceStatus> chunk = list.subList(start, Math.min(list.size(), start + MAX_IDS_PER_SELECT));
+			Map<Long, List<JobDetailCounter>> counters = new HashMap<>();
+			for (JobInstanceStatus status : chunk) {
+				counters.put(status.getJobInstanceId(), new ArrayList<>());
+			}
+			try (PreparedStatement psSelect = conn.prepareStatement(buildSelectCountersStatement(counters.size()))) {
+				int paramIndex = 1;
+				for (Long id : counters.keySet()) {
+					psSelect.setLong(paramIndex++, id);
+				}
+				try (ResultSet rs = psSelect.executeQuery()) {
+					while (rs.next()) {
+						List<JobDetailCounter> listCounters = counters.get(rs.getLong(1));
+						if (listCounters != null) {
+							int value = rs.getInt(4);
+							listCounters.add(new JobDetailCounter(rs.getString(2), rs.getString(3), rs.wasNull() ? null : value));
+						}
+					}
+				}
+			}
+			for (JobInstanceStatus status : chunk) {
+				status.setCounters(counters.get(status.getJobInstanceId()));
+			}
+		}
+	}
+
+	private String buildSelectCountersStatement(int countIds) {
 		StringBuilder sb = new StringBuilder();
 		sb.append("select ");
 		sb.append(JOB_INSTANCE_ID);
+		sb.append(",");
+		sb.append(COUNTER_NAME);
+		sb.append(",");
+		sb.append(COUNTER_TYPE);
+		sb.append(",");
+		sb.append(COUNTER_VALUE);
 		sb.append(" from ");
-		sb.append(getStatusTable());
-		sb.append(buildWhereCondition(
-				excludeJobName,
-				includeJobNames,
-				taskName,
-				workItem,
-				withInput, 
-				withOutput, 
-				successful, 
-				running,
-				returnCode,
-				beforeJobInstanceId,
-				afterJobInstanceId,
-				rootJobInstanceId));
-		String sql = sb.toString();
-		List<Long> result = new ArrayList<Long>();
-		try (Connection conn = getConnection()) {
-			PreparedStatement psSelect = conn.prepareStatement(sql);
-			ResultSet rs = psSelect.executeQuery();
-			while (rs.next()) {
-				result.add(rs.getLong(1));
+		sb.append(getCounterTable());
+		sb.append(" where ");
+		sb.append(JOB_INSTANCE_ID);
+		sb.append(" in (");
+		for (int i = 0; i < countIds; i++) {
+			if (i > 0) {
+				sb.append(",");
 			}
-			rs.close();
-			psSelect.close();
+			sb.append("?");
 		}
-		return result;
+		sb.append(")");
+		return sb.toString();
 	}
 
-	@Override
-	public List<JobInstanceStatus> selectObjects(
-			String excludeJobName,
-			String includeJobNames,
-			String taskName,
-			String workItem,
-			Boolean withInput, 
-			Boolean withOutput, 
-			Boolean successful, 
-			Boolean running,
-			Integer returnCode,
-			Long beforeJobInstanceId,
-			Long afterJobInstanceId,
-			Long rootJobInstanceId) throws Exception {
-		StringBuilder sb = new StringBuilder();
-		sb.append("select * from ");
-		sb.append(getStatusTable());
-		sb.append(buildWhereCondition(
-				excludeJobName,
-				includeJobNames,
-				taskName,
-				workItem,
-				withInput, 
-				withOutput, 
-				successful, 
-				running,
-				returnCode,
-				beforeJobInstanceId,
-				afterJobInstanceId,
-				rootJobInstanceId));
-		String sql = sb.toString();
-		List<JobInstanceStatus> result = new ArrayList<>();
-		try (Connection conn = getConnection()) {
-			PreparedStatement psSelect = conn.prepareStatement(sql);
-			ResultSet rs = psSelect.executeQuery();
-			while (rs.next()) {
-				result.add(getJobInstanceStatusFromResultSet(rs));
+	/**
+	 * Runs the query and passes every row to the row handler while the result set is read.
+	 * The rows are fetched in chunks of the fetch size, so the memory usage does not depend on the size of the result.
+	 * @param sql
+	 * @param params
+	 * @param filter
+	 * @param rowHandler
+	 * @return the cursor of the last row or null if there was no row
+	 * @throws Exception
+	 */
+	private String executeSelect(String sql, List<Object> params, JobInstanceFilter filter, ResultHandler<ResultSet> rowHandler) throws Exception {
+		log.debug(sql);
+		try (Connection readConn = getReadConnection()) {
+			return executeSelect(readConn, sql, params, filter, rowHandler);
+		}
+	}
+
+	private String executeSelect(Connection connection, String sql, List<Object> params, JobInstanceFilter filter, ResultHandler<ResultSet> rowHandler) throws Exception {
+		// PostgreSQL uses the fetch size only within a transaction
+		return runInTransaction(connection, conn -> {
+			Timestamp lastStartedAt = null;
+			long lastJobInstanceId = 0;
+			// closed also if the row handler fails, e.g. because the client has disconnected
+			try (PreparedStatement psSelect = conn.prepareStatement(sql)) {
+				psSelect.setFetchSize(fetchSize);
+				if (filter.getLimit() != null) {
+					psSelect.setMaxRows(filter.getLimit());
+				}
+				setParameters(psSelect, params);
+				try (ResultSet rs = psSelect.executeQuery()) {
+					while (rs.next()) {
+						rowHandler.handle(rs);
+						lastJobInstanceId = rs.getLong(JOB_INSTANCE_ID);
+						lastStartedAt = rs.getTimestamp(JOB_STARTED_AT);
+					}
+				}
+			}
+			if (lastStartedAt != null) {
+				return JobInstanceFilter.buildCursor(lastStartedAt, lastJobInstanceId);
+			} else {
+				return null;
+			}
+		});
+	}
+
+	private void setParameters(PreparedStatement ps, List<Object> params) throws SQLException {
+		int paramIndex = 1;
+		for (Object value : params) {
+			if (value instanceof Long) {
+				ps.setLong(paramIndex++, (Long) value);
+			} else if (value instanceof Integer) {
+				ps.setInt(paramIndex++, (Integer) value);
+			} else if (value instanceof Timestamp) {
+				ps.setTimestamp(paramIndex++, (Timestamp) value);
+			} else if (value instanceof String) {
+				ps.setString(paramIndex++, (String) value);
+			} else {
+				throw new IllegalArgumentException("Unsupported parameter type: " + value);
 			}
-			rs.close();
-			psSelect.close();
 		}
-		return result;
 	}
 
 	private JobInstanceStatus getJobInstanceStatusFromResultSet(ResultSet rs) throws SQLException {
@@ -636,34 +1881,10 @@ public class JDBCJobInstanceStorage implements JobInstanceStorage {
 
 	@Override
 	public void writeCounters(List<JobDetailCounter> listCounters, long jobInstanceId) throws Exception {
-		if (listCounters.isEmpty() == false) {
-			StringBuilder sb = new StringBuilder();
-			sb.append("insert into ");
-			sb.append(getCounterTable());
-			sb.append(" (");
-			sb.append(JOB_INSTANCE_ID);
-			sb.append(",");
-			sb.append(COUNTER_NAME);
-			sb.append(",");
-			sb.append(COUNTER_TYPE);
-			sb.append(",");
-			sb.append(COUNTER_VALUE);
-			sb.append(") values (?,?,?,?)");
-			boolean hasValues = false;
+		if (listCounters != null && listCounters.isEmpty() == false) {
 			try (Connection connection = getConnection()) {
-				PreparedStatement ps = connection.prepareStatement(sb.toString());
-				for (JobDetailCounter entry : listCounters) {
-					Integer value = entry.getValue();
-					if (value != null) {
-						ps.setLong(1, jobInstanceId);
-						ps.setString(2, entry.getName());
-						ps.setString(3, entry.getType());
-						ps.setInt(4, value);
-						ps.addBatch();
-						hasValues = true;
-					}
-				}
-				if (hasValues) {
+				PreparedStatement ps = addCounterBatch(connection, null, listCounters, jobInstanceId);
+				if (ps != null) {
 					ps.executeBatch();
 					if (connection.getAutoCommit() == false) {
 						connection.commit();
@@ -681,18 +1902,154 @@ public class JDBCJobInstanceStorage implements JobInstanceStorage {
 		}
 	}
 
+	/**
+	 * Adds the counters with a value to the batch of the counter insert statement
+	 * @param connection
+	 * @param ps the statement of previous calls or null
+	 * @param listCounters
+	 * @param jobInstanceId
+	 * @return the statement with the added batch entries or null if there was no counter with a value
+	 * @throws SQLException
+	 */
+	private PreparedStatement addCounterBatch(Connection connection, PreparedStatement ps, List<JobDetailCounter> listCounters, long jobInstanceId) throws SQLException {
+		if (listCounters == null) {
+			return ps;
+		}
+		for (JobDetailCounter entry : listCounters) {
+			Integer value = entry.getValue();
+			if (value != null) {
+				if (ps == null) {
+					ps = connection.prepareStatement(counterInsertStatement);
+				}
+				ps.setLong(1, jobInstanceId);
+				ps.setString(2, entry.getName());
+				ps.setString(3, entry.getType());
+				ps.setInt(4, value);
+				ps.addBatch();
+			}
+		}
+		return ps;
+	}
+
+	/**
+	 * The increments are summed up in memory and written by the accumulator as totals
+	 */
 	@Override
-	public JobInstanceStatus getJobInstanceStatus(long jobInstanceId) throws Exception {
-		JobInstanceStatus jis = null;
+	public void accumulateCounters(long jobInstanceId, List<JobDetailCounter> increments) throws Exception {
+		counterAccumulator.add(jobInstanceId, increments);
+	}
+
+	/**
+	 * Writes the counters with the connection of the caller, existing counters are updated, new counters are inserted.
+	 * Used for the accumulated totals and for the counters at the end of the job, so both cannot create duplicate rows.
+	 * Drivers may not report the update count of batch entries (SUCCESS_NO_INFO),
+	 * in this case the updates are repeated one by one to find the missing counters.
+	 * @param conn
+	 * @param countersByJob the counters by job_instance_id, counters without value are ignored
+	 * @throws SQLException
+	 */
+	private void upsertCounters(Connection conn, Map<Long, List<JobDetailCounter>> countersByJob) throws SQLException {
+		List<Long> ids = new ArrayList<>();
+		List<JobDetailCounter> counters = new ArrayList<>();
+		for (Map.Entry<Long, List<JobDetailCounter>> entry : countersByJob.entrySet()) {
+			if (entry.getValue() != null) {
+				for (JobDetailCounter c : entry.getValue()) {
+					if (c.getValue() != null) {
+						ids.add(entry.getKey());
+						counters.add(c);
+					}
+				}
+			}
+		}
+		if (counters.isEmpty()) {
+			return;
+		}
+		List<Integer> missing = new ArrayList<>();
+		try (PreparedStatement psUpdate = conn.prepareStatement(counterUpdateStatement)) {
+			for (int i = 0; i < counters.size(); i++) {
+				setCounterUpdateParameters(psUpdate, counters.get(i), ids.get(i));
+				psUpdate.addBatch();
+			}
+			int[] counts = psUpdate.executeBatch();
+			boolean reliable = counts.length == counters.size();
+			for (int i = 0; i < counts.length && reliable; i++) {
+				reliable = counts[i] >= 0;
+			}
+			for (int i = 0; i < counters.size(); i++) {
+				if (reliable) {
+					if (counts[i] == 0) {
+						missing.add(i);
+					}
+				} else {
+					// the update sets the total, repeating it does not change the result
+					setCounterUpdateParameters(psUpdate, counters.get(i), ids.get(i));
+					if (psUpdate.executeUpdate() == 0) {
+						missing.add(i);
+					}
+				}
+			}
+		}
+		PreparedStatement psInsert = null;
+		for (int i : missing) {
+			psInsert = addCounterBatch(conn, psInsert, Collections.singletonList(counters.get(i)), ids.get(i));
+		}
+		if (psInsert != null) {
+			psInsert.executeBatch();
+			psInsert.close();
+		}
+	}
+
+	private static void setCounterUpdateParameters(PreparedStatement psUpdate, JobDetailCounter c, long jobInstanceId) throws SQLException {
+		psUpdate.setInt(1, c.getValue());
+		psUpdate.setLong(2, jobInstanceId);
+		psUpdate.setString(3, c.getName());
+		psUpdate.setString(4, c.getType());
+	}
+
+	private String buildCounterUpdateStatement() {
 		StringBuilder sb = new StringBuilder();
-		sb.append("select * from ");
-		sb.append(getStatusTable());
-		sb.append(" where ");
+		sb.append("update ");
+		sb.append(getCounterTable());
+		sb.append(" set ");
+		sb.append(COUNTER_VALUE);
+		sb.append("=? where ");
 		sb.append(JOB_INSTANCE_ID);
-		sb.append(" = ? ");
-		String sql = sb.toString();
-		try (Connection conn = getConnection()) {
-			PreparedStatement psSelect = conn.prepareStatement(sql);
+		sb.append("=? and ");
+		sb.append(COUNTER_NAME);
+		sb.append("=? and ");
+		sb.append(COUNTER_TYPE);
+		sb.append("=?");
+		return sb.toString();
+	}
+
+	private String buildCounterInsertStatement() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("insert into ");
+		sb.append(getCounterTable());
+		sb.append(" (");
+		sb.append(JOB_INSTANCE_ID);
+		sb.append(",");
+		sb.append(COUNTER_NAME);
+		sb.append(",");
+		sb.append(COUNTER_TYPE);
+		sb.append(",");
+		sb.append(COUNTER_VALUE);
+		sb.append(") values (?,?,?,?)");
+		return sb.toString();
+	}
+
+	@Override
+	public JobInstanceStatus getJobInstanceStatus(long jobInstanceId) throws Exception {
+		if (statusCache != null) {
+			JobInstanceStatus cached = statusCache.get(jobInstanceId);
+			if (cached != null) {
+				return cached;
+			}
+		}
+		JobInstanceStatus jis = null;
+		// read your own writes: entries just written are maybe not yet replicated
+		try (Connection conn = isRecentlyWritten(jobInstanceId) ? getConnection() : getReadConnection()) {
+			PreparedStatement psSelect = conn.prepareStatement(selectByIdStatement);
 			psSelect.setLong(1, jobInstanceId);
 			ResultSet rs = psSelect.executeQuery();
 			while (rs.next()) {
@@ -701,9 +2058,92 @@ public class JDBCJobInstanceStorage implements JobInstanceStorage {
 			rs.close();
 			psSelect.close();
 		}
+		// entries of finished jobs never change, running entries could be outdated already 
+		if (statusCache != null && jis != null && jis.getStopDate() != null) {
+			statusCache.put(jis);
+		}
 		return jis;
 	}
 
+	/**
+	 * Reads the entries from the cache or with chunked IN-list queries on one connection
+	 * and passes them in the requested order to the handler
+	 */
+	@Override
+	public void getJobInstanceStatuses(List<Long> jobInstanceIds, ResultHandler<JobInstanceStatus> handler) throws Exception {
+		Map<Long, JobInstanceStatus> found = new HashMap<>();
+		List<Long> missingIds = new ArrayList<>();
+		boolean recentlyWritten = false;
+		for (Long id : jobInstanceIds) {
+			if (id == null || found.containsKey(id)) {
+				continue;
+			}
+			JobInstanceStatus cached = statusCache != null ? statusCache.get(id) : null;
+			if (cached != null) {
+				found.put(id, cached);
+			} else {
+				found.put(id, null);
+				missingIds.add(id);
+				recentlyWritten = recentlyWritten || isRecentlyWritten(id);
+			}
+		}
+		if (missingIds.isEmpty() == false) {
+			// read your own writes: entries just written are maybe not yet replicated
+			try (Connection conn = recentlyWritten ? getConnection() : getReadConnection()) {
+				for (int start = 0; start < missingIds.size(); start += MAX_IDS_PER_SELECT) {
+					List<Long> chunk = missingIds.subList(start, Math.min(missingIds.size(), start + MAX_IDS_PER_SELECT));
+					try (PreparedStatement psSelect = conn.prepareStatement(buildSelectByIdsStatement(chunk.size()))) {
+						for (int i = 0; i < chunk.size(); i++) {
+							psSelect.setLong(i + 1, chunk.get(i));
+						}
+						try (ResultSet rs = psSelect.executeQuery()) {
+							while (rs.next()) {
+								JobInstanceStatus jis = getJobInstanceStatusFromResultSet(rs);
+								found.put(jis.getJobInstanceId(), jis);
+								if (statusCache != null && jis.getStopDate() != null) {
+									statusCache.put(jis);
+								}
+							}
+						}
+					}
+				}
+			}
+		}
+		for (Long id : jobInstanceIds) {
+			JobInstanceStatus jis = id != null ? found.get(id) : null;
+			if (jis != null) {
+				handler.handle(jis);
+			}
+		}
+	}
+
+	private String buildSelectByIdsStatement(int countIds) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("select * from ");
+		sb.append(getStatusTable());
+		sb.append(" where ");
+		sb.append(JOB_INSTANCE_ID);
+		sb.append(" in (");
+		for (int i = 0; i < countIds; i++) {
+			if (i > 0) {
+				sb.append(",");
+			}
+			sb.append("?");
+		}
+		sb.append(")");
+		return sb.toString();
+	}
+
+	private String buildSelectByIdStatement() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("select * from ");
+		sb.append(getStatusTable());
+		sb.append(" where ");
+		sb.append(JOB_INSTANCE_ID);
+		sb.append(" = ? ");
+		return sb.toString();
+	}
+
 	/**
 	 * limits the message text to avoid overflow database field
 	 * @param size to limit
@@ -748,6 +2188,18 @@ public class JDBCJobInstanceStorage implements JobInstanceStorage {
 
 	@Override
 	public void close() {
+		if (createQueue != null) {
+			createQueue.stop();
+		}
+		if (updateQueue != null) {
+			updateQueue.stop();
+		}
+		if (counterAccumulator != null) {
+			counterAccumulator.stop();
+		}
+		if (retentionPurger != null) {
+			retentionPurger.stop();
+		}
 		if (connectionPool != null) {
 			try {
 				connectionPool.closePool();
@@ -755,6 +2207,13 @@ public class JDBCJobInstanceStorage implements JobInstanceStorage {
 				log.error("Close pool failed: " + e.getMessage(), e);
 			}
 		}
+		if (replicaConnectionPool != null) {
+			try {
+				replicaConnectionPool.closePool();
+			} catch (Exception e) {
+				log.error("Close replica pool failed: " + e.getMessage(), e);
+			}
+		}
 	}
 
 	public void setSchemaName(String schemaName) {
@@ -763,6 +2222,7 @@ public class JDBCJobInstanceStorage implements JobInstanceStorage {
 		} else {
 			this.schemaName = null;
 		}
+		prepareStatements();
 	}
 	
 }
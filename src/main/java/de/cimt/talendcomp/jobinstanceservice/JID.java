@@ -1,45 +1,87 @@
 package de.cimt.talendcomp.jobinstanceservice;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * 64:    Das oberste Bit wird immer 0 gesetzt um eine positive Ganzzahl zu behalten
- * 63-13: die letzten 51 Bits der Unix Time in ms
- * 12-1:  Sequence innerhalb der Millisekunde mit zufälligem Offset im Bereich von 0-1000
- * 
+ * 63-17: die letzten 47 Bits der Zeit in ms seit 2000-01-01
+ * 16-9:  Host Index
+ * 8-1:   Sequence innerhalb der Millisekunde
+ *
+ * Der Zustand ist die zuletzt vergebene ID in einem AtomicLong und wird per compare-and-set weitergeschaltet,
+ * es gibt keine Sperre und kein Warten. Ist die Sequence einer Millisekunde aufgebraucht, wird die nächste
+ * Millisekunde vorweggenommen. Geht die Uhr zurück, wird mit der letzten Millisekunde weitergezählt.
+ * Die IDs sind daher immer eindeutig und aufsteigend.
+ *
  * @author jan.lolling@gmail.com
  *
  */
 public class JID {
-	
+
 	private Long startDate = null;
-	private long currentMillisecond = 0;
-	private long lastMillisecond = 0;
-	private long jid;
-	private int sequenceValue = 1;
+	private final AtomicLong lastJID = new AtomicLong(0);
 	private byte hostIndex = 0;
-	private final long TIME_OFFSET = 946681200000l; // 2000-01-01 00:00:00
-	
+	public static final long TIME_OFFSET = 946681200000l; // 2000-01-01 00:00:00
+
 	public static final long mask47 =  Long.parseLong("11111111111111111111111111111111111111111111111", 2);
 	public static final int mask8 = Integer.parseInt("11111111", 2);
-	
-	public synchronized long createJID() throws Exception {
-		currentMillisecond = retrieveTimeInMillis();
-		// 33  bit mask
-		sequenceValue = setupSequenceWithinMilliSec();
-		sequenceValue = sequenceValue & mask8;
-		jid = currentMillisecond & mask47;
-		jid = jid << 16;
-		int hi = hostIndex;
+
+	public long createJID() {
+		long currentMillisecond = retrieveTimeInMillis() & mask47;
+		while (true) {
+			long last = lastJID.get();
+			long lastMillisecond = last >>> 16;
+			long next;
+			if (currentMillisecond > lastMillisecond) {
+				next = buildJID(currentMillisecond, 0);
+			} else {
+				// same millisecond or the clock went back
+				int sequenceValue = (int) (last & mask8);
+				if (sequenceValue < mask8) {
+					next = buildJID(lastMillisecond, sequenceValue + 1);
+				} else {
+					next = buildJID(lastMillisecond + 1, 0);
+				}
+			}
+			if (lastJID.compareAndSet(last, next)) {
+				return next;
+			}
+		}
+	}
+
+	private long buildJID(long millisecond, int sequenceValue) {
+		long jid = millisecond << 16;
+		int hi = hostIndex & mask8;
 		hi = hi << 8;
 		jid = jid | hi;
 		jid = jid | sequenceValue;
-		lastMillisecond = currentMillisecond;
 		return jid;
 	}
-	
+
+	/**
+	 * @param jobInstanceId
+	 * @return the time part: milliseconds since 2000-01-01
+	 */
 	public long getTimePart(long jobInstanceId) {
-		return jobInstanceId >> 12;
+		return jobInstanceId >> 16;
+	}
+
+	/**
+	 * @param jobInstanceId a generated job_instance_id
+	 * @return the unix time in ms the id was created
+	 */
+	public static long toMillis(long jobInstanceId) {
+		return (jobInstanceId >> 16) + TIME_OFFSET;
+	}
+
+	/**
+	 * @param millis unix time in ms
+	 * @return the smallest job_instance_id which can be created at this time
+	 */
+	public static long fromMillis(long millis) {
+		return Math.max(0, millis - TIME_OFFSET) << 16;
 	}
-	
+
 	private long retrieveTimeInMillis() {
 		if (startDate != null) {
 			return startDate - TIME_OFFSET;
@@ -60,13 +102,10 @@ public class JID {
 	    result.replace(result.length() - 1, result.length(), "");
 	    return result.toString();
 	}
-	
-	public long getJID() {
-		return jid;
-	}
-	
+
 	@Override
 	public String toString() {
+		long jid = lastJID.get();
 		return jid + " bits: " + longToString(jid);
 	}
 
@@ -76,29 +115,6 @@ public class JID {
 		}
 	}
 
-	public synchronized int setupSequenceWithinMilliSec() throws InterruptedException {
-		if (lastMillisecond < currentMillisecond) {
-			sequenceValue = (int) (Math.random() * 100);
-		} else {
-			sequenceValue = sequenceValue + 1;
-		}
-		if (sequenceValue >= mask8) {
-			Thread.sleep(1);
-			// rerun getting the current time
-			currentMillisecond = retrieveTimeInMillis();
-			sequenceValue = 1;
-		}
-		return sequenceValue;
-	}
-
-	public long getCurrentMillisecond() {
-		return currentMillisecond + TIME_OFFSET;
-	}
-
-	public int getSequenceValue() {
-		return sequenceValue;
-	}
-
 	public byte getHostIndex() {
 		return hostIndex;
 	}
@@ -107,4 +123,4 @@ public class JID {
 		this.hostIndex = hostIndex;
 	}
 
-}
\ No newline at end of file
+}
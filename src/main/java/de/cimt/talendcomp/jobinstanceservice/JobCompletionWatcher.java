@@ -0,0 +1,126 @@
+/**
+ * Copyright 2025 Jan Lolling jan.lolling@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.cimt.talendcomp.jobinstanceservice;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import io.prometheus.client.Gauge;
+
+/**
+ * Wakes the requests waiting for the end of a job.
+ * A waiting request only holds a watch with a callback, no thread and no database connection.
+ * The callback is called once, either at the end of the job or never if the watch has been cancelled.
+ * @author jan.lolling@gmail.com
+ */
+public class JobCompletionWatcher implements JobInstanceListener {
+
+	private static final Gauge waitersGauge = Gauge.build()
+			.name("job_watch_waiters")
+			.help("Number of requests waiting for the end of a job")
+			.register();
+	private final Map<Long, List<Watch>> watches = new ConcurrentHashMap<>();
+	private final AtomicInteger count = new AtomicInteger();
+
+	/**
+	 * A request waiting for the end of one job
+	 */
+	public class Watch {
+
+		private final long jobInstanceId;
+		private final Consumer<JobInstanceStatus> callback;
+		private final AtomicBoolean done = new AtomicBoolean(false);
+
+		private Watch(long jobInstanceId, Consumer<JobInstanceStatus> callback) {
+			this.jobInstanceId = jobInstanceId;
+			this.callback = callback;
+		}
+
+		/**
+		 * Removes the watch, e.g. after the timeout of the request
+		 * @return true if the callback has not been called and will never be called
+		 */
+		public boolean cancel() {
+			watches.computeIfPresent(jobInstanceId, (id, list) -> {
+				list.remove(this);
+				return list.isEmpty() ? null : list;
+			});
+			return finish();
+		}
+
+		private boolean finish() {
+			if (done.compareAndSet(false, true)) {
+				waitersGauge.set(count.decrementAndGet());
+				return true;
+			}
+			return false;
+		}
+
+	}
+
+	/**
+	 * Registers the callback for the end of the job.
+	 * The caller must check the status again after the registration, the job could have ended meanwhile.
+	 * @param jobInstanceId
+	 * @param callback receives the ended entry
+	 * @return the watch to cancel
+	 */
+	public Watch watch(long jobInstanceId, Consumer<JobInstanceStatus> callback) {
+		if (callback == null) {
+			throw new IllegalArgumentException("callback cannot be null");
+		}
+		Watch w = new Watch(jobInstanceId, callback);
+		waitersGauge.set(count.incrementAndGet());
+		watches.compute(jobInstanceId, (id, list) -> {
+			if (list == null) {
+				list = new ArrayList<>();
+			}
+			list.add(w);
+			return list;
+		});
+		return w;
+	}
+
+	@Override
+	public boolean isInterested(long jobInstanceId) {
+		return watches.containsKey(jobInstanceId);
+	}
+
+	/**
+	 * Calls the callbacks of all watches of the job
+	 */
+	@Override
+	public void entryEnded(JobInstanceStatus status) {
+		List<Watch> list = watches.remove(status.getJobInstanceId());
+		if (list != null) {
+			for (Watch w : list) {
+				if (w.finish()) {
+					w.callback.accept(status);
+				}
+			}
+		}
+	}
+
+	public int size() {
+		return count.get();
+	}
+
+}
@@ -0,0 +1,124 @@
+/**
+ * Copyright 2025 Jan Lolling jan.lolling@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.cimt.talendcomp.jobinstanceservice;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import io.prometheus.client.Counter;
+
+/**
+ * Bounded cache job_guid -> job_instance_id used to resolve the root and parent job of child jobs.
+ * The least recently used entry is evicted if the max size is reached,
+ * entries older than the time to live are treated as missing.
+ * @author jan.lolling@gmail.com
+ */
+public class JobGuidCache {
+
+	private static final Counter hitCounter = Counter.build()
+			.name("job_guid_cache_hits_total")
+			.help("Number of job_guid lookups answered by the cache")
+			.register();
+	private static final Counter missCounter = Counter.build()
+			.name("job_guid_cache_misses_total")
+			.help("Number of job_guid lookups not found in the cache")
+			.register();
+	private static final Counter evictionCounter = Counter.build()
+			.name("job_guid_cache_evictions_total")
+			.help("Number of evicted job_guid cache entries")
+			.labelNames("reason")
+			.register();
+	private final int maxSize;
+	private final long ttlMillis;
+	private final LinkedHashMap<String, Entry> map;
+
+	private static class Entry {
+
+		private final long jobInstanceId;
+		private final long createdAt;
+
+		private Entry(long jobInstanceId, long createdAt) {
+			this.jobInstanceId = jobInstanceId;
+			this.createdAt = createdAt;
+		}
+
+	}
+
+	public JobGuidCache(int maxSize, long ttlMillis) {
+		if (maxSize < 1) {
+			throw new IllegalArgumentException("maxSize must be greater 0");
+		}
+		if (ttlMillis < 1) {
+			throw new IllegalArgumentException("ttlMillis must be greater 0");
+		}
+		this.maxSize = maxSize;
+		this.ttlMillis = ttlMillis;
+		this.map = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+				if (size() > JobGuidCache.this.maxSize) {
+					evictionCounter.labels("size").inc();
+					return true;
+				} else {
+					return false;
+				}
+			}
+
+		};
+	}
+
+	/**
+	 * @param jobGuid
+	 * @return the job_instance_id or null if the guid is not cached or the entry is expired
+	 */
+	public synchronized Long get(String jobGuid) {
+		Entry entry = map.get(jobGuid);
+		if (entry != null && System.currentTimeMillis() - entry.createdAt > ttlMillis) {
+			map.remove(jobGuid);
+			evictionCounter.labels("ttl").inc();
+			entry = null;
+		}
+		if (entry != null) {
+			hitCounter.inc();
+			return entry.jobInstanceId;
+		} else {
+			missCounter.inc();
+			return null;
+		}
+	}
+
+	public synchronized void put(String jobGuid, long jobInstanceId) {
+		if (jobGuid != null && jobInstanceId > 0) {
+			map.put(jobGuid, new Entry(jobInstanceId, System.currentTimeMillis()));
+		}
+	}
+
+	public synchronized void remove(String jobGuid) {
+		map.remove(jobGuid);
+	}
+
+	public synchronized int size() {
+		return map.size();
+	}
+
+	public synchronized void clear() {
+		map.clear();
+	}
+
+}
@@ -0,0 +1,412 @@
+/**
+ * Copyright 2025 Jan Lolling jan.lolling@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.cimt.talendcomp.jobinstanceservice;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+
+import de.cimt.talendcomp.jobinstanceservice.JobInstanceStorage.ResultHandler;
+
+/**
+ * Criteria to select job instance status entries.
+ * null values means this criteria is not used for selection.
+ * The result is ordered by the start time and job_instance_id.
+ * The cursor continues the result after the row the cursor has been built from (keyset pagination).
+ * @author jan.lolling@gmail.com
+ */
+public class JobInstanceFilter {
+
+	private String excludeJobName;
+	private String includeJobNames;
+	private String taskName;
+	private String workItem;
+	private Boolean withInput;
+	private Boolean withOutput;
+	private Boolean successful;
+	private Boolean running;
+	private Integer returnCode;
+	private Long beforeJobInstanceId;
+	private Long afterJobInstanceId;
+	private Long rootJobInstanceId;
+	private Date startedAfter;
+	private Date startedBefore;
+	private Integer limit;
+	private boolean withCounters = false;
+	private Date cursorStartedAt;
+	private Long cursorJobInstanceId;
+	/**
+	 * order of the result: start time and job_instance_id
+	 */
+	public static final Comparator<JobInstanceStatus> ORDER = Comparator
+			.comparing((JobInstanceStatus s) -> s.getStartDate().getTime())
+			.thenComparing(JobInstanceStatus::getJobInstanceId);
+
+	/**
+	 * Builds the cursor pointing to the given row
+	 * @param startedAt JOB_STARTED_AT of the row
+	 * @param jobInstanceId JOB_INSTANCE_ID of the row
+	 * @return cursor in the form started_at_millis:job_instance_id
+	 */
+	public static String buildCursor(Date startedAt, long jobInstanceId) {
+		if (startedAt == null) {
+			throw new IllegalArgumentException("startedAt cannot be null");
+		}
+		return startedAt.getTime() + ":" + jobInstanceId;
+	}
+
+	/**
+	 * Continue the result after the row the cursor has been built from
+	 * @param cursor in the form started_at_millis:job_instance_id
+	 */
+	public void setCursor(String cursor) {
+		if (cursor != null && cursor.isBlank() == false) {
+			int pos = cursor.indexOf(':');
+			if (pos < 1 || pos == cursor.length() - 1) {
+				throw new IllegalArgumentException("Invalid cursor: " + cursor + ". Expected: started_at_millis:job_instance_id");
+			}
+			try {
+				cursorStartedAt = new Date(Long.parseLong(cursor.substring(0, pos).trim()));
+				cursorJobInstanceId = Long.parseLong(cursor.substring(pos + 1).trim());
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Invalid cursor: " + cursor + ". Expected: started_at_millis:job_instance_id");
+			}
+		} else {
+			cursorStartedAt = null;
+			cursorJobInstanceId = null;
+		}
+	}
+
+	public boolean hasCursor() {
+		return cursorStartedAt != null && cursorJobInstanceId != null;
+	}
+
+	/**
+	 * Checks the criteria against an entry the same way the database query does.
+	 * Counters and the return code are written at the end of the job, running jobs never match these criteria.
+	 * @param status
+	 * @return true if the entry matches all criteria and follows the cursor
+	 */
+	public boolean matches(JobInstanceStatus status) {
+		if (excludeJobName != null && excludeJobName.trim().equals(status.getName())) {
+			return false;
+		}
+		if (includeJobNames != null) {
+			boolean found = false;
+			for (String jobName : includeJobNames.split(",")) {
+				if (jobName.trim().equals(status.getName())) {
+					found = true;
+					break;
+				}
+			}
+			if (found == false) {
+				return false;
+			}
+		}
+		if (taskName != null && taskName.equals(status.getTaskName()) == false) {
+			return false;
+		}
+		if (workItem != null && workItem.trim().equals(status.getWorkItem()) == false) {
+			return false;
+		}
+		boolean ended = status.getStopDate() != null;
+		if (withInput != null) {
+			if (ended == false || withInput != isPositive(status.getCountInput())) {
+				return false;
+			}
+		}
+		if (withOutput != null) {
+			boolean hasOutput = isPositive(status.getCountOutput()) || isPositive(status.getCountUpdate()) || isPositive(status.getCountDelete());
+			if (ended == false || withOutput != hasOutput) {
+				return false;
+			}
+		}
+		if (beforeJobInstanceId != null && status.getJobInstanceId() >= beforeJobInstanceId) {
+			return false;
+		}
+		if (afterJobInstanceId != null && status.getJobInstanceId() <= afterJobInstanceId) {
+			return false;
+		}
+		if (startedAfter != null && status.getStartDate().getTime() < startedAfter.getTime()) {
+			return false;
+		}
+		if (startedBefore != null && status.getStartDate().getTime() >= startedBefore.getTime()) {
+			return false;
+		}
+		if (rootJobInstanceId != null && status.getProcessInstanceId() != rootJobInstanceId) {
+			return false;
+		}
+		if (returnCode != null && (ended == false || returnCode.equals(status.getReturnCode()) == false)) {
+			return false;
+		}
+		if (running != null && running == ended) {
+			return false;
+		}
+		if (successful != null) {
+			if (ended == false || status.getReturnCode() == null || successful != (status.getReturnCode() == 0) || status.getReturnCode() < 0) {
+				return false;
+			}
+		}
+		if (hasCursor()) {
+			long startedAt = status.getStartDate().getTime();
+			if (startedAt < cursorStartedAt.getTime() 
+					|| (startedAt == cursorStartedAt.getTime() && status.getJobInstanceId() <= cursorJobInstanceId)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Like count > 0 in SQL, a missing count is not positive
+	 */
+	private static boolean isPositive(Integer count) {
+		return count != null && count > 0;
+	}
+
+	/**
+	 * Selects the matching entries from in-memory entries in the order and with the limit of the database query
+	 * @param candidates entries to check
+	 * @param handler receives the matching entries
+	 * @return the cursor of the last entry or null if there was no entry
+	 * @throws Exception
+	 */
+	public String select(Iterable<JobInstanceStatus> candidates, ResultHandler<JobInstanceStatus> handler) throws Exception {
+		List<JobInstanceStatus> result = new ArrayList<>();
+		for (JobInstanceStatus status : candidates) {
+			if (status != null && matches(status)) {
+				result.add(status);
+			}
+		}
+		result.sort(ORDER);
+		int count = limit != null ? Math.min(limit, result.size()) : result.size();
+		JobInstanceStatus last = null;
+		for (int i = 0; i < count; i++) {
+			last = result.get(i);
+			handler.handle(last);
+		}
+		return last != null ? buildCursor(last.getStartDate(), last.getJobInstanceId()) : null;
+	}
+
+	public String getExcludeJobName() {
+		return excludeJobName;
+	}
+
+	public void setExcludeJobName(String excludeJobName) {
+		this.excludeJobName = excludeJobName;
+	}
+
+	/**
+	 * @return comma separated List of jobs to select
+	 */
+	public String getIncludeJobNames() {
+		return includeJobNames;
+	}
+
+	public void setIncludeJobNames(String includeJobNames) {
+		this.includeJobNames = includeJobNames;
+	}
+
+	public String getTaskName() {
+		return taskName;
+	}
+
+	public void setTaskName(String taskName) {
+		this.taskName = taskName;
+	}
+
+	public String getWorkItem() {
+		return workItem;
+	}
+
+	public void setWorkItem(String workItem) {
+		this.workItem = workItem;
+	}
+
+	public Boolean getWithInput() {
+		return withInput;
+	}
+
+	public void setWithInput(Boolean withInput) {
+		this.withInput = withInput;
+	}
+
+	public Boolean getWithOutput() {
+		return withOutput;
+	}
+
+	public void setWithOutput(Boolean withOutput) {
+		this.withOutput = withOutput;
+	}
+
+	public Boolean getSuccessful() {
+		return successful;
+	}
+
+	public void setSuccessful(Boolean successful) {
+		this.successful = successful;
+	}
+
+	public Boolean getRunning() {
+		return running;
+	}
+
+	public void setRunning(Boolean running) {
+		this.running = running;
+	}
+
+	public Integer getReturnCode() {
+		return returnCode;
+	}
+
+	public void setReturnCode(Integer returnCode) {
+		this.returnCode = returnCode;
+	}
+
+	public Long getBeforeJobInstanceId() {
+		return beforeJobInstanceId;
+	}
+
+	public void setBeforeJobInstanceId(Long beforeJobInstanceId) {
+		this.beforeJobInstanceId = beforeJobInstanceId;
+	}
+
+	public Long getAfterJobInstanceId() {
+		return afterJobInstanceId;
+	}
+
+	public void setAfterJobInstanceId(Long afterJobInstanceId) {
+		this.afterJobInstanceId = afterJobInstanceId;
+	}
+
+	public Long getRootJobInstanceId() {
+		return rootJobInstanceId;
+	}
+
+	public void setRootJobInstanceId(Long rootJobInstanceId) {
+		this.rootJobInstanceId = rootJobInstanceId;
+	}
+
+	/**
+	 * @return the start of the time window (inclusive) or null
+	 */
+	public Date getStartedAfter() {
+		return startedAfter;
+	}
+
+	public void setStartedAfter(Date startedAfter) {
+		this.startedAfter = startedAfter;
+	}
+
+	/**
+	 * @return the end of the time window (exclusive) or null
+	 */
+	public Date getStartedBefore() {
+		return startedBefore;
+	}
+
+	public void setStartedBefore(Date startedBefore) {
+		this.startedBefore = startedBefore;
+	}
+
+	/**
+	 * @return max number of rows or null for all rows
+	 */
+	public Integer getLimit() {
+		return limit;
+	}
+
+	public void setLimit(Integer limit) {
+		if (limit != null && limit < 1) {
+			throw new IllegalArgumentException("limit must be greater 0");
+		}
+		this.limit = limit;
+	}
+
+	/**
+	 * @return true if the named counters have to be loaded for the selected objects
+	 */
+	public boolean isWithCounters() {
+		return withCounters;
+	}
+
+	public void setWithCounters(Boolean withCounters) {
+		this.withCounters = withCounters != null && withCounters;
+	}
+
+	public Date getCursorStartedAt() {
+		return cursorStartedAt;
+	}
+
+	public Long getCursorJobInstanceId() {
+		return cursorJobInstanceId;
+	}
+
+	/**
+	 * @return a filter with the same criteria, limit and cursor
+	 */
+	public JobInstanceFilter copy() {
+		JobInstanceFilter copy = new JobInstanceFilter();
+		copy.excludeJobName = excludeJobName;
+		copy.includeJobNames = includeJobNames;
+		copy.taskName = taskName;
+		copy.workItem = workItem;
+		copy.withInput = withInput;
+		copy.withOutput = withOutput;
+		copy.successful = successful;
+		copy.running = running;
+		copy.returnCode = returnCode;
+		copy.beforeJobInstanceId = beforeJobInstanceId;
+		copy.afterJobInstanceId = afterJobInstanceId;
+		copy.rootJobInstanceId = rootJobInstanceId;
+		copy.startedAfter = startedAfter;
+		copy.startedBefore = startedBefore;
+		copy.limit = limit;
+		copy.withCounters = withCounters;
+		copy.cursorStartedAt = cursorStartedAt;
+		copy.cursorJobInstanceId = cursorJobInstanceId;
+		return copy;
+	}
+
+	/**
+	 * Identical filters have the same key regardless of the order of the request parameters
+	 * @return the normalized filter
+	 */
+	public String buildKey() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("ej=").append(excludeJobName);
+		sb.append("|ij=").append(includeJobNames);
+		sb.append("|tn=").append(taskName);
+		sb.append("|wi=").append(workItem);
+		sb.append("|in=").append(withInput);
+		sb.append("|out=").append(withOutput);
+		sb.append("|suc=").append(successful);
+		sb.append("|run=").append(running);
+		sb.append("|rc=").append(returnCode);
+		sb.append("|bid=").append(beforeJobInstanceId);
+		sb.append("|aid=").append(afterJobInstanceId);
+		sb.append("|rid=").append(rootJobInstanceId);
+		sb.append("|sa=").append(startedAfter != null ? startedAfter.getTime() : null);
+		sb.append("|sb=").append(startedBefore != null ? startedBefore.getTime() : null);
+		sb.append("|lim=").append(limit);
+		sb.append("|cnt=").append(withCounters);
+		sb.append("|cs=").append(cursorStartedAt != null ? cursorStartedAt.getTime() : null);
+		sb.append("|cid=").append(cursorJobInstanceId);
+		return sb.toString();
+	}
+
+}
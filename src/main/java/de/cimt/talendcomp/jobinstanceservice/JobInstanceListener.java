@@ -0,0 +1,41 @@
+/**
+ * Copyright 2025 Jan Lolling jan.lolling@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.cimt.talendcomp.jobinstanceservice;
+
+/**
+ * Receives the entries of the storage after they have been written.
+ * The listener is called in the thread writing the entry and must not block.
+ * @author jan.lolling@gmail.com
+ */
+@FunctionalInterface
+public interface JobInstanceListener {
+
+	/**
+	 * Storages can skip the lookup of the complete entry if no listener is interested in the job
+	 * @param jobInstanceId
+	 * @return true if the listener wants to receive the end of the job
+	 */
+	public default boolean isInterested(long jobInstanceId) {
+		return true;
+	}
+
+	/**
+	 * Called after the end of the job has been written
+	 * @param status the complete entry as it is stored now
+	 */
+	public void entryEnded(JobInstanceStatus status);
+
+}
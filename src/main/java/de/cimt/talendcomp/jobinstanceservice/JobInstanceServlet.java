@@ -1,12 +1,21 @@
 package de.cimt.talendcomp.jobinstanceservice;
 
 import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Reader;
 import java.io.Writer;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.hc.core5.http.NameValuePair;
@@ -15,9 +24,17 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.eclipse.jetty.ee10.servlet.DefaultServlet;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
@@ -27,8 +44,24 @@ public class JobInstanceServlet extends DefaultServlet {
 	private static Logger log = LogManager.getLogger(JobInstanceServlet.class);
 	private static final long serialVersionUID = 1L;
 	private JobInstanceStorage storage = null;
-	public static final String path = "/job-instance";
+	public static final String path = "/job-instance/*";
 	private String propertiesFilePath = null;
+	private UpdateJournal journal = null;
+	public static final String BATCH_PATH = "/batch";
+	public static final String IDS_PATH = "/ids";
+	public static final String COUNTERS_PATH_REGEX = "/([0-9]{1,})/counters$";
+	public static final String STATS_PATH = "/stats";
+	public static final String EVENT_STREAM_CONTENT_TYPE = "text/event-stream";
+	private JobStatistics statistics = null;
+	public static final String LAST_SUCCESSFUL_PATH = "/last-successful";
+	private LastSuccessfulRuns lastSuccessfulRuns = null;
+	private final JobCompletionWatcher watcher = new JobCompletionWatcher();
+	private long watchMaxWaitMillis = 300000l;
+	public static final String CHANGES_PATH = "/changes";
+	public static final String NDJSON_CONTENT_TYPE = "application/x-ndjson";
+	private ChangeFeed changeFeed = null;
+	private QueryCoalescer coalescer = null;
+	private int batchMaxSize = 1000;
 	protected final static ObjectMapper objectMapper = new ObjectMapper();
 
 	@Override
@@ -38,13 +71,72 @@ public class JobInstanceServlet extends DefaultServlet {
 		if (propertiesFilePath == null) {
 			throw new ServletException("Properties file path for db pool not set!");
 		}
-		JDBCJobInstanceStorage jdbc = new JDBCJobInstanceStorage();
+		Properties properties = null;
 		try {
-			jdbc.initialize(propertiesFilePath);
+			properties = JDBCJobInstanceStorage.loadProperties(propertiesFilePath);
 		} catch (Exception e) {
-			throw new ServletException("Init jdbc storage failed: " + e.getMessage(), e);
+			throw new ServletException(e.getMessage(), e);
+		}
+		if (LogJobInstanceStorage.STORAGE_TYPE.equals(properties.getProperty("storageType"))) {
+			LogJobInstanceStorage embedded = new LogJobInstanceStorage();
+			try {
+				embedded.initialize(properties);
+			} catch (Exception e) {
+				throw new ServletException("Init embedded storage failed: " + e.getMessage(), e);
+			}
+			storage = embedded;
+		} else {
+			JDBCJobInstanceStorage jdbc = new JDBCJobInstanceStorage();
+			try {
+				jdbc.initialize(properties);
+			} catch (Exception e) {
+				throw new ServletException("Init jdbc storage failed: " + e.getMessage(), e);
+			}
+			storage = jdbc;
+		}
+		batchMaxSize = Integer.parseInt(properties.getProperty("batchMaxSize", String.valueOf(batchMaxSize)));
+		if (Boolean.parseBoolean(properties.getProperty("statsEnabled", "false"))) {
+			statistics = new JobStatistics();
+			statistics.setMaxGroups(Integer.valueOf(properties.getProperty("statsMaxGroups", String.valueOf(statistics.getMaxGroups()))));
+			try {
+				statistics.rebuild(storage, Integer.parseInt(properties.getProperty("statsRebuildDays", "30")));
+			} catch (Exception e) {
+				throw new ServletException("Rebuild job statistics failed: " + e.getMessage(), e);
+			}
+			storage.addListener(statistics);
+		}
+		if (Boolean.parseBoolean(properties.getProperty("lastSuccessfulEnabled", "false"))) {
+			lastSuccessfulRuns = new LastSuccessfulRuns();
+			try {
+				lastSuccessfulRuns.rebuild(storage, Integer.parseInt(properties.getProperty("lastSuccessfulRebuildDays", "365")));
+			} catch (Exception e) {
+				throw new ServletException("Rebuild last successful runs failed: " + e.getMessage(), e);
+			}
+			storage.addListener(lastSuccessfulRuns);
+		}
+		watchMaxWaitMillis = Long.parseLong(properties.getProperty("watchMaxWaitSeconds", String.valueOf(watchMaxWaitMillis / 1000l))) * 1000l;
+		storage.addListener(watcher);
+		if (Boolean.parseBoolean(properties.getProperty("coalesceEnabled", "false"))) {
+			coalescer = new QueryCoalescer();
+			coalescer.setCacheMillis(Long.valueOf(properties.getProperty("coalesceCacheMillis", String.valueOf(coalescer.getCacheMillis()))));
+			coalescer.setCacheMaxEntries(Integer.valueOf(properties.getProperty("coalesceCacheMaxEntries", String.valueOf(coalescer.getCacheMaxEntries()))));
+		}
+		if (Boolean.parseBoolean(properties.getProperty("changeFeedEnabled", "false"))) {
+			changeFeed = new ChangeFeed(Integer.parseInt(properties.getProperty("changeFeedCapacity", "10000")), objectMapper);
+			changeFeed.setMaxSubscribers(Integer.valueOf(properties.getProperty("changeFeedMaxSubscribers", String.valueOf(changeFeed.getMaxSubscribers()))));
+		}
+		if (Boolean.parseBoolean(properties.getProperty("journalEnabled", "false"))) {
+			journal = new UpdateJournal(properties.getProperty("journalDir", "journal"), storage, objectMapper);
+			journal.setSegmentSize(Integer.valueOf(properties.getProperty("journalSegmentSize", String.valueOf(journal.getSegmentSize()))));
+			journal.setFsyncPolicy(properties.getProperty("journalFsync"));
+			journal.setFsyncIntervalMillis(Long.valueOf(properties.getProperty("journalFsyncIntervalMillis", String.valueOf(journal.getFsyncIntervalMillis()))));
+			journal.setRetryIntervalMillis(Long.valueOf(properties.getProperty("journalRetryIntervalMillis", String.valueOf(journal.getRetryIntervalMillis()))));
+			try {
+				journal.start();
+			} catch (Exception e) {
+				throw new ServletException("Start update journal failed: " + e.getMessage(), e);
+			}
 		}
-		storage = jdbc;
 	}
 
 	/**
@@ -55,11 +147,28 @@ public class JobInstanceServlet extends DefaultServlet {
 	        throws ServletException, IOException {
 		String path = request.getRequestURI();
 		response.setCharacterEncoding("UTF-8"); // must be done before we get the writer!
+		if (path.endsWith(STATS_PATH)) {
+			doGetStats(request, response);
+			return;
+		} else if (path.endsWith(LAST_SUCCESSFUL_PATH)) {
+			doGetLastSuccessful(request, response);
+			return;
+		} else if (path.endsWith(CHANGES_PATH)) {
+			doGetChanges(request, response);
+			return;
+		}
 		// check if the path addresses one instance status directly
 		Long jobInstanceId = JobInstanceStorage.extractJobInstanceIdFromPath(path);
 		if (jobInstanceId != null) {
+			if (request.getParameter("wait_for_end") != null || isEventStreamRequest(request)) {
+				doWatch(request, response, jobInstanceId);
+				return;
+			}
 			try {
 				JobInstanceStatus status = storage.getJobInstanceStatus(jobInstanceId);
+				if (status != null && Boolean.parseBoolean(request.getParameter("with_counters"))) {
+					storage.loadCounters(Collections.singletonList(status));
+				}
 				if (status != null) {
 					// return the status as response
 					response.setHeader("total-rows", "1");
@@ -82,68 +191,659 @@ public class JobInstanceServlet extends DefaultServlet {
 			}
 		} else {
 			List<NameValuePair> params = new ArrayList<>(); // dummy empty list
+			JobInstanceFilter filter = null;
+			List<Long> ids = null;
 			try {
-				params = new URIBuilder(path).getQueryParams();
-				Boolean returnObjects = getValueAsBoolean("return_objects", params);
-				if (returnObjects != null && returnObjects == true) {
-					List<JobInstanceStatus> list = storage.selectObjects(
-							getValueAsString("exclude_job", params),
-							getValueAsString("include_jobs", params),
-							getValueAsString("task_name", params),
-							getValueAsString("work_item", params),
-							getValueAsBoolean("with_input", params),
-							getValueAsBoolean("with_output", params),
-							getValueAsBoolean("is_successful", params),
-							getValueAsBoolean("is_running", params),
-							getValueAsInteger("return_code", params),
-							getValueAsLong("before_job_instance_id", params),
-							getValueAsLong("after_job_instance_id", params),
-							getValueAsLong("root_job_instance_id", params));
-					response.setHeader("total-rows", String.valueOf(list.size()));
-					response.setContentType("application/json; charset=utf-8");
-					final Writer out = response.getWriter();
-					try (BufferedWriter br = new BufferedWriter(out)) {
-						String json = objectMapper.writeValueAsString(list);
-						br.write(json);						
-					} catch (Exception e) {
-						sendError(response, 500, "Send job-instance-status (objects) response failed: " + e.getMessage());
-						return;
-					}
+				String query = request.getQueryString();
+				params = new URIBuilder(path + (query != null ? "?" + query : "")).getQueryParams();
+				filter = buildFilter(params);
+				ids = parseIdList(getValueAsString("ids", params));
+			} catch (URISyntaxException | IllegalArgumentException e) {
+				sendError(response, 403, "Extract params from query: " + request.getQueryString() + " failed: " + e.getMessage());
+				return;
+			}
+			Boolean returnObjects = getValueAsBoolean("return_objects", params);
+			boolean objects = returnObjects != null && returnObjects == true;
+			Boolean streamParam = getValueAsBoolean("stream", params);
+			boolean stream = streamParam != null && streamParam == true;
+			if (ids != null && ids.size() > batchMaxSize) {
+				sendError(response, 413, "Request contains " + ids.size() + " ids, allowed are max " + batchMaxSize);
+				return;
+			}
+			try {
+				if (ids != null) {
+					writeStatuses(response, ids, filter.isWithCounters());
+				} else if (coalescer != null && filter.getLimit() != null) {
+					writeCoalesced(response, filter, objects);
+				} else if (stream && filter.getLimit() == null) {
+					writeStream(response, filter, objects);
 				} else {
-					List<Long> list = storage.selectIds(
-							getValueAsString("exclude_job", params),
-							getValueAsString("include_jobs", params),
-							getValueAsString("task_name", params),
-							getValueAsString("work_item", params),
-							getValueAsBoolean("with_input", params),
-							getValueAsBoolean("with_output", params),
-							getValueAsBoolean("is_successful", params),
-							getValueAsBoolean("is_running", params),
-							getValueAsInteger("return_code", params),
-							getValueAsLong("before_job_instance_id", params),
-							getValueAsLong("after_job_instance_id", params),
-							getValueAsLong("root_job_instance_id", params));
-					response.setHeader("total-rows", String.valueOf(list.size()));
-					response.setContentType("application/json; charset=utf-8");
-					final Writer out = response.getWriter();
-					try (BufferedWriter br = new BufferedWriter(out)) {
-						String json = objectMapper.writeValueAsString(list);
-						br.write(json);						
+					writePage(response, filter, objects);
+				}
+			} catch (Exception e1) {
+				if (response.isCommitted()) {
+					// the response is already partially sent, the container aborts the connection
+					// so the client cannot take the truncated array as complete result
+					log.error("Send job-instance-status response failed: " + e1.getMessage(), e1);
+					throw new IOException("Send job-instance-status response failed: " + e1.getMessage(), e1);
+				} else {
+					sendError(response, 500, "select job-instance_status failed: " + e1.getMessage());
+				}
+				return;
+			}
+		}
+	}
+
+	private static boolean isEventStreamRequest(HttpServletRequest request) {
+		String accept = request.getHeader("Accept");
+		return accept != null && accept.contains(EVENT_STREAM_CONTENT_TYPE);
+	}
+
+	/**
+	 * @param wait duration like 30s, 500ms or 2m, without unit in seconds
+	 * @return the duration in milliseconds, limited to watchMaxWaitSeconds
+	 */
+	long parseWaitMillis(String wait) {
+		if (wait == null || wait.isBlank()) {
+			return watchMaxWaitMillis;
+		}
+		wait = wait.trim().toLowerCase();
+		long millis = 0;
+		if (wait.endsWith("ms")) {
+			millis = Long.parseLong(wait.substring(0, wait.length() - 2).trim());
+		} else if (wait.endsWith("s")) {
+			millis = Long.parseLong(wait.substring(0, wait.length() - 1).trim()) * 1000l;
+		} else if (wait.endsWith("m")) {
+			millis = Long.parseLong(wait.substring(0, wait.length() - 1).trim()) * 60000l;
+		} else {
+			millis = Long.parseLong(wait) * 1000l;
+		}
+		if (millis < 0) {
+			throw new IllegalArgumentException("wait_for_end cannot be negative");
+		}
+		return Math.min(millis, watchMaxWaitMillis);
+	}
+
+	/**
+	 * Waits for the end of the job without holding a thread: the request is parked as async request
+	 * and woken by the storage listener after the update of the job has been written.
+	 * Long-poll: the response contains the status after the end of the job or the current status after the wait time.
+	 * Event stream (Accept: text/event-stream): the event status with the current status is sent immediately,
+	 * the event ended or timeout follows.
+	 * @param request
+	 * @param response
+	 * @param jobInstanceId
+	 * @throws IOException
+	 */
+	private void doWatch(HttpServletRequest request, HttpServletResponse response, long jobInstanceId) throws IOException {
+		boolean eventStream = isEventStreamRequest(request);
+		long waitMillis = 0;
+		JobInstanceStatus status = null;
+		try {
+			waitMillis = parseWaitMillis(request.getParameter("wait_for_end"));
+			status = storage.getJobInstanceStatus(jobInstanceId);
+		} catch (IllegalArgumentException e) {
+			sendError(response, 403, "Invalid wait_for_end: " + request.getParameter("wait_for_end") + ": " + e.getMessage());
+			return;
+		} catch (Exception e) {
+			sendError(response, 500, "Get JobInstanceStatus for ID=" + jobInstanceId + " failed: " + e.getMessage());
+			return;
+		}
+		if (status == null) {
+			sendError(response, 404, "No job-instance-status found for ID=" + jobInstanceId);
+			return;
+		}
+		if (eventStream) {
+			response.setContentType(EVENT_STREAM_CONTENT_TYPE + "; charset=utf-8");
+			response.setHeader("Cache-Control", "no-cache");
+			writeEvent(response, "status", status);
+		}
+		if (status.getStopDate() != null || waitMillis == 0) {
+			writeWatchResult(response, eventStream, status.getStopDate() != null ? "ended" : "timeout", status);
+			return;
+		}
+		AsyncContext ctx = request.startAsync();
+		ctx.setTimeout(waitMillis);
+		JobCompletionWatcher.Watch watch = watcher.watch(jobInstanceId, ended -> ctx.start(() -> completeWatch(ctx, eventStream, "ended", ended)));
+		ctx.addListener(new AsyncListener() {
+
+			@Override
+			public void onTimeout(AsyncEvent event) throws IOException {
+				if (watch.cancel()) {
+					JobInstanceStatus current = null;
+					try {
+						current = storage.getJobInstanceStatus(jobInstanceId);
 					} catch (Exception e) {
-						sendError(response, 500, "Send job-instance-status (ids) response failed: " + e.getMessage());
-						return;
+						log.warn("Get JobInstanceStatus for ID=" + jobInstanceId + " after the wait time failed: " + e.getMessage());
 					}
+					completeWatch(ctx, eventStream, "timeout", current);
 				}
-			} catch (URISyntaxException e) {
-				sendError(response, 403, "Extract params from query: " + request.getQueryString() + " failed: " + e.getMessage());
+			}
+
+			@Override
+			public void onError(AsyncEvent event) throws IOException {
+				if (watch.cancel()) {
+					ctx.complete();
+				}
+			}
+
+			@Override
+			public void onComplete(AsyncEvent event) throws IOException {
+				watch.cancel();
+			}
+
+			@Override
+			public void onStartAsync(AsyncEvent event) throws IOException {}
+
+		});
+		// the job could have ended between the first read and the registration of the watch
+		try {
+			status = storage.getJobInstanceStatus(jobInstanceId);
+		} catch (Exception e) {
+			log.warn("Get JobInstanceStatus for ID=" + jobInstanceId + " after the registration of the watch failed: " + e.getMessage());
+		}
+		if (status != null && status.getStopDate() != null && watch.cancel()) {
+			completeWatch(ctx, eventStream, "ended", status);
+		}
+	}
+
+	private void completeWatch(AsyncContext ctx, boolean eventStream, String event, JobInstanceStatus status) {
+		try {
+			writeWatchResult((HttpServletResponse) ctx.getResponse(), eventStream, event, status);
+		} catch (Exception e) {
+			log.warn("Send end of job_instance_id=" + (status != null ? status.getJobInstanceId() : null) + " to a waiting request failed: " + e.getMessage());
+		} finally {
+			ctx.complete();
+		}
+	}
+
+	private void writeWatchResult(HttpServletResponse response, boolean eventStream, String event, JobInstanceStatus status) throws IOException {
+		if (eventStream) {
+			writeEvent(response, event, status);
+		} else if (status == null) {
+			response.setStatus(404);
+		} else {
+			response.setHeader("total-rows", "1");
+			response.setContentType("application/json; charset=utf-8");
+			response.getOutputStream().write(objectMapper.writeValueAsBytes(status));
+		}
+	}
+
+	private void writeEvent(HttpServletResponse response, String event, JobInstanceStatus status) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		sb.append("event: ");
+		sb.append(event);
+		sb.append("\ndata: ");
+		sb.append(status != null ? objectMapper.writeValueAsString(status) : "null");
+		sb.append("\n\n");
+		response.getOutputStream().write(sb.toString().getBytes(StandardCharsets.UTF_8));
+		response.flushBuffer();
+	}
+
+	/**
+	 * Called after every create or update: invalidates the shared query results and adds the entry to the change feed.
+	 * With the update journal this happens before the drainer has written the update into the database,
+	 * a query started meanwhile can still read and share the old state.
+	 * @param type create or update
+	 * @param status
+	 */
+	private void entryChanged(String type, JobInstanceStatus status) {
+		if (coalescer != null) {
+			coalescer.invalidate();
+		}
+		if (changeFeed != null) {
+			try {
+				changeFeed.append(type, status);
+			} catch (Exception e) {
+				log.error("Add " + type + " of job_instance_id=" + status.getJobInstanceId() + " to the change feed failed: " + e.getMessage(), e);
+			}
+		}
+	}
+
+	/**
+	 * Sends the events of the change feed after the cursor given by the parameter after or the header Last-Event-ID.
+	 * NDJSON (default): the available events, one JSON object per line. With the parameter wait the request waits
+	 * for the next event if there is none. The header next-after contains the cursor to continue with.
+	 * Event stream (Accept: text/event-stream): the events are streamed until the wait time is over,
+	 * a consumer not keeping up with the feed is disconnected.
+	 * @param request
+	 * @param response
+	 * @throws IOException
+	 */
+	private void doGetChanges(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		if (changeFeed == null) {
+			sendError(response, 501, "The change feed is not enabled, set changeFeedEnabled=true");
+			return;
+		}
+		boolean eventStream = isEventStreamRequest(request);
+		String after = request.getParameter("after");
+		if (after == null) {
+			after = request.getHeader("Last-Event-ID");
+		}
+		long afterSequence = 0;
+		int limit = 1000;
+		long waitMillis = 0;
+		try {
+			afterSequence = changeFeed.parseCursor(after);
+			String limitStr = request.getParameter("limit");
+			if (limitStr != null && limitStr.isBlank() == false) {
+				limit = Integer.parseInt(limitStr.trim());
+				if (limit < 1) {
+					throw new IllegalArgumentException("limit must be greater 0");
+				}
+			}
+			if (eventStream || request.getParameter("wait") != null) {
+				waitMillis = parseWaitMillis(request.getParameter("wait"));
+			}
+		} catch (ServiceException e) {
+			// the cursor belongs to a previous start of the service
+			sendError(response, e.getStatusCode(), e.getMessage());
+			return;
+		} catch (IllegalArgumentException e) {
+			sendError(response, 403, "Invalid parameters for the change feed: " + e.getMessage());
+			return;
+		}
+		List<ChangeFeed.Event> events = null;
+		try {
+			events = changeFeed.read(afterSequence, limit);
+		} catch (ServiceException e) {
+			response.setHeader("first-sequence", String.valueOf(changeFeed.getFirstSequence()));
+			sendError(response, e.getStatusCode(), e.getMessage());
+			return;
+		}
+		if (eventStream == false && (events.isEmpty() == false || waitMillis == 0)) {
+			writeChanges(response, false, events, afterSequence);
+			return;
+		}
+		if (eventStream) {
+			response.setContentType(EVENT_STREAM_CONTENT_TYPE + "; charset=utf-8");
+			response.setHeader("Cache-Control", "no-cache");
+		}
+		AsyncContext ctx = request.startAsync();
+		ctx.setTimeout(waitMillis);
+		FeedConsumer consumer = new FeedConsumer(ctx, eventStream, afterSequence, limit);
+		if (changeFeed.subscribe(consumer) == false) {
+			sendError(response, 503, "Max number of change feed consumers reached");
+			ctx.complete();
+			return;
+		}
+		ctx.addListener(new AsyncListener() {
+
+			@Override
+			public void onTimeout(AsyncEvent event) throws IOException {
+				consumer.timeout();
+			}
+
+			@Override
+			public void onError(AsyncEvent event) throws IOException {
+				consumer.close(true);
+			}
+
+			@Override
+			public void onComplete(AsyncEvent event) throws IOException {
+				consumer.close(false);
+			}
+
+			@Override
+			public void onStartAsync(AsyncEvent event) throws IOException {}
+
+		});
+		// send the events already read and the events added before the subscription
+		consumer.run();
+	}
+
+	/**
+	 * Writes the events as NDJSON or as server-sent events
+	 * @param response
+	 * @param eventStream
+	 * @param events
+	 * @param afterSequence the sequence before the first event
+	 * @return the sequence of the last written event
+	 * @throws IOException
+	 */
+	private long writeChanges(HttpServletResponse response, boolean eventStream, List<ChangeFeed.Event> events, long afterSequence) throws IOException {
+		long last = events.isEmpty() ? afterSequence : events.get(events.size() - 1).getSequence();
+		if (eventStream == false) {
+			response.setContentType(NDJSON_CONTENT_TYPE + "; charset=utf-8");
+			response.setHeader("next-after", changeFeed.buildCursor(last));
+			response.setHeader("total-rows", String.valueOf(events.size()));
+		}
+		OutputStream out = response.getOutputStream();
+		for (ChangeFeed.Event event : events) {
+			if (eventStream) {
+				out.write(("id: " + changeFeed.buildCursor(event.getSequence()) + "\nevent: " + event.getType() + "\ndata: ").getBytes(StandardCharsets.UTF_8));
+				out.write(event.getJson());
+				out.write('\n');
+				out.write('\n');
+			} else {
+				out.write(event.getJson());
+				out.write('\n');
+			}
+		}
+		response.flushBuffer();
+		return last;
+	}
+
+	/**
+	 * A parked request of the change feed. The feed wakes the consumer after every new event,
+	 * the events are written by a container thread, never by the thread adding the event.
+	 */
+	private class FeedConsumer implements Runnable {
+
+		private final AsyncContext ctx;
+		private final boolean eventStream;
+		private final int limit;
+		private final AtomicBoolean scheduled = new AtomicBoolean(false);
+		private long position;
+		private boolean closed = false;
+
+		private FeedConsumer(AsyncContext ctx, boolean eventStream, long position, int limit) {
+			this.ctx = ctx;
+			this.eventStream = eventStream;
+			this.position = position;
+			this.limit = limit;
+		}
+
+		@Override
+		public void run() {
+			// a slow consumer has max one pending write, it will read all new events at once
+			if (scheduled.compareAndSet(false, true)) {
+				ctx.start(this::drain);
+			}
+		}
+
+		private synchronized void drain() {
+			scheduled.set(false);
+			if (closed) {
 				return;
-			} catch (Exception e1) {
-				sendError(response, 500, "select job-instance_status failed: " + e1.getMessage());
+			}
+			HttpServletResponse response = (HttpServletResponse) ctx.getResponse();
+			try {
+				List<ChangeFeed.Event> events = changeFeed.read(position, limit);
+				if (events.isEmpty()) {
+					return;
+				}
+				position = writeChanges(response, eventStream, events, position);
+				if (eventStream == false) {
+					close(true);
+				} else if (position < changeFeed.getLastSequence()) {
+					run();
+				}
+			} catch (ServiceException e) {
+				// the consumer could not keep up, the events it needs are overwritten
+				if (eventStream) {
+					try {
+						response.getOutputStream().write(("event: expired\ndata: " + objectMapper.writeValueAsString(e.getMessage()) + "\n\n").getBytes(StandardCharsets.UTF_8));
+					} catch (IOException ioe) {
+						// the consumer is gone anyway
+					}
+				} else {
+					response.setStatus(e.getStatusCode());
+				}
+				close(true);
+			} catch (Exception e) {
+				log.warn("Send change feed events to a consumer failed: " + e.getMessage());
+				close(true);
+			}
+		}
+
+		private synchronized void timeout() {
+			if (closed) {
 				return;
 			}
+			if (eventStream == false) {
+				try {
+					writeChanges((HttpServletResponse) ctx.getResponse(), false, Collections.emptyList(), position);
+				} catch (IOException e) {
+					log.warn("Send empty change feed response failed: " + e.getMessage());
+				}
+			}
+			close(true);
+		}
+
+		private synchronized void close(boolean complete) {
+			if (closed == false) {
+				closed = true;
+				changeFeed.unsubscribe(this);
+				if (complete) {
+					ctx.complete();
+				}
+			}
 		}
+
+	}
+
+	/**
+	 * Sends the duration and volume statistics of the ended jobs
+	 * @param request with the optional parameters group_by and percentiles
+	 * @param response
+	 * @throws IOException
+	 */
+	private void doGetStats(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		if (statistics == null) {
+			sendError(response, 501, "Statistics are not enabled, set statsEnabled=true");
+			return;
+		}
+		List<Map<String, Object>> result = null;
+		try {
+			String percentilesStr = request.getParameter("percentiles");
+			if (percentilesStr == null || percentilesStr.isBlank()) {
+				percentilesStr = "50,95,99";
+			}
+			String[] array = percentilesStr.split(",");
+			double[] percentiles = new double[array.length];
+			for (int i = 0; i < array.length; i++) {
+				percentiles[i] = Double.parseDouble(array[i].trim());
+			}
+			result = statistics.getStatistics(request.getParameter("group_by"), percentiles);
+		} catch (IllegalArgumentException e) {
+			sendError(response, 403, "Invalid parameters for statistics: " + e.getMessage());
+			return;
+		}
+		response.setHeader("total-rows", String.valueOf(result.size()));
+		response.setContentType("application/json; charset=utf-8");
+		try (JsonGenerator gen = objectMapper.getFactory().createGenerator(response.getOutputStream())) {
+			objectMapper.writeValue(gen, result);
+		}
+	}
+
+	/**
+	 * Sends the last successful run of the job and work item
+	 * @param request with the parameters job, work_item (omitted for runs without work item) and with_counters
+	 * @param response
+	 * @throws IOException
+	 */
+	private void doGetLastSuccessful(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		if (lastSuccessfulRuns == null) {
+			sendError(response, 501, "Last successful runs are not enabled, set lastSuccessfulEnabled=true");
+			return;
+		}
+		String jobName = request.getParameter("job");
+		String workItem = request.getParameter("work_item");
+		if (jobName == null || jobName.isBlank()) {
+			sendError(response, 403, "Parameter job is missing");
+			return;
+		}
+		JobInstanceStatus status = lastSuccessfulRuns.get(jobName, workItem);
+		if (status == null) {
+			sendError(response, 404, "No successful run found for job=" + jobName + " work_item=" + workItem);
+			return;
+		}
+		try {
+			if (Boolean.parseBoolean(request.getParameter("with_counters"))) {
+				storage.loadCounters(Collections.singletonList(status));
+			}
+			response.setHeader("total-rows", "1");
+			response.setContentType("application/json; charset=utf-8");
+			try (JsonGenerator gen = objectMapper.getFactory().createGenerator(response.getOutputStream())) {
+				objectMapper.writeValue(gen, status);
+			}
+		} catch (Exception e) {
+			sendError(response, 500, "Send last successful run for job=" + jobName + " failed: " + e.getMessage());
+		}
+	}
+
+	private JobInstanceFilter buildFilter(List<NameValuePair> params) {
+		JobInstanceFilter filter = new JobInstanceFilter();
+		filter.setExcludeJobName(getValueAsString("exclude_job", params));
+		filter.setIncludeJobNames(getValueAsString("include_jobs", params));
+		filter.setTaskName(getValueAsString("task_name", params));
+		filter.setWorkItem(getValueAsString("work_item", params));
+		filter.setWithInput(getValueAsBoolean("with_input", params));
+		filter.setWithOutput(getValueAsBoolean("with_output", params));
+		filter.setSuccessful(getValueAsBoolean("is_successful", params));
+		filter.setRunning(getValueAsBoolean("is_running", params));
+		filter.setReturnCode(getValueAsInteger("return_code", params));
+		filter.setBeforeJobInstanceId(getValueAsLong("before_job_instance_id", params));
+		filter.setAfterJobInstanceId(getValueAsLong("after_job_instance_id", params));
+		filter.setRootJobInstanceId(getValueAsLong("root_job_instance_id", params));
+		filter.setStartedAfter(getValueAsDate("started_after", params));
+		filter.setStartedBefore(getValueAsDate("started_before", params));
+		filter.setLimit(getValueAsInteger("limit", params));
+		filter.setCursor(getValueAsString("cursor", params));
+		filter.setWithCounters(getValueAsBoolean("with_counters", params));
+		return filter;
+	}
+
+	/**
+	 * Sends the result or one page of the result with the header total-rows. The page size is limited by the filter,
+	 * the header next-cursor contains the cursor for the next page if the page is full.
+	 * @param response
+	 * @param filter
+	 * @param objects true to send the status objects, false to send the ids
+	 * @throws Exception
+	 */
+	private void writePage(HttpServletResponse response, JobInstanceFilter filter, boolean objects) throws Exception {
+		List<Object> page = new ArrayList<>();
+		String cursor = null;
+		if (objects) {
+			cursor = storage.selectObjects(filter, page::add);
+		} else {
+			cursor = storage.selectIds(filter, page::add);
+		}
+		response.setHeader("total-rows", String.valueOf(page.size()));
+		if (filter.getLimit() != null && cursor != null && page.size() == filter.getLimit()) {
+			response.setHeader("next-cursor", cursor);
+		}
+		response.setContentType("application/json; charset=utf-8");
+		try (JsonGenerator gen = objectMapper.getFactory().createGenerator(response.getOutputStream())) {
+			objectMapper.writeValue(gen, page);
+		}
+	}
+
+	/**
+	 * Writes the rows into the response while they are read from the storage (URL-parameter stream=true without limit).
+	 * If the query fails, the array is not terminated and the generator is not closed,
+	 * the exception lets the container abort the response.
+	 * @param response
+	 * @param filter
+	 * @param objects true to send the status objects, false to send the ids
+	 * @throws Exception
+	 */
+	private void writeStream(HttpServletResponse response, JobInstanceFilter filter, boolean objects) throws Exception {
+		response.setContentType("application/json; charset=utf-8");
+		ObjectWriter writer = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+		JsonGenerator gen = objectMapper.getFactory().createGenerator(response.getOutputStream());
+		gen.writeStartArray();
+		if (objects) {
+			storage.selectObjects(filter, status -> writer.writeValue(gen, status));
+		} else {
+			storage.selectIds(filter, id -> gen.writeNumber(id));
+		}
+		gen.writeEndArray();
+		gen.close();
 	}
 	
+	/**
+	 * Sends the result of a filter query with limit, identical concurrent queries share one execution and one serialized result.
+	 * The page is built in memory before it is sent, queries without limit are not coalesced.
+	 * @param response
+	 * @param filter
+	 * @param objects true to send the status objects, false to send the ids
+	 * @throws Exception
+	 */
+	private void writeCoalesced(HttpServletResponse response, JobInstanceFilter filter, boolean objects) throws Exception {
+		QueryCoalescer.Result result = coalescer.execute(filter.buildKey() + "|obj=" + objects, () -> {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			ObjectWriter writer = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+			int[] count = new int[1];
+			String cursor = null;
+			try (JsonGenerator gen = objectMapper.getFactory().createGenerator(out)) {
+				gen.writeStartArray();
+				if (objects) {
+					cursor = storage.selectObjects(filter, status -> {
+						writer.writeValue(gen, status);
+						count[0]++;
+					});
+				} else {
+					cursor = storage.selectIds(filter, id -> {
+						gen.writeNumber(id);
+						count[0]++;
+					});
+				}
+				gen.writeEndArray();
+			}
+			Map<String, String> headers = new LinkedHashMap<>();
+			headers.put("total-rows", String.valueOf(count[0]));
+			if (filter.getLimit() != null && cursor != null && count[0] == filter.getLimit()) {
+				headers.put("next-cursor", cursor);
+			}
+			return new QueryCoalescer.Result(out.toByteArray(), headers);
+		});
+		for (Map.Entry<String, String> header : result.getHeaders().entrySet()) {
+			response.setHeader(header.getKey(), header.getValue());
+		}
+		response.setContentType("application/json; charset=utf-8");
+		response.setContentLength(result.getBody().length);
+		response.getOutputStream().write(result.getBody());
+	}
+
+	/**
+	 * Writes the status objects of the ids in the order of the ids into the response while they are read from the storage.
+	 * @param response
+	 * @param ids
+	 * @param withCounters true to load the named counters of all objects with one query before they are written
+	 * @throws Exception
+	 */
+	private void writeStatuses(HttpServletResponse response, List<Long> ids, boolean withCounters) throws Exception {
+		List<JobInstanceStatus> list = null;
+		if (withCounters) {
+			list = new ArrayList<>(ids.size());
+			storage.getJobInstanceStatuses(ids, list::add);
+			storage.loadCounters(list);
+		}
+		response.setContentType("application/json; charset=utf-8");
+		ObjectWriter writer = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+		try (JsonGenerator gen = objectMapper.getFactory().createGenerator(response.getOutputStream())) {
+			gen.writeStartArray();
+			if (list != null) {
+				for (JobInstanceStatus status : list) {
+					writer.writeValue(gen, status);
+				}
+			} else {
+				storage.getJobInstanceStatuses(ids, status -> writer.writeValue(gen, status));
+			}
+			gen.writeEndArray();
+		}
+	}
+
+	/**
+	 * @param idList comma separated list of job_instance_ids
+	 * @return the ids or null if the list is null
+	 */
+	static List<Long> parseIdList(String idList) {
+		if (idList == null) {
+			return null;
+		}
+		List<Long> ids = new ArrayList<>();
+		for (String id : idList.split(",")) {
+			if (id.isBlank() == false) {
+				ids.add(Long.valueOf(id.trim()));
+			}
+		}
+		return ids;
+	}
+
 	private String getValueAsString(String paramName, List<NameValuePair> params) {
 		String value = null;
 		for (NameValuePair param : params) {
@@ -164,6 +864,11 @@ public class JobInstanceServlet extends DefaultServlet {
 		return value;
 	}
 
+	private Date getValueAsDate(String paramName, List<NameValuePair> params) {
+		Long millis = getValueAsLong(paramName, params);
+		return millis != null ? new Date(millis) : null;
+	}
+
 	private Integer getValueAsInteger(String paramName, List<NameValuePair> params) {
 		Integer value = null;
 		String s = getValueAsString(paramName, params);
@@ -191,6 +896,13 @@ public class JobInstanceServlet extends DefaultServlet {
 		response.setCharacterEncoding("UTF-8"); // must be done before we get the writer!
 		Reader r = request.getReader();
 		String payload = IOUtils.toString(r);
+		if (isBatchRequest(request)) {
+			doPostBatch(payload, response);
+			return;
+		} else if (request.getRequestURI().endsWith(IDS_PATH)) {
+			doPostIds(payload, Boolean.parseBoolean(request.getParameter("with_counters")), response);
+			return;
+		}
 		JobInstanceStatus status = null;
 		try {
 			status = objectMapper.readValue(payload, JobInstanceStatus.class);
@@ -204,6 +916,7 @@ public class JobInstanceServlet extends DefaultServlet {
 			sendError(response, 500, "Create job-instance_status failed: " + e.getMessage());
 			return;
 		}
+		entryChanged(ChangeFeed.TYPE_CREATE, status);
 		// build response
 		ObjectNode rn = objectMapper.createObjectNode();
 		rn.put("job_instance_id", status.getJobInstanceId());
@@ -226,6 +939,11 @@ public class JobInstanceServlet extends DefaultServlet {
 	protected void doPut(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
 		Reader r = request.getReader();
 		String payload = IOUtils.toString(r);
+		if (isBatchRequest(request)) {
+			response.setCharacterEncoding("UTF-8");
+			doPutBatch(payload, response);
+			return;
+		}
 		JobInstanceStatus status = null;
 		try {
 			status = objectMapper.readValue(payload, JobInstanceStatus.class);
@@ -233,15 +951,238 @@ public class JobInstanceServlet extends DefaultServlet {
 			sendError(response, 403, "Parse payload to JobInstanceStatus from payload: " + payload + "\nfailed: " + e.getMessage());
 			return;
 		}
+		if (journal != null) {
+			// the drainer cannot report errors to the client, invalid updates must be rejected before they are accepted
+			try {
+				JDBCJobInstanceStorage.checkUpdateAttributes(status);
+			} catch (Exception e) {
+				sendError(response, 403, e.getMessage());
+				return;
+			}
+			try {
+				journal.append(payload);
+			} catch (Exception e) {
+				sendError(response, 500, "Write update of job_instance_status into journal failed: " + e.getMessage());
+				return;
+			}
+			entryChanged(ChangeFeed.TYPE_UPDATE, status);
+			// accepted, the update will be written by the journal drainer
+			response.setStatus(202);
+			return;
+		}
 		try {
 			storage.updateEntry(status);
 		} catch (Exception e) {
 			sendError(response, 500, "Update job_instance_status failed: " + e.getMessage());
 			return;
 		}
+		entryChanged(ChangeFeed.TYPE_UPDATE, status);
 		response.setStatus(204);
 	}
 
+	/**
+	 * The servlet API does not know the PATCH method
+	 */
+	@Override
+	protected void service(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		if ("PATCH".equalsIgnoreCase(request.getMethod())) {
+			doPatch(request, response);
+		} else {
+			super.service(request, response);
+		}
+	}
+
+	/**
+	 * Adds counter increments of a running job: PATCH /job-instance/{id}/counters
+	 * @param request
+	 * @param response
+	 * @throws IOException
+	 */
+	protected void doPatch(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		String idStr = RegexUtil.extractByRegexGroup(request.getRequestURI(), COUNTERS_PATH_REGEX, 1);
+		if (idStr == null) {
+			sendError(response, 404, "PATCH is only supported for " + COUNTERS_PATH_REGEX);
+			return;
+		}
+		long jobInstanceId = Long.parseLong(idStr);
+		String payload = IOUtils.toString(request.getReader());
+		List<JobDetailCounter> increments = null;
+		try {
+			increments = objectMapper.readValue(payload, new TypeReference<List<JobDetailCounter>>() {});
+		} catch (Exception e) {
+			sendError(response, 403, "Parse payload to JobDetailCounter array from payload: " + payload + "\nfailed: " + e.getMessage());
+			return;
+		}
+		try {
+			storage.accumulateCounters(jobInstanceId, increments);
+		} catch (IllegalStateException e) {
+			// the job has already ended
+			sendError(response, 409, e.getMessage());
+			return;
+		} catch (Exception e) {
+			sendError(response, 500, "Accumulate counters for job_instance_id=" + jobInstanceId + " failed: " + e.getMessage());
+			return;
+		}
+		// accepted, the totals will be written later
+		response.setStatus(202);
+	}
+
+	private boolean isBatchRequest(HttpServletRequest request) {
+		return request.getRequestURI().endsWith(BATCH_PATH);
+	}
+
+	/**
+	 * Parses a JSON array of status objects
+	 * @param payload
+	 * @param response receives the error if the payload is not valid
+	 * @return the list or null if an error has been sent
+	 */
+	private List<JobInstanceStatus> parseBatch(String payload, HttpServletResponse response) {
+		List<JobInstanceStatus> list = null;
+		try {
+			list = objectMapper.readValue(payload, new TypeReference<List<JobInstanceStatus>>() {});
+		} catch (Exception e) {
+			sendError(response, 403, "Parse payload to JobInstanceStatus array from payload: " + payload + "\nfailed: " + e.getMessage());
+			return null;
+		}
+		if (list == null || list.isEmpty()) {
+			sendError(response, 403, "Payload must be a non empty array of job-instance-status objects");
+			return null;
+		}
+		if (list.size() > batchMaxSize) {
+			sendError(response, 413, "Batch contains " + list.size() + " entries, allowed are max " + batchMaxSize);
+			return null;
+		}
+		return list;
+	}
+
+	/**
+	 * Returns the status objects for a JSON array of job_instance_ids in the order of the ids
+	 * @param payload
+	 * @param withCounters true to load the named counters
+	 * @param response
+	 * @throws IOException
+	 */
+	private void doPostIds(String payload, boolean withCounters, HttpServletResponse response) throws IOException {
+		List<Long> ids = null;
+		try {
+			ids = objectMapper.readValue(payload, new TypeReference<List<Long>>() {});
+		} catch (Exception e) {
+			sendError(response, 403, "Parse payload to job_instance_id array from payload: " + payload + "\nfailed: " + e.getMessage());
+			return;
+		}
+		if (ids == null) {
+			sendError(response, 403, "Payload must be an array of job_instance_ids");
+			return;
+		}
+		if (ids.size() > batchMaxSize) {
+			sendError(response, 413, "Request contains " + ids.size() + " ids, allowed are max " + batchMaxSize);
+			return;
+		}
+		try {
+			writeStatuses(response, ids, withCounters);
+		} catch (Exception e) {
+			if (response.isCommitted()) {
+				// the response is already partially sent, we can only abort it
+				log.error("Send job-instance-status response failed: " + e.getMessage(), e);
+				response.getOutputStream().close();
+			} else {
+				sendError(response, 500, "select job-instance_status by ids failed: " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Creates all status entries of the array in one batch.
+	 * The response contains for every entry in the same order the ids or the error.
+	 * @param payload
+	 * @param response
+	 */
+	private void doPostBatch(String payload, HttpServletResponse response) {
+		List<JobInstanceStatus> list = parseBatch(payload, response);
+		if (list == null) {
+			return;
+		}
+		List<Exception> errors = null;
+		try {
+			errors = storage.createEntries(list);
+		} catch (Exception e) {
+			sendError(response, 500, "Create " + list.size() + " job-instance_status entries failed: " + e.getMessage());
+			return;
+		}
+		ArrayNode result = objectMapper.createArrayNode();
+		for (int i = 0; i < list.size(); i++) {
+			ObjectNode rn = result.addObject();
+			if (errors.get(i) == null) {
+				entryChanged(ChangeFeed.TYPE_CREATE, list.get(i));
+				rn.put("job_instance_id", list.get(i).getJobInstanceId());
+				rn.put("root_job_instanceId", list.get(i).getProcessInstanceId());
+			} else {
+				rn.put("error", errors.get(i).getMessage());
+			}
+		}
+		sendBatchResult(response, 200, result);
+	}
+
+	/**
+	 * Updates all status entries of the array in one batch, if the journal is enabled the entries are appended to the journal.
+	 * The response contains for every entry in the same order the job_instance_id or the error.
+	 * @param payload
+	 * @param response
+	 */
+	private void doPutBatch(String payload, HttpServletResponse response) {
+		List<JobInstanceStatus> list = parseBatch(payload, response);
+		if (list == null) {
+			return;
+		}
+		List<Exception> errors = new ArrayList<>(list.size());
+		if (journal != null) {
+			for (JobInstanceStatus status : list) {
+				try {
+					JDBCJobInstanceStorage.checkUpdateAttributes(status);
+				} catch (Exception e) {
+					errors.add(e);
+					continue;
+				}
+				try {
+					journal.append(objectMapper.writeValueAsString(status));
+					errors.add(null);
+				} catch (Exception e) {
+					errors.add(new Exception("Write update of job_instance_status into journal failed: " + e.getMessage(), e));
+				}
+			}
+		} else {
+			try {
+				errors = storage.updateEntries(list);
+			} catch (Exception e) {
+				sendError(response, 500, "Update " + list.size() + " job_instance_status entries failed: " + e.getMessage());
+				return;
+			}
+		}
+		ArrayNode result = objectMapper.createArrayNode();
+		for (int i = 0; i < list.size(); i++) {
+			ObjectNode rn = result.addObject();
+			rn.put("job_instance_id", list.get(i).getJobInstanceId());
+			if (errors.get(i) != null) {
+				rn.put("error", errors.get(i).getMessage());
+			} else {
+				entryChanged(ChangeFeed.TYPE_UPDATE, list.get(i));
+			}
+		}
+		sendBatchResult(response, journal != null ? 202 : 200, result);
+	}
+
+	private void sendBatchResult(HttpServletResponse response, int code, ArrayNode result) {
+		response.setStatus(code);
+		response.setHeader("total-rows", String.valueOf(result.size()));
+		response.setContentType("application/json; charset=utf-8");
+		try (BufferedWriter br = new BufferedWriter(response.getWriter())) {
+			br.write(result.toString());
+		} catch (Exception e) {
+			sendError(response, 500, "Send job_instance-status batch response failed: " + e.getMessage());
+		}
+	}
+
 	public void sendError(HttpServletResponse resp, int code, String message) {
 		log.error(this.getClass().getSimpleName() + ": code: " + code + " message: " + message);
 		try {
@@ -255,6 +1196,9 @@ public class JobInstanceServlet extends DefaultServlet {
     @Override
     public void destroy() {
     	super.destroy();
+    	if (journal != null) {
+    		journal.stop();
+    	}
     	if (storage != null) {
     		storage.close();
     	}
@@ -175,7 +175,7 @@ public class JobInstanceStatus {
 		return countInput;
 	}
 	
-	public void setCountInput(int countInput) {
+	public void setCountInput(Integer countInput) {
 		this.countInput = countInput;
 	}
 	
@@ -183,7 +183,7 @@ public class JobInstanceStatus {
 		return countOutput;
 	}
 	
-	public void setCountOutput(int countOutput) {
+	public void setCountOutput(Integer countOutput) {
 		this.countOutput = countOutput;
 	}
 	
@@ -191,7 +191,7 @@ public class JobInstanceStatus {
 		return countReject;
 	}
 	
-	public void setCountReject(int countReject) {
+	public void setCountReject(Integer countReject) {
 		this.countReject = countReject;
 	}
 	
@@ -199,7 +199,7 @@ public class JobInstanceStatus {
 		return countDelete;
 	}
 	
-	public void setCountDelete(int countDelete) {
+	public void setCountDelete(Integer countDelete) {
 		this.countDelete = countDelete;
 	}
 	
@@ -215,7 +215,7 @@ public class JobInstanceStatus {
 		return hostPid;
 	}
 	
-	public void setHostPid(int hostPid) {
+	public void setHostPid(Integer hostPid) {
 		this.hostPid = hostPid;
 	}
 	
@@ -257,11 +257,11 @@ public class JobInstanceStatus {
 		this.valueRangeEnd = valueRangeEnd;
 	}
 	
-	public int getCountUpdate() {
+	public Integer getCountUpdate() {
 		return countUpdate;
 	}
 
-	public void setCountUpdate(int countUpdate) {
+	public void setCountUpdate(Integer countUpdate) {
 		this.countUpdate = countUpdate;
 	}
 
@@ -316,4 +316,8 @@ public class JobInstanceStatus {
 		return counters;
 	}
 
+	public void setCounters(List<JobDetailCounter> counters) {
+		this.counters = counters;
+	}
+
 }
@@ -0,0 +1,285 @@
+/**
+ * Copyright 2025 Jan Lolling jan.lolling@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.cimt.talendcomp.jobinstanceservice;
+
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
+
+/**
+ * Write-through cache of job instance status entries as they are stored in the database.
+ * The cache is bounded by the number of entries and the estimated size in bytes.
+ * Entries of finished jobs never change, they are kept and only served from the cache.
+ * Entries of running jobs are evicted first (least recently used first). They are only kept to complete
+ * them with the end of the job written by this service, they are never served because the end could be written
+ * by another service instance or directly into the table.
+ * The cache works with copies, changes of returned objects do not affect the cache.
+ * @author jan.lolling@gmail.com
+ */
+public class JobInstanceStatusCache {
+
+	private static final Counter hitCounter = Counter.build()
+			.name("job_instance_cache_hits_total")
+			.help("Number of job instance reads answered by the cache")
+			.register();
+	private static final Counter missCounter = Counter.build()
+			.name("job_instance_cache_misses_total")
+			.help("Number of job instance reads not found in the cache")
+			.register();
+	private static final Counter evictionCounter = Counter.build()
+			.name("job_instance_cache_evictions_total")
+			.help("Number of evicted job instance cache entries")
+			.labelNames("state")
+			.register();
+	private static final Gauge hitRatioGauge = Gauge.build()
+			.name("job_instance_cache_hit_ratio")
+			.help("Ratio of the job instance reads answered by the cache")
+			.register();
+	private static final Gauge bytesGauge = Gauge.build()
+			.name("job_instance_cache_bytes")
+			.help("Estimated size of the job instance cache in bytes")
+			.register();
+	static {
+		hitRatioGauge.setChild(new Gauge.Child() {
+
+			@Override
+			public double get() {
+				double hits = hitCounter.get();
+				double total = hits + missCounter.get();
+				return total > 0 ? hits / total : 0;
+			}
+
+		});
+	}
+	private static final int OBJECT_BYTES = 256;
+	private static final int STRING_BYTES = 48;
+	private final int maxEntries;
+	private final long maxBytes;
+	private final LinkedHashMap<Long, JobInstanceStatus> runningEntries = new LinkedHashMap<>(16, 0.75f, true);
+	private final LinkedHashMap<Long, JobInstanceStatus> finishedEntries = new LinkedHashMap<>(16, 0.75f, true);
+	private long currentBytes = 0;
+
+	public JobInstanceStatusCache(int maxEntries, long maxBytes) {
+		if (maxEntries < 1) {
+			throw new IllegalArgumentException("maxEntries must be greater 0");
+		}
+		if (maxBytes < OBJECT_BYTES) {
+			throw new IllegalArgumentException("maxBytes must be at least " + OBJECT_BYTES);
+		}
+		this.maxEntries = maxEntries;
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * @param jobInstanceId
+	 * @return a copy of the cached entry or null if the entry is not cached or the job is still running
+	 */
+	public synchronized JobInstanceStatus get(long jobInstanceId) {
+		JobInstanceStatus status = finishedEntries.get(jobInstanceId);
+		if (status != null) {
+			hitCounter.inc();
+			return copy(status);
+		} else {
+			missCounter.inc();
+			return null;
+		}
+	}
+
+	/**
+	 * Puts a copy of the entry into the cache and replaces a previous entry with the same job_instance_id
+	 * @param status as stored in the database
+	 */
+	public synchronized void put(JobInstanceStatus status) {
+		if (status == null || status.getJobInstanceId() <= 0) {
+			return;
+		}
+		removeEntry(status.getJobInstanceId());
+		JobInstanceStatus copy = copy(status);
+		if (copy.getStopDate() != null) {
+			finishedEntries.put(copy.getJobInstanceId(), copy);
+		} else {
+			runningEntries.put(copy.getJobInstanceId(), copy);
+		}
+		currentBytes += estimateBytes(copy);
+		evict();
+		bytesGauge.set(currentBytes);
+	}
+
+	/**
+	 * Puts a new created entry into the cache, only the attributes written at the start of the job are taken
+	 * @param created
+	 */
+	public void putCreated(JobInstanceStatus created) {
+		put(copyCreateAttributes(created));
+	}
+
+	/**
+	 * Applies the values written by the end of the job to the cached entry.
+	 * Nothing happens if the entry is not cached.
+	 * @param update the update as sent by the job
+	 * @param endedAt the end time written into the database
+	 * @param returnMessage the return message written into the database
+	 */
+	public synchronized void applyUpdate(JobInstanceStatus update, Date endedAt, String returnMessage) {
+		JobInstanceStatus cached = runningEntries.get(update.getJobInstanceId());
+		if (cached == null) {
+			cached = finishedEntries.get(update.getJobInstanceId());
+		}
+		if (cached != null) {
+			put(applyEndAttributes(cached, update, endedAt, returnMessage));
+		}
+	}
+
+	/**
+	 * Builds the entry as it is after the update at the end of the job
+	 * @param current the entry before the update
+	 * @param update the update as sent by the job
+	 * @param endedAt the end time written into the storage
+	 * @param returnMessage the return message written into the storage
+	 * @return a new object with the values after the update
+	 */
+	static JobInstanceStatus applyEndAttributes(JobInstanceStatus current, JobInstanceStatus update, Date endedAt, String returnMessage) {
+		JobInstanceStatus c = copyCreateAttributes(current);
+		c.setStopDate(endedAt);
+		c.setJobResult(update.getJobResult());
+		c.setTimeRangeStart(copy(update.getTimeRangeStart()));
+		c.setTimeRangeEnd(copy(update.getTimeRangeEnd()));
+		c.setValueRangeStart(update.getValueRangeStart());
+		c.setValueRangeEnd(update.getValueRangeEnd());
+		c.setCountInput(update.getCountInput());
+		c.setCountOutput(update.getCountOutput());
+		c.setCountReject(update.getCountReject());
+		c.setCountDelete(update.getCountDelete());
+		c.setCountUpdate(update.getCountUpdate());
+		c.setReturnCode(update.getReturnCode());
+		c.setReturnMessage(returnMessage);
+		return c;
+	}
+
+	public synchronized void remove(long jobInstanceId) {
+		removeEntry(jobInstanceId);
+		bytesGauge.set(currentBytes);
+	}
+
+	private void removeEntry(long jobInstanceId) {
+		JobInstanceStatus removed = runningEntries.remove(jobInstanceId);
+		if (removed == null) {
+			removed = finishedEntries.remove(jobInstanceId);
+		}
+		if (removed != null) {
+			currentBytes -= estimateBytes(removed);
+		}
+	}
+
+	private void evict() {
+		while (size() > maxEntries || currentBytes > maxBytes) {
+			LinkedHashMap<Long, JobInstanceStatus> entries = runningEntries.isEmpty() ? finishedEntries : runningEntries;
+			Iterator<JobInstanceStatus> it = entries.values().iterator();
+			JobInstanceStatus eldest = it.next();
+			it.remove();
+			currentBytes -= estimateBytes(eldest);
+			evictionCounter.labels(eldest.getStopDate() != null ? "finished" : "running").inc();
+		}
+	}
+
+	public synchronized int size() {
+		return runningEntries.size() + finishedEntries.size();
+	}
+
+	public synchronized long getEstimatedBytes() {
+		return currentBytes;
+	}
+
+	public synchronized void clear() {
+		runningEntries.clear();
+		finishedEntries.clear();
+		currentBytes = 0;
+		bytesGauge.set(0);
+	}
+
+	static long estimateBytes(JobInstanceStatus s) {
+		return OBJECT_BYTES
+				+ estimateBytes(s.getGuid())
+				+ estimateBytes(s.getName())
+				+ estimateBytes(s.getProject())
+				+ estimateBytes(s.getJobInfo())
+				+ estimateBytes(s.getExtJobId())
+				+ estimateBytes(s.getTaskName())
+				+ estimateBytes(s.getWorkItem())
+				+ estimateBytes(s.getJobResult())
+				+ estimateBytes(s.getValueRangeStart())
+				+ estimateBytes(s.getValueRangeEnd())
+				+ estimateBytes(s.getHostName())
+				+ estimateBytes(s.getReturnMessage());
+	}
+
+	private static long estimateBytes(String s) {
+		return s != null ? STRING_BYTES + s.length() * 2l : 0;
+	}
+
+	/**
+	 * Copies the attributes stored in the job instance status table
+	 * @param s
+	 * @return the copy
+	 */
+	static JobInstanceStatus copy(JobInstanceStatus s) {
+		JobInstanceStatus c = copyCreateAttributes(s);
+		c.setJobResult(s.getJobResult());
+		c.setStopDate(copy(s.getStopDate()));
+		c.setCountInput(s.getCountInput());
+		c.setCountOutput(s.getCountOutput());
+		c.setCountUpdate(s.getCountUpdate());
+		c.setCountReject(s.getCountReject());
+		c.setCountDelete(s.getCountDelete());
+		c.setReturnCode(s.getReturnCode());
+		c.setReturnMessage(s.getReturnMessage());
+		return c;
+	}
+
+	/**
+	 * Copies the attributes written into the job instance status table when the job starts
+	 * @param s
+	 * @return the copy
+	 */
+	static JobInstanceStatus copyCreateAttributes(JobInstanceStatus s) {
+		JobInstanceStatus c = new JobInstanceStatus();
+		c.setJobInstanceId(s.getJobInstanceId());
+		c.setProcessInstanceId(s.getProcessInstanceId());
+		c.setGuid(s.getGuid());
+		c.setName(s.getName());
+		c.setProject(s.getProject());
+		c.setJobInfo(s.getJobInfo());
+		c.setExtJobId(s.getExtJobId());
+		c.setTaskName(s.getTaskName());
+		c.setWorkItem(s.getWorkItem());
+		c.setStartDate(copy(s.getStartDate()));
+		c.setTimeRangeStart(copy(s.getTimeRangeStart()));
+		c.setTimeRangeEnd(copy(s.getTimeRangeEnd()));
+		c.setValueRangeStart(s.getValueRangeStart());
+		c.setValueRangeEnd(s.getValueRangeEnd());
+		c.setHostName(s.getHostName());
+		c.setHostPid(s.getHostPid());
+		return c;
+	}
+
+	private static Date copy(Date d) {
+		return d != null ? new Date(d.getTime()) : null;
+	}
+
+}
@@ -15,6 +15,7 @@
  */
 package de.cimt.talendcomp.jobinstanceservice;
 
+import java.util.ArrayList;
 import java.util.List;
 
 public interface JobInstanceStorage {
@@ -34,6 +35,44 @@ public interface JobInstanceStorage {
 	 */
 	public void updateEntry(JobInstanceStatus jobInfo) throws Exception;
 	
+	/**
+	 * Creates the entries and sets the job_instance_id into every successfully created entry
+	 * @param list
+	 * @return the errors in the order of the entries, the element is null if the entry was created
+	 * @throws Exception
+	 */
+	public default List<Exception> createEntries(List<JobInstanceStatus> list) throws Exception {
+		List<Exception> errors = new ArrayList<>(list.size());
+		for (JobInstanceStatus jobInfo : list) {
+			try {
+				createEntry(jobInfo);
+				errors.add(null);
+			} catch (Exception e) {
+				errors.add(e);
+			}
+		}
+		return errors;
+	}
+
+	/**
+	 * Updates the entries
+	 * @param list
+	 * @return the errors in the order of the entries, the element is null if the entry was updated
+	 * @throws Exception
+	 */
+	public default List<Exception> updateEntries(List<JobInstanceStatus> list) throws Exception {
+		List<Exception> errors = new ArrayList<>(list.size());
+		for (JobInstanceStatus jobInfo : list) {
+			try {
+				updateEntry(jobInfo);
+				errors.add(null);
+			} catch (Exception e) {
+				errors.add(e);
+			}
+		}
+		return errors;
+	}
+
 	/**
 	 * Returns the job_instance_id for a job
 	 * @param guid
@@ -42,67 +81,60 @@ public interface JobInstanceStorage {
 	 */
 	public long getJobInstanceIdByJobGuid(String guid) throws Exception;
 	
+	/**
+	 * Receives the rows of a selection one by one while the result is read
+	 * @param <T> type of the row
+	 */
+	@FunctionalInterface
+	public static interface ResultHandler<T> {
+		
+		public void handle(T row) throws Exception;
+		
+	}
+
 	/**
 	 * Select job instance ids by various criteria.
-	 * null values in the parameters means this criteria is not used for selection
-	 * @param excludeJobName
-	 * @param includeJobNames comma separated List of jobs to select
-	 * @param taskName
-	 * @param workItem
-	 * @param withInput
-	 * @param withOutput
-	 * @param successful it set to null=no criteria otherwise true or false
-	 * @param running
-	 * @param returnCode
-	 * @param beforeJobInstanceId
-	 * @param rootJobInstanceId
-	 * @return List of job instance status ids
+	 * The ids are passed to the handler while the result is read.
+	 * @param filter the criteria, null values in the filter means this criteria is not used for selection
+	 * @param handler receives the job instance ids
+	 * @return the cursor of the last row or null if there was no row
 	 * @throws Exception
 	 */
-	public List<Long> selectIds(
-			String excludeJobName,
-			String includeJobNames,
-			String taskName,
-			String workItem,
-			Boolean withInput, 
-			Boolean withOutput, 
-			Boolean successful, 
-			Boolean running,
-			Integer returnCode,
-			Long beforeJobInstanceId, 
-			Long afterJobInstanceId,
-			Long rootJobInstanceId) throws Exception;
+	public String selectIds(JobInstanceFilter filter, ResultHandler<Long> handler) throws Exception;
+
+	/**
+	 * Select job instance status objects by various criteria.
+	 * The objects are passed to the handler while the result is read.
+	 * @param filter the criteria, null values in the filter means this criteria is not used for selection
+	 * @param handler receives the job instance status objects
+	 * @return the cursor of the last row or null if there was no row
+	 * @throws Exception
+	 */
+	public String selectObjects(JobInstanceFilter filter, ResultHandler<JobInstanceStatus> handler) throws Exception;
 
 	/**
 	 * Select job instance ids by various criteria.
-	 * null values in the parameters means this criteria is not used for selection
-	 * @param excludeJobName
-	 * @param includeJobNames comma separated List of jobs to select
-	 * @param taskName
-	 * @param workItem
-	 * @param withInput
-	 * @param withOutput
-	 * @param successful it set to null=no criteria otherwise true or false
-	 * @param running
-	 * @param returnCode
-	 * @param beforeJobInstanceId
-	 * @param rootJobInstanceId
+	 * @param filter the criteria, null values in the filter means this criteria is not used for selection
+	 * @return List of job instance status ids
+	 * @throws Exception
+	 */
+	public default List<Long> selectIds(JobInstanceFilter filter) throws Exception {
+		List<Long> result = new ArrayList<>();
+		selectIds(filter, result::add);
+		return result;
+	}
+
+	/**
+	 * Select job instance status objects by various criteria.
+	 * @param filter the criteria, null values in the filter means this criteria is not used for selection
 	 * @return List of job instance status objects
 	 * @throws Exception
 	 */
-	public List<JobInstanceStatus> selectObjects(
-			String excludeJobName,
-			String includeJobNames,
-			String taskName,
-			String workItem,
-			Boolean withInput, 
-			Boolean withOutput, 
-			Boolean successful, 
-			Boolean running,
-			Integer returnCode,
-			Long beforeJobInstanceId,
-			Long afterJobInstanceId,
-			Long rootJobInstanceId) throws Exception;
+	public default List<JobInstanceStatus> selectObjects(JobInstanceFilter filter) throws Exception {
+		List<JobInstanceStatus> result = new ArrayList<>();
+		selectObjects(filter, result::add);
+		return result;
+	}
 
 	/**
 	 * Returns a particular job instance status
@@ -112,6 +144,30 @@ public interface JobInstanceStorage {
 	 */
 	public JobInstanceStatus getJobInstanceStatus(long jobInstanceId) throws Exception;
 	
+	/**
+	 * Returns many job instance status objects
+	 * @param jobInstanceIds
+	 * @param handler receives the found objects in the order of the ids, ids without entry are skipped
+	 * @throws Exception
+	 */
+	public default void getJobInstanceStatuses(List<Long> jobInstanceIds, ResultHandler<JobInstanceStatus> handler) throws Exception {
+		for (Long jobInstanceId : jobInstanceIds) {
+			if (jobInstanceId != null) {
+				JobInstanceStatus status = getJobInstanceStatus(jobInstanceId);
+				if (status != null) {
+					handler.handle(status);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Loads the named counters of all entries and sets them into the entries
+	 * @param list
+	 * @throws Exception
+	 */
+	public void loadCounters(List<JobInstanceStatus> list) throws Exception;
+
 	/**
 	 * Write job detail counters
 	 * @param listCounters
@@ -119,7 +175,22 @@ public interface JobInstanceStorage {
 	 * @throws Exception
 	 */
 	public void writeCounters(List<JobDetailCounter> listCounters, long jobInstanceId) throws Exception;
+
+	/**
+	 * Adds the values of the counters to the counters of a running job.
+	 * The totals are written later, latest at the end of the job.
+	 * @param jobInstanceId
+	 * @param increments
+	 * @throws Exception
+	 */
+	public void accumulateCounters(long jobInstanceId, List<JobDetailCounter> increments) throws Exception;
 	
+	/**
+	 * Adds a listener receiving the entries after they have been written
+	 * @param listener
+	 */
+	public void addListener(JobInstanceListener listener);
+
 	public static Long extractJobInstanceIdFromPath(String uri) {
 		if (uri == null || uri.isBlank()) {
 			throw new IllegalArgumentException("uri cannot be null or empty!");
@@ -0,0 +1,210 @@
+/**
+ * Copyright 2025 Jan Lolling jan.lolling@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.cimt.talendcomp.jobinstanceservice;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
+
+/**
+ * Duration and volume statistics of the ended jobs.
+ * Every combination of job name, task name and work item has its own quantile sketches,
+ * they are updated with every ended job and merged for the requested grouping.
+ * A request only touches the statistics in memory, not the database.
+ * @author jan.lolling@gmail.com
+ */
+public class JobStatistics implements JobInstanceListener {
+
+	private static Logger log = LogManager.getLogger(JobStatistics.class);
+	private static final Gauge groupsGauge = Gauge.build()
+			.name("job_stats_groups")
+			.help("Number of job name, task name and work item combinations in the statistics")
+			.register();
+	private static final Counter droppedCounter = Counter.build()
+			.name("job_stats_dropped_total")
+			.help("Number of ended jobs not counted because the max number of combinations is reached")
+			.register();
+	public static final String GROUP_BY_JOB = "job";
+	public static final String GROUP_BY_TASK = "task";
+	public static final String GROUP_BY_WORK_ITEM = "work_item";
+	private final Map<String, Cell> cells = new ConcurrentHashMap<>();
+	private int maxGroups = 10000;
+
+	/**
+	 * Statistics of one combination of job name, task name and work item
+	 */
+	private static class Cell {
+
+		private final String jobName;
+		private final String taskName;
+		private final String workItem;
+		private long successful = 0;
+		private final QuantileSketch duration = new QuantileSketch();
+		private final QuantileSketch input = new QuantileSketch();
+		private final QuantileSketch output = new QuantileSketch();
+
+		private Cell(String jobName, String taskName, String workItem) {
+			this.jobName = jobName;
+			this.taskName = taskName;
+			this.workItem = workItem;
+		}
+
+		private synchronized void add(JobInstanceStatus status) {
+			if (status.getReturnCode() != null && status.getReturnCode() == 0) {
+				successful++;
+			}
+			duration.add(status.getStopDate().getTime() - status.getStartDate().getTime());
+			input.add(status.getCountInput() != null ? status.getCountInput() : 0);
+			output.add(status.getCountOutput() != null ? status.getCountOutput() : 0);
+		}
+
+		private synchronized void mergeInto(Cell target) {
+			target.successful += successful;
+			target.duration.merge(duration);
+			target.input.merge(input);
+			target.output.merge(output);
+		}
+
+		private String getGroup(String groupBy) {
+			if (GROUP_BY_TASK.equals(groupBy)) {
+				return taskName;
+			} else if (GROUP_BY_WORK_ITEM.equals(groupBy)) {
+				return workItem;
+			} else {
+				return jobName;
+			}
+		}
+
+	}
+
+	/**
+	 * Adds the ended job to the statistics
+	 */
+	@Override
+	public void entryEnded(JobInstanceStatus status) {
+		if (status.getStopDate() == null || status.getStartDate() == null) {
+			return;
+		}
+		String key = status.getName() + "\u0000" + status.getTaskName() + "\u0000" + status.getWorkItem();
+		Cell cell = cells.get(key);
+		if (cell == null) {
+			if (cells.size() >= maxGroups) {
+				droppedCounter.inc();
+				return;
+			}
+			cell = cells.computeIfAbsent(key, k -> new Cell(status.getName(), status.getTaskName(), status.getWorkItem()));
+			groupsGauge.set(cells.size());
+		}
+		cell.add(status);
+	}
+
+	/**
+	 * Fills the statistics with the jobs ended within the last days
+	 * @param storage
+	 * @param days
+	 * @return number of counted jobs
+	 * @throws Exception
+	 */
+	public int rebuild(JobInstanceStorage storage, int days) throws Exception {
+		JobInstanceFilter filter = new JobInstanceFilter();
+		filter.setRunning(false);
+		filter.setStartedAfter(new Date(System.currentTimeMillis() - days * 86400000l));
+		int[] count = new int[1];
+		storage.selectObjects(filter, status -> {
+			entryEnded(status);
+			count[0]++;
+		});
+		log.info("Statistics rebuilt from " + count[0] + " jobs of the last " + days + " days");
+		return count[0];
+	}
+
+	/**
+	 * Merges the statistics of all combinations with the same group
+	 * @param groupBy job, task or work_item
+	 * @param percentiles the percentiles to estimate, e.g. 50, 95, 99
+	 * @return one element per group ordered by the group
+	 */
+	public List<Map<String, Object>> getStatistics(String groupBy, double[] percentiles) {
+		if (groupBy == null) {
+			groupBy = GROUP_BY_JOB;
+		} else if (GROUP_BY_JOB.equals(groupBy) == false && GROUP_BY_TASK.equals(groupBy) == false && GROUP_BY_WORK_ITEM.equals(groupBy) == false) {
+			throw new IllegalArgumentException("group_by must be one of: " + GROUP_BY_JOB + ", " + GROUP_BY_TASK + ", " + GROUP_BY_WORK_ITEM);
+		}
+		for (double p : percentiles) {
+			if (p < 0 || p > 100) {
+				throw new IllegalArgumentException("percentiles must be between 0 and 100");
+			}
+		}
+		// null groups (e.g. jobs without work item) are sorted first
+		Map<String, Cell> groups = new TreeMap<>((a, b) -> a == null ? (b == null ? 0 : -1) : (b == null ? 1 : a.compareTo(b)));
+		for (Cell cell : cells.values()) {
+			String group = cell.getGroup(groupBy);
+			Cell merged = groups.computeIfAbsent(group, k -> new Cell(null, null, null));
+			cell.mergeInto(merged);
+		}
+		List<Map<String, Object>> result = new ArrayList<>(groups.size());
+		for (Map.Entry<String, Cell> entry : groups.entrySet()) {
+			Cell merged = entry.getValue();
+			Map<String, Object> stats = new LinkedHashMap<>();
+			stats.put(groupBy, entry.getKey());
+			long count = merged.duration.getCount();
+			stats.put("count", count);
+			stats.put("success_rate", count > 0 ? (double) merged.successful / count : 0);
+			stats.put("duration_ms", describe(merged.duration, percentiles));
+			stats.put("count_input", describe(merged.input, percentiles));
+			stats.put("count_output", describe(merged.output, percentiles));
+			result.add(stats);
+		}
+		return result;
+	}
+
+	private static Map<String, Object> describe(QuantileSketch sketch, double[] percentiles) {
+		Map<String, Object> values = new LinkedHashMap<>();
+		values.put("avg", Math.round(sketch.getAverage()));
+		values.put("min", Math.round(sketch.getMin()));
+		for (double p : percentiles) {
+			String name = "p" + (p == Math.rint(p) ? String.valueOf((long) p) : String.valueOf(p));
+			values.put(name, Math.round(sketch.getQuantile(p / 100d)));
+		}
+		values.put("max", Math.round(sketch.getMax()));
+		return values;
+	}
+
+	public int size() {
+		return cells.size();
+	}
+
+	public int getMaxGroups() {
+		return maxGroups;
+	}
+
+	public void setMaxGroups(Integer maxGroups) {
+		if (maxGroups != null) {
+			this.maxGroups = maxGroups;
+		}
+	}
+
+}
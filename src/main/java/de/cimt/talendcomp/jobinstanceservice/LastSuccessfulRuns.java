@@ -0,0 +1,105 @@
+/**
+ * Copyright 2025 Jan Lolling jan.lolling@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.cimt.talendcomp.jobinstanceservice;
+
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import io.prometheus.client.Gauge;
+
+/**
+ * The last successful run of every job name and work item.
+ * Incremental jobs take TIME_RANGE_END or VALUE_RANGE_END of this run as start of their next delta.
+ * The last run is the run with the latest start time, a run ending after a younger run does not replace it.
+ * @author jan.lolling@gmail.com
+ */
+public class LastSuccessfulRuns implements JobInstanceListener {
+
+	private static Logger log = LogManager.getLogger(LastSuccessfulRuns.class);
+	private static final Gauge entriesGauge = Gauge.build()
+			.name("last_successful_entries")
+			.help("Number of job name and work item combinations with a last successful run")
+			.register();
+	private final Map<String, JobInstanceStatus> lastRuns = new ConcurrentHashMap<>();
+
+	private static String buildKey(String jobName, String workItem) {
+		return jobName + "\u0000" + (workItem != null ? workItem : "");
+	}
+
+	/**
+	 * Takes the ended job as last successful run if it is successful and younger than the current one
+	 */
+	@Override
+	public void entryEnded(JobInstanceStatus status) {
+		if (status.getStopDate() == null || status.getReturnCode() == null || status.getReturnCode() != 0 || status.getName() == null) {
+			return;
+		}
+		lastRuns.merge(buildKey(status.getName(), status.getWorkItem()), status, (current, ended) -> {
+			if (JobInstanceFilter.ORDER.compare(ended, current) > 0) {
+				return ended;
+			} else {
+				return current;
+			}
+		});
+		entriesGauge.set(lastRuns.size());
+	}
+
+	/**
+	 * @param jobName
+	 * @param workItem null for runs without work item
+	 * @return a copy of the last successful run or null if the job has never run successfully
+	 */
+	public JobInstanceStatus get(String jobName, String workItem) {
+		if (jobName == null || jobName.isBlank()) {
+			throw new IllegalArgumentException("jobName cannot be null or empty");
+		}
+		JobInstanceStatus status = lastRuns.get(buildKey(jobName, workItem));
+		// the caller may load the counters into the object, the shared entry must not change
+		return status != null ? JobInstanceStatusCache.copy(status) : null;
+	}
+
+	/**
+	 * Fills the map with the successful runs started within the last days
+	 * @param storage
+	 * @param days look-back window, 0 reads all successful runs
+	 * @return number of read runs
+	 * @throws Exception
+	 */
+	public int rebuild(JobInstanceStorage storage, int days) throws Exception {
+		JobInstanceFilter filter = new JobInstanceFilter();
+		filter.setRunning(false);
+		filter.setSuccessful(true);
+		if (days > 0) {
+			filter.setStartedAfter(new Date(System.currentTimeMillis() - days * 86400000l));
+		}
+		int[] count = new int[1];
+		storage.selectObjects(filter, status -> {
+			entryEnded(status);
+			count[0]++;
+		});
+		log.info("Last successful runs of " + lastRuns.size() + " jobs and work items rebuilt from " + count[0] + " successful runs" + (days > 0 ? " of the last " + days + " days" : ""));
+		return count[0];
+	}
+
+	public int size() {
+		return lastRuns.size();
+	}
+
+}
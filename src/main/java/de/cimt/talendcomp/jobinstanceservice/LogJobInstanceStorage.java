@@ -0,0 +1,604 @@
+/**
+ * Copyright 2025 Jan Lolling jan.lolling@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.cimt.talendcomp.jobinstanceservice;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.CRC32;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.prometheus.client.Gauge;
+import io.prometheus.client.Histogram;
+
+/**
+ * Job instance storage without a database for small deployments.
+ * Every change is appended as record to a local segment log, the entries and the indexes
+ * (job_instance_id, job_guid, job name and root job_instance_id) are kept in memory
+ * and rebuilt from the log at start.
+ *
+ * Record layout: int length, long crc32, byte type, byte[length - 1] JSON.
+ * Type S contains the complete entry after a create or update, the last record of an entry wins.
+ * Type C contains counters of an entry.
+ * Type T contains counter totals of an entry, they replace the counters with the same name and type.
+ * A record not completely written (e.g. by a crash) is cut off at start.
+ * The log is never compacted and all entries stay in memory, the size of the log and the memory usage
+ * grow with the number of job instances. There is no retention for this storage.
+ *
+ * @author jan.lolling@gmail.com
+ */
+public class LogJobInstanceStorage implements JobInstanceStorage {
+
+	private static Logger log = LogManager.getLogger(LogJobInstanceStorage.class);
+	private static final Gauge entriesGauge = Gauge.build()
+			.name("embedded_storage_entries")
+			.help("Number of job instances in the embedded storage")
+			.register();
+	private static final Histogram appendHistogram = Histogram.build()
+			.name("embedded_storage_append_seconds")
+			.help("Time to append a record to the embedded storage log")
+			.register();
+	public static final String STORAGE_TYPE = "embedded";
+	private static final byte RECORD_STATUS = 'S';
+	private static final byte RECORD_COUNTERS = 'C';
+	private static final byte RECORD_TOTALS = 'T';
+	private static final int HEADER_SIZE = 12;
+	private static final String SEGMENT_PREFIX = "storage-";
+	private static final String SEGMENT_SUFFIX = ".log";
+	private final ObjectMapper objectMapper = new ObjectMapper()
+			.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+			.setSerializationInclusion(JsonInclude.Include.NON_NULL);
+	private Properties properties = new Properties();
+	private File dataDir = new File("data");
+	private long segmentSize = 64l * 1024 * 1024;
+	private String fsyncPolicy = UpdateJournal.FSYNC_INTERVAL;
+	private long fsyncIntervalMillis = 1000;
+	private int messageMaxLength = 1000;
+	private final ConcurrentSkipListMap<Long, JobInstanceStatus> entries = new ConcurrentSkipListMap<>();
+	private final Map<String, Long> guidIndex = new ConcurrentHashMap<>();
+	private final Map<String, Set<Long>> jobNameIndex = new ConcurrentHashMap<>();
+	private final Map<Long, Set<Long>> processInstanceIndex = new ConcurrentHashMap<>();
+	private final Map<Long, List<JobDetailCounter>> counters = new ConcurrentHashMap<>();
+	private final List<JobInstanceListener> listeners = new CopyOnWriteArrayList<>();
+	// writer state, guarded by this
+	private long lastJobInstanceId = 0;
+	private long currentSegment = 0;
+	private FileChannel channel = null;
+	private boolean dirty = false;
+	private volatile boolean running = false;
+	private Thread fsyncThread = null;
+	private final CounterAccumulator counterAccumulator = new CounterAccumulator(this::writeTotals);
+
+	/**
+	 * Initialize the storage by the properties
+	 * @param properties
+	 * @throws Exception
+	 */
+	public void initialize(Properties properties) throws Exception {
+		this.properties = properties;
+		setDataDir(properties.getProperty("embeddedDir", dataDir.getPath()));
+		segmentSize = Long.parseLong(properties.getProperty("embeddedSegmentSize", String.valueOf(segmentSize)));
+		setFsyncPolicy(properties.getProperty("embeddedFsync"));
+		fsyncIntervalMillis = Long.parseLong(properties.getProperty("embeddedFsyncIntervalMillis", String.valueOf(fsyncIntervalMillis)));
+		messageMaxLength = Integer.parseInt(properties.getProperty("messageMaxLength", String.valueOf(messageMaxLength)));
+		counterAccumulator.setFlushIntervalMillis(Long.valueOf(properties.getProperty("counterFlushIntervalMillis", String.valueOf(counterAccumulator.getFlushIntervalMillis()))));
+		open();
+	}
+
+	/**
+	 * Reads all segments to rebuild the entries and indexes and opens the last segment for writing
+	 * @throws Exception
+	 */
+	public synchronized void open() throws Exception {
+		if (dataDir.exists() == false && dataDir.mkdirs() == false) {
+			throw new Exception("Data directory: " + dataDir.getAbsolutePath() + " cannot be created");
+		}
+		long start = System.currentTimeMillis();
+		long countRecords = 0;
+		TreeSet<Long> segments = listSegments();
+		for (Long segment : segments) {
+			countRecords += replaySegment(segment, segment.equals(segments.last()));
+		}
+		currentSegment = segments.isEmpty() ? 0 : segments.last();
+		channel = openSegment(currentSegment);
+		running = true;
+		if (UpdateJournal.FSYNC_INTERVAL.equals(fsyncPolicy)) {
+			fsyncThread = new Thread(this::fsyncLoop, "embedded-storage-fsync");
+			fsyncThread.setDaemon(true);
+			fsyncThread.start();
+		}
+		counterAccumulator.start();
+		entriesGauge.set(entries.size());
+		log.info("Embedded storage opened in: " + dataDir.getAbsolutePath() + " with " + entries.size() + " entries from " + countRecords + " records in " + (System.currentTimeMillis() - start) + "ms");
+	}
+
+	private TreeSet<Long> listSegments() {
+		TreeSet<Long> segments = new TreeSet<>();
+		String[] names = dataDir.list();
+		if (names != null) {
+			for (String name : names) {
+				if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+					segments.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+				}
+			}
+		}
+		return segments;
+	}
+
+	private File getSegmentFile(long segment) {
+		return new File(dataDir, SEGMENT_PREFIX + String.format("%020d", segment) + SEGMENT_SUFFIX);
+	}
+
+	private FileChannel openSegment(long segment) throws IOException {
+		@SuppressWarnings("resource")
+		FileChannel fc = new RandomAccessFile(getSegmentFile(segment), "rw").getChannel();
+		fc.position(fc.size());
+		return fc;
+	}
+
+	/**
+	 * Reads all valid records of the segment
+	 * @param segment
+	 * @param lastSegment an incomplete record at the end of the last segment will be cut off
+	 * @return number of records
+	 * @throws Exception
+	 */
+	private long replaySegment(long segment, boolean lastSegment) throws Exception {
+		File f = getSegmentFile(segment);
+		long validLength = 0;
+		long countRecords = 0;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f), 1024 * 1024))) {
+			CRC32 crc = new CRC32();
+			while (true) {
+				int length;
+				long checksum;
+				byte[] data;
+				try {
+					length = in.readInt();
+					checksum = in.readLong();
+					if (length < 1 || validLength + HEADER_SIZE + length > f.length()) {
+						break;
+					}
+					data = new byte[length];
+					in.readFully(data);
+				} catch (EOFException e) {
+					break;
+				}
+				crc.reset();
+				crc.update(data);
+				if (crc.getValue() != checksum) {
+					break;
+				}
+				applyRecord(data);
+				validLength += HEADER_SIZE + length;
+				countRecords++;
+			}
+		}
+		if (validLength < f.length()) {
+			if (lastSegment) {
+				log.warn("Cut off incomplete record at position " + validLength + " of segment: " + f.getAbsolutePath());
+				try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+					raf.setLength(validLength);
+				}
+			} else {
+				log.error("Invalid record at position " + validLength + " of segment: " + f.getAbsolutePath() + ". The rest of the segment is skipped.");
+			}
+		}
+		return countRecords;
+	}
+
+	private void applyRecord(byte[] data) throws Exception {
+		JobInstanceStatus status = objectMapper.readValue(data, 1, data.length - 1, JobInstanceStatus.class);
+		if (data[0] == RECORD_STATUS) {
+			index(status);
+		} else if (data[0] == RECORD_COUNTERS) {
+			addCounters(status.getJobInstanceId(), status.getCounters());
+		} else if (data[0] == RECORD_TOTALS) {
+			replaceCounters(status.getJobInstanceId(), status.getCounters());
+		} else {
+			throw new Exception("Unknown record type: " + (char) data[0]);
+		}
+	}
+
+	/**
+	 * Appends the record and rolls over to the next segment if the current segment is full
+	 * @param type
+	 * @param status
+	 * @throws IOException
+	 */
+	private void append(byte type, JobInstanceStatus status) throws IOException {
+		if (running == false) {
+			throw new IllegalStateException("Embedded storage is not open");
+		}
+		Histogram.Timer timer = appendHistogram.startTimer();
+		try {
+			byte[] json = objectMapper.writeValueAsBytes(status);
+			CRC32 crc = new CRC32();
+			crc.update(type);
+			crc.update(json);
+			ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + 1 + json.length);
+			buffer.putInt(json.length + 1);
+			buffer.putLong(crc.getValue());
+			buffer.put(type);
+			buffer.put(json);
+			buffer.flip();
+			if (channel.position() > 0 && channel.position() + buffer.remaining() > segmentSize) {
+				channel.force(false);
+				channel.close();
+				currentSegment++;
+				channel = openSegment(currentSegment);
+			}
+			long start = channel.position();
+			try {
+				while (buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+			} catch (IOException e) {
+				// remove the partial record, otherwise the replay would stop at it and skip all following records
+				try {
+					channel.truncate(start);
+					channel.position(start);
+				} catch (IOException te) {
+					log.error("Remove partial record at position " + start + " of segment " + currentSegment + " failed: " + te.getMessage(), te);
+				}
+				throw e;
+			}
+			if (UpdateJournal.FSYNC_ALWAYS.equals(fsyncPolicy)) {
+				channel.force(false);
+			} else {
+				dirty = true;
+			}
+		} finally {
+			timer.observeDuration();
+		}
+	}
+
+	private void fsyncLoop() {
+		while (running) {
+			try {
+				Thread.sleep(fsyncIntervalMillis);
+			} catch (InterruptedException e) {
+				break;
+			}
+			synchronized (this) {
+				if (dirty && channel != null && channel.isOpen()) {
+					try {
+						channel.force(false);
+						dirty = false;
+					} catch (IOException e) {
+						log.error("Fsync embedded storage failed: " + e.getMessage(), e);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Adds or replaces the entry in the entries and indexes
+	 * @param status
+	 */
+	private void index(JobInstanceStatus status) {
+		long id = status.getJobInstanceId();
+		entries.put(id, status);
+		guidIndex.put(status.getGuid(), id);
+		jobNameIndex.computeIfAbsent(status.getName(), k -> new ConcurrentSkipListSet<>()).add(id);
+		if (status.getProcessInstanceId() > 0) {
+			processInstanceIndex.computeIfAbsent(status.getProcessInstanceId(), k -> new ConcurrentSkipListSet<>()).add(id);
+		}
+		if (id > lastJobInstanceId) {
+			lastJobInstanceId = id;
+		}
+	}
+
+	private void addCounters(long jobInstanceId, List<JobDetailCounter> listCounters) {
+		if (listCounters != null) {
+			List<JobDetailCounter> list = counters.computeIfAbsent(jobInstanceId, k -> new CopyOnWriteArrayList<>());
+			for (JobDetailCounter c : listCounters) {
+				if (c.getValue() != null) {
+					list.add(c);
+				}
+			}
+		}
+	}
+
+	private void replaceCounters(long jobInstanceId, List<JobDetailCounter> listCounters) {
+		if (listCounters != null) {
+			List<JobDetailCounter> list = counters.computeIfAbsent(jobInstanceId, k -> new CopyOnWriteArrayList<>());
+			for (JobDetailCounter c : listCounters) {
+				if (c.getValue() != null) {
+					list.removeIf(e -> e.getName().equals(c.getName()) && e.getType().equals(c.getType()));
+					list.add(c);
+				}
+			}
+		}
+	}
+
+	@Override
+	public long createEntry(JobInstanceStatus jobInfo) throws Exception {
+		JDBCJobInstanceStorage.checkCreateAttributes(jobInfo);
+		if (jobInfo.isRootJob() == false && jobInfo.getProcessInstanceId() == 0) {
+			long id = getJobInstanceIdByGuid(jobInfo.getRootJobGuid());
+			if (id == 0) {
+				id = getJobInstanceIdByGuid(jobInfo.getParentJobGuid());
+			}
+			if (id > 0) {
+				jobInfo.setProcessInstanceId(id);
+			}
+		}
+		JobInstanceStatus created = JobInstanceStatusCache.copyCreateAttributes(jobInfo);
+		synchronized (this) {
+			created.setJobInstanceId(lastJobInstanceId + 1);
+			append(RECORD_STATUS, created);
+			index(created);
+		}
+		entriesGauge.set(entries.size());
+		jobInfo.setJobInstanceId(created.getJobInstanceId());
+		return created.getJobInstanceId();
+	}
+
+	@Override
+	public void updateEntry(JobInstanceStatus jobInfo) throws Exception {
+		JDBCJobInstanceStorage.checkUpdateAttributes(jobInfo);
+		String returnMessage = JDBCJobInstanceStorage.enforceTextLength(jobInfo.getReturnMessage(), messageMaxLength, 1);
+		JobInstanceStatus updated = null;
+		List<JobDetailCounter> accumulated = counterAccumulator.remove(jobInfo.getJobInstanceId());
+		try {
+			synchronized (this) {
+				JobInstanceStatus current = entries.get(jobInfo.getJobInstanceId());
+				if (current == null) {
+					throw new Exception("Update of job_instance_status id=" + jobInfo.getJobInstanceId() + " failed because no entry was updated!");
+				}
+				updated = JobInstanceStatusCache.applyEndAttributes(current, jobInfo, new Date(), returnMessage);
+				append(RECORD_STATUS, updated);
+				// the final counters replace the accumulated totals with the same name and type
+				writeTotalsRecord(CounterAccumulator.merge(accumulated, jobInfo.getCounters()), jobInfo.getJobInstanceId());
+				index(updated);
+			}
+		} catch (Exception e) {
+			counterAccumulator.restore(jobInfo.getJobInstanceId(), accumulated);
+			throw e;
+		}
+		for (JobInstanceListener listener : listeners) {
+			if (listener.isInterested(updated.getJobInstanceId())) {
+				listener.entryEnded(updated);
+			}
+		}
+	}
+
+	@Override
+	public void addListener(JobInstanceListener listener) {
+		if (listener == null) {
+			throw new IllegalArgumentException("listener cannot be null");
+		}
+		listeners.add(listener);
+	}
+
+	private void writeCountersRecord(List<JobDetailCounter> listCounters, long jobInstanceId) throws IOException {
+		if (listCounters != null && listCounters.isEmpty() == false) {
+			JobInstanceStatus record = new JobInstanceStatus();
+			record.setJobInstanceId(jobInstanceId);
+			for (JobDetailCounter c : listCounters) {
+				record.addJobDetailCounter(c);
+			}
+			append(RECORD_COUNTERS, record);
+			addCounters(jobInstanceId, listCounters);
+		}
+	}
+
+	private void writeTotalsRecord(List<JobDetailCounter> listCounters, long jobInstanceId) throws IOException {
+		if (listCounters != null && listCounters.isEmpty() == false) {
+			JobInstanceStatus record = new JobInstanceStatus();
+			record.setJobInstanceId(jobInstanceId);
+			for (JobDetailCounter c : listCounters) {
+				record.addJobDetailCounter(c);
+			}
+			append(RECORD_TOTALS, record);
+			replaceCounters(jobInstanceId, listCounters);
+		}
+	}
+
+	private synchronized void writeTotals(long jobInstanceId, List<JobDetailCounter> totals) throws IOException {
+		writeTotalsRecord(totals, jobInstanceId);
+	}
+
+	private long getJobInstanceIdByGuid(String jobGuid) {
+		if (jobGuid == null || jobGuid.isEmpty()) {
+			return 0;
+		}
+		return guidIndex.getOrDefault(jobGuid, 0l);
+	}
+
+	@Override
+	public long getJobInstanceIdByJobGuid(String jobGuid) throws Exception {
+		if (jobGuid == null || jobGuid.trim().isEmpty()) {
+			throw new IllegalArgumentException("jobGuid cannot be null or empty");
+		}
+		return getJobInstanceIdByGuid(jobGuid);
+	}
+
+	/**
+	 * Uses the job name or root job_instance_id index if possible, otherwise the range of job_instance_ids
+	 * @param filter
+	 * @return the ids to check against the filter
+	 */
+	private Collection<Long> selectCandidates(JobInstanceFilter filter) {
+		if (filter.getIncludeJobNames() != null) {
+			TreeSet<Long> ids = new TreeSet<>();
+			for (String jobName : filter.getIncludeJobNames().split(",")) {
+				Set<Long> jobIds = jobNameIndex.get(jobName.trim());
+				if (jobIds != null) {
+					ids.addAll(jobIds);
+				}
+			}
+			return ids;
+		} else if (filter.getRootJobInstanceId() != null) {
+			Set<Long> ids = processInstanceIndex.get(filter.getRootJobInstanceId());
+			return ids != null ? ids : new ArrayList<>();
+		} else {
+			long from = filter.getAfterJobInstanceId() != null ? filter.getAfterJobInstanceId() : Long.MIN_VALUE;
+			long to = filter.getBeforeJobInstanceId() != null ? filter.getBeforeJobInstanceId() : Long.MAX_VALUE;
+			if (from >= to) {
+				return new ArrayList<>();
+			}
+			return entries.subMap(from, false, to, filter.getBeforeJobInstanceId() == null).keySet();
+		}
+	}
+
+	private String select(JobInstanceFilter filter, ResultHandler<JobInstanceStatus> handler) throws Exception {
+		Collection<Long> ids = selectCandidates(filter);
+		return filter.select(() -> ids.stream().map(entries::get).iterator(), handler);
+	}
+
+	@Override
+	public String selectIds(JobInstanceFilter filter, ResultHandler<Long> handler) throws Exception {
+		return select(filter, status -> handler.handle(status.getJobInstanceId()));
+	}
+
+	@Override
+	public String selectObjects(JobInstanceFilter filter, ResultHandler<JobInstanceStatus> handler) throws Exception {
+		return select(filter, status -> {
+			JobInstanceStatus copy = JobInstanceStatusCache.copy(status);
+			if (filter.isWithCounters()) {
+				copy.setCounters(getCounters(copy.getJobInstanceId()));
+			}
+			handler.handle(copy);
+		});
+	}
+
+	@Override
+	public JobInstanceStatus getJobInstanceStatus(long jobInstanceId) throws Exception {
+		JobInstanceStatus status = entries.get(jobInstanceId);
+		return status != null ? JobInstanceStatusCache.copy(status) : null;
+	}
+
+	/**
+	 * @param jobInstanceId
+	 * @return the counters written for the job instance
+	 */
+	public List<JobDetailCounter> getCounters(long jobInstanceId) {
+		List<JobDetailCounter> list = counters.get(jobInstanceId);
+		return list != null ? new ArrayList<>(list) : new ArrayList<>();
+	}
+
+	@Override
+	public void loadCounters(List<JobInstanceStatus> list) throws Exception {
+		for (JobInstanceStatus status : list) {
+			status.setCounters(getCounters(status.getJobInstanceId()));
+		}
+	}
+
+	@Override
+	public synchronized void writeCounters(List<JobDetailCounter> listCounters, long jobInstanceId) throws Exception {
+		writeCountersRecord(listCounters, jobInstanceId);
+	}
+
+	@Override
+	public void accumulateCounters(long jobInstanceId, List<JobDetailCounter> increments) throws Exception {
+		if (entries.containsKey(jobInstanceId) == false) {
+			throw new Exception("No job_instance_status with id=" + jobInstanceId);
+		}
+		counterAccumulator.add(jobInstanceId, increments);
+	}
+
+	@Override
+	public void close() {
+		// writes the remaining totals while the segment is still open
+		counterAccumulator.stop();
+		running = false;
+		if (fsyncThread != null) {
+			fsyncThread.interrupt();
+			try {
+				fsyncThread.join(5000);
+			} catch (InterruptedException e) {
+				// ignore
+			}
+		}
+		synchronized (this) {
+			if (channel != null) {
+				try {
+					channel.force(false);
+					channel.close();
+				} catch (IOException e) {
+					log.error("Close embedded storage failed: " + e.getMessage(), e);
+				}
+				channel = null;
+			}
+		}
+		log.info("Embedded storage closed");
+	}
+
+	/**
+	 * @return the properties used to initialize the storage
+	 */
+	public Properties getProperties() {
+		return properties;
+	}
+
+	public void setDataDir(String dataDir) {
+		if (dataDir == null || dataDir.isBlank()) {
+			throw new IllegalArgumentException("dataDir cannot be null or empty");
+		}
+		this.dataDir = new File(dataDir);
+	}
+
+	public long getSegmentSize() {
+		return segmentSize;
+	}
+
+	public void setSegmentSize(long segmentSize) {
+		if (segmentSize < 1024) {
+			throw new IllegalArgumentException("segmentSize must be at least 1024");
+		}
+		this.segmentSize = segmentSize;
+	}
+
+	public void setFsyncPolicy(String fsyncPolicy) {
+		if (UpdateJournal.FSYNC_ALWAYS.equals(fsyncPolicy) || UpdateJournal.FSYNC_INTERVAL.equals(fsyncPolicy) || UpdateJournal.FSYNC_NEVER.equals(fsyncPolicy)) {
+			this.fsyncPolicy = fsyncPolicy;
+		} else if (fsyncPolicy != null && fsyncPolicy.isBlank() == false) {
+			throw new IllegalArgumentException("Unknown fsync policy: " + fsyncPolicy + ". Allowed: always, interval, never");
+		}
+	}
+
+	public void setMaxMessageLength(int messageMaxLength) {
+		this.messageMaxLength = messageMaxLength;
+	}
+
+}
@@ -62,7 +62,10 @@ public class Main {
 		PrometheusMetricsFilter pm = new PrometheusMetricsFilter();
 		pm.setTimebucketsStr(buckets);
 		log.info("Add filter: PrometheusMetricsFilter at pattern: " + PrometheusMetricsFilter.path);
-		context.addFilter(new FilterHolder(pm), PrometheusMetricsFilter.path, null);
+		FilterHolder pmHolder = new FilterHolder(pm);
+		// the job instance servlet parks requests waiting for the end of a job
+		pmHolder.setAsyncSupported(true);
+		context.addFilter(pmHolder, PrometheusMetricsFilter.path, null);
 		log.info("Add servlet: ShutdownServlet at path: " + ShutdownServlet.path);
 		context.addServlet(new ServletHolder(new ShutdownServlet()), ShutdownServlet.path);
 		log.info("Add servlet: PingServlet at path: " + PingServlet.path);
@@ -74,7 +77,9 @@ public class Main {
 		log.info("Add servlet: JobInstanceServlet at path: " + JobInstanceServlet.path);
 		JobInstanceServlet jis = new JobInstanceServlet();
 		jis.setPropertiesFile(propertiesFile);
-		context.addServlet(new ServletHolder(jis), JobInstanceServlet.path);
+		ServletHolder jisHolder = new ServletHolder(jis);
+		jisHolder.setAsyncSupported(true);
+		context.addServlet(jisHolder, JobInstanceServlet.path);
 		// Start the webserver.
 		log.info("Start server");
 		server.start();
@@ -22,6 +22,8 @@ import org.apache.logging.log4j.Logger;
 
 import io.prometheus.client.Counter;
 import io.prometheus.client.Histogram;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
 import jakarta.servlet.Filter;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.FilterConfig;
@@ -81,11 +83,49 @@ public class PrometheusMetricsFilter implements Filter {
             filterChain.doFilter(servletRequest, servletResponse);
         } finally {
         	if (data != null) {
-            	observeDuration(data, (HttpServletResponse) servletResponse);
+        		if (httpRequest.isAsyncStarted()) {
+        			// the response is sent later, record it when the async request ends
+        			httpRequest.getAsyncContext().addListener(new ObservingAsyncListener(data), servletRequest, servletResponse);
+        		} else {
+        			observeDuration(data, (HttpServletResponse) servletResponse);
+        		}
         	}
         }
     }
 
+    /**
+     * Records an async request when it is completed.
+     * A timeout or error is always followed by onComplete, which then has the final status.
+     */
+    private class ObservingAsyncListener implements AsyncListener {
+
+        private final MetricData data;
+
+        private ObservingAsyncListener(MetricData data) {
+            this.data = data;
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) throws IOException {
+            observeDuration(data, (HttpServletResponse) event.getSuppliedResponse());
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) throws IOException {
+        }
+
+        @Override
+        public void onError(AsyncEvent event) throws IOException {
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) throws IOException {
+            // the request is dispatched again, keep listening
+            event.getAsyncContext().addListener(this, event.getSuppliedRequest(), event.getSuppliedResponse());
+        }
+
+    }
+
     @Override
     public void destroy() {
     }
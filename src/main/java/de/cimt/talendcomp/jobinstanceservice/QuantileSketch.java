@@ -0,0 +1,146 @@
+/**
+ * Copyright 2025 Jan Lolling jan.lolling@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.cimt.talendcomp.jobinstanceservice;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Mergeable sketch to estimate quantiles of non negative values.
+ * The values are counted in buckets with exponentially growing bounds, every estimated quantile
+ * differs at most by the relative accuracy from the exact value. Two sketches with the same accuracy
+ * can be merged by adding the bucket counts. The memory depends on the range of the values, not on their number.
+ * Not thread safe.
+ * @author jan.lolling@gmail.com
+ */
+public class QuantileSketch {
+
+	private final double relativeAccuracy;
+	private final double gamma;
+	private final double logGamma;
+	private final TreeMap<Integer, Long> buckets = new TreeMap<>();
+	private long zeroCount = 0;
+	private long count = 0;
+	private double sum = 0;
+	private double min = Double.NaN;
+	private double max = Double.NaN;
+
+	public QuantileSketch() {
+		this(0.01);
+	}
+
+	/**
+	 * @param relativeAccuracy max relative error of the quantiles, e.g. 0.01 for 1%
+	 */
+	public QuantileSketch(double relativeAccuracy) {
+		if (relativeAccuracy <= 0 || relativeAccuracy >= 1) {
+			throw new IllegalArgumentException("relativeAccuracy must be between 0 and 1");
+		}
+		this.relativeAccuracy = relativeAccuracy;
+		gamma = (1 + relativeAccuracy) / (1 - relativeAccuracy);
+		logGamma = Math.log(gamma);
+	}
+
+	/**
+	 * @param value negative values are counted as 0
+	 */
+	public void add(double value) {
+		if (value < 1) {
+			// values below 1 (ms or rows) are not relevant and would only add buckets
+			zeroCount++;
+		} else {
+			buckets.merge((int) Math.ceil(Math.log(value) / logGamma), 1l, Long::sum);
+		}
+		double v = Math.max(0, value);
+		count++;
+		sum += v;
+		min = Double.isNaN(min) ? v : Math.min(min, v);
+		max = Double.isNaN(max) ? v : Math.max(max, v);
+	}
+
+	/**
+	 * Adds the counts of the other sketch
+	 * @param other sketch with the same relative accuracy
+	 */
+	public void merge(QuantileSketch other) {
+		if (other.relativeAccuracy != relativeAccuracy) {
+			throw new IllegalArgumentException("Sketches with different relative accuracy cannot be merged");
+		}
+		if (other.count == 0) {
+			return;
+		}
+		for (Map.Entry<Integer, Long> entry : other.buckets.entrySet()) {
+			buckets.merge(entry.getKey(), entry.getValue(), Long::sum);
+		}
+		zeroCount += other.zeroCount;
+		count += other.count;
+		sum += other.sum;
+		min = Double.isNaN(min) ? other.min : Math.min(min, other.min);
+		max = Double.isNaN(max) ? other.max : Math.max(max, other.max);
+	}
+
+	/**
+	 * @param quantile between 0 and 1, e.g. 0.95
+	 * @return the estimated value or NaN if the sketch is empty
+	 */
+	public double getQuantile(double quantile) {
+		if (quantile < 0 || quantile > 1) {
+			throw new IllegalArgumentException("quantile must be between 0 and 1");
+		}
+		if (count == 0) {
+			return Double.NaN;
+		}
+		long rank = (long) (quantile * (count - 1));
+		if (rank == count - 1) {
+			// min and max are known exactly
+			return max;
+		}
+		long seen = zeroCount;
+		if (rank == 0 || rank < seen) {
+			return min;
+		}
+		for (Map.Entry<Integer, Long> entry : buckets.entrySet()) {
+			seen += entry.getValue();
+			if (rank < seen) {
+				// the middle of the bucket has the same relative distance to both bounds
+				double value = 2 * Math.pow(gamma, entry.getKey()) / (gamma + 1);
+				return Math.max(min, Math.min(max, value));
+			}
+		}
+		return max;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public double getAverage() {
+		return count > 0 ? sum / count : Double.NaN;
+	}
+
+	public double getMin() {
+		return min;
+	}
+
+	public double getMax() {
+		return max;
+	}
+
+	public double getRelativeAccuracy() {
+		return relativeAccuracy;
+	}
+
+}
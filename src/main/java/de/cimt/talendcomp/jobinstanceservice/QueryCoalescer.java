@@ -0,0 +1,182 @@
+/**
+ * Copyright 2025 Jan Lolling jan.lolling@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.cimt.talendcomp.jobinstanceservice;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.prometheus.client.Counter;
+
+/**
+ * Lets concurrent identical queries share one execution and one serialized result.
+ * The first request of a key runs the query, requests with the same key arriving meanwhile wait for its result.
+ * Optionally the result is kept for some milliseconds for the following requests (microcache).
+ * A result is only shared if no entry has been written since the query has been started,
+ * so a client sees its own writes as long as they are written synchronously.
+ * With the update journal the writes reach the database later, a shared result can miss them until the journal is drained.
+ * @author jan.lolling@gmail.com
+ */
+public class QueryCoalescer {
+
+	private static final Counter queriesCounter = Counter.build()
+			.name("query_coalesce_total")
+			.help("Number of coalescable queries by result: executed, joined (waited for a running query) or cached")
+			.labelNames("result")
+			.register();
+	private final Map<String, Result> inFlight = new ConcurrentHashMap<>();
+	private final Map<String, Result> cache = new ConcurrentHashMap<>();
+	private final AtomicLong generation = new AtomicLong();
+	private long cacheMillis = 0;
+	private int cacheMaxEntries = 1000;
+	private int cacheMaxBytes = 1048576;
+
+	/**
+	 * The serialized response of a query
+	 */
+	public static class Result {
+
+		private final byte[] body;
+		private final Map<String, String> headers;
+		private long generation;
+		private long createdAt;
+		private final CompletableFuture<Result> done = new CompletableFuture<>();
+
+		public Result(byte[] body, Map<String, String> headers) {
+			this.body = body;
+			this.headers = headers;
+		}
+
+		public byte[] getBody() {
+			return body;
+		}
+
+		/**
+		 * @return the response headers of the query, e.g. total-rows
+		 */
+		public Map<String, String> getHeaders() {
+			return headers;
+		}
+
+	}
+
+	/**
+	 * Runs the query or takes the result of the same running or just finished query
+	 * @param key the normalized query, identical keys must return identical results
+	 * @param query builds the result
+	 * @return the result
+	 * @throws Exception the exception of the query, also for the joined requests
+	 */
+	public Result execute(String key, Callable<Result> query) throws Exception {
+		long currentGeneration = generation.get();
+		if (cacheMillis > 0) {
+			Result cached = cache.get(key);
+			if (cached != null && cached.generation == currentGeneration && System.currentTimeMillis() - cached.createdAt <= cacheMillis) {
+				queriesCounter.labels("cached").inc();
+				return cached;
+			}
+		}
+		// placeholder of the running query, it only carries the generation and the future
+		Result placeholder = new Result(null, null);
+		placeholder.generation = currentGeneration;
+		// a running query started before the last write is replaced
+		Result running = inFlight.merge(key, placeholder, (current, p) -> current.generation == p.generation ? current : p);
+		if (running != placeholder) {
+			queriesCounter.labels("joined").inc();
+			try {
+				return running.done.get();
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof Exception) {
+					throw (Exception) e.getCause();
+				}
+				throw e;
+			}
+		}
+		try {
+			Result result = query.call();
+			result.generation = currentGeneration;
+			result.createdAt = System.currentTimeMillis();
+			queriesCounter.labels("executed").inc();
+			if (cacheMillis > 0 && result.body.length <= cacheMaxBytes) {
+				if (cache.size() >= cacheMaxEntries) {
+					cache.values().removeIf(r -> result.createdAt - r.createdAt > cacheMillis || r.generation != generation.get());
+					if (cache.size() >= cacheMaxEntries) {
+						cache.clear();
+					}
+				}
+				cache.put(key, result);
+			}
+			placeholder.done.complete(result);
+			return result;
+		} catch (Exception e) {
+			placeholder.done.completeExceptionally(e);
+			throw e;
+		} finally {
+			inFlight.remove(key, placeholder);
+		}
+	}
+
+	/**
+	 * Must be called after every write, the running and cached results will not be shared anymore.
+	 * A journaled write is not yet in the database when this is called.
+	 */
+	public void invalidate() {
+		generation.incrementAndGet();
+		if (cache.isEmpty() == false) {
+			cache.clear();
+		}
+	}
+
+	public long getCacheMillis() {
+		return cacheMillis;
+	}
+
+	/**
+	 * @param cacheMillis how long a result is used for following requests, 0 disables the microcache
+	 */
+	public void setCacheMillis(Long cacheMillis) {
+		if (cacheMillis != null) {
+			this.cacheMillis = cacheMillis;
+		}
+	}
+
+	public int getCacheMaxEntries() {
+		return cacheMaxEntries;
+	}
+
+	public void setCacheMaxEntries(Integer cacheMaxEntries) {
+		if (cacheMaxEntries != null) {
+			this.cacheMaxEntries = cacheMaxEntries;
+		}
+	}
+
+	public int getCacheMaxBytes() {
+		return cacheMaxBytes;
+	}
+
+	/**
+	 * @param cacheMaxBytes larger results are shared with the running requests but not cached
+	 */
+	public void setCacheMaxBytes(Integer cacheMaxBytes) {
+		if (cacheMaxBytes != null) {
+			this.cacheMaxBytes = cacheMaxBytes;
+		}
+	}
+
+}
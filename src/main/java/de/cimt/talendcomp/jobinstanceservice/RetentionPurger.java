@@ -0,0 +1,230 @@
+/**
+ * Copyright 2025 Jan Lolling jan.lolling@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.cimt.talendcomp.jobinstanceservice;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import io.prometheus.client.Counter;
+import io.prometheus.client.Histogram;
+
+/**
+ * Deletes job instances older than the retention time in the background.
+ * The retention is configured in days, for all jobs and optionally per job name.
+ * Running jobs are kept, unless they are older than retentionRunningDays (stale entries of jobs which never sent their end).
+ * The entries are deleted in small chunks ordered by the job_instance_id, every chunk in its own short transaction
+ * (counters before the status entries). The pause between the chunks limits the load of the database.
+ * @author jan.lolling@gmail.com
+ */
+public class RetentionPurger {
+
+	private static Logger log = LogManager.getLogger(RetentionPurger.class);
+	public static final String JOB_RETENTION_PROPERTY_PREFIX = "retentionDays.";
+	private static final Counter purgedRowsCounter = Counter.build()
+			.name("retention_purged_rows_total")
+			.help("Number of rows deleted by the retention purger")
+			.labelNames("table")
+			.register();
+	private static final Histogram chunkHistogram = Histogram.build()
+			.name("retention_purge_chunk_seconds")
+			.help("Time to delete one chunk of job instances")
+			.register();
+	private static final long DAY_MILLIS = 86400000l;
+	private final JDBCJobInstanceStorage storage;
+	private int retentionDays = 0;
+	private int runningRetentionDays = 0;
+	private final Map<String, Integer> jobRetentionDays = new HashMap<>();
+	private int chunkSize = 500;
+	private long chunkPauseMillis = 100;
+	private long runIntervalMillis = 3600000l;
+	private volatile boolean running = false;
+	private Thread purgeThread = null;
+
+	public RetentionPurger(JDBCJobInstanceStorage storage) {
+		if (storage == null) {
+			throw new IllegalArgumentException("storage cannot be null");
+		}
+		this.storage = storage;
+	}
+
+	/**
+	 * Takes the retention policy from the properties:
+	 * retentionDays for all jobs and retentionDays.[job_name] for particular jobs, 0 means keep forever.
+	 * @param properties
+	 */
+	public void configure(Properties properties) {
+		retentionDays = Integer.parseInt(properties.getProperty("retentionDays", String.valueOf(retentionDays)));
+		for (String key : properties.stringPropertyNames()) {
+			if (key.startsWith(JOB_RETENTION_PROPERTY_PREFIX)) {
+				jobRetentionDays.put(key.substring(JOB_RETENTION_PROPERTY_PREFIX.length()), Integer.parseInt(properties.getProperty(key)));
+			}
+		}
+		runningRetentionDays = Integer.parseInt(properties.getProperty("retentionRunningDays", String.valueOf(runningRetentionDays)));
+		if (runningRetentionDays > 0 && runningRetentionDays < retentionDays) {
+			throw new IllegalArgumentException("retentionRunningDays must be 0 or greater or equal retentionDays");
+		}
+		chunkSize = Integer.parseInt(properties.getProperty("purgeChunkSize", String.valueOf(chunkSize)));
+		if (chunkSize < 1) {
+			throw new IllegalArgumentException("purgeChunkSize must be greater 0");
+		}
+		chunkPauseMillis = Long.parseLong(properties.getProperty("purgeChunkPauseMillis", String.valueOf(chunkPauseMillis)));
+		runIntervalMillis = Long.parseLong(properties.getProperty("purgeIntervalMinutes", String.valueOf(runIntervalMillis / 60000l))) * 60000l;
+	}
+
+	/**
+	 * @return true if any retention policy is configured
+	 */
+	public boolean isEnabled() {
+		if (retentionDays > 0) {
+			return true;
+		}
+		for (Integer days : jobRetentionDays.values()) {
+			if (days > 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Deletes all job instances older than their retention time
+	 * @return number of deleted job instances
+	 * @throws Exception
+	 */
+	public synchronized int purge() throws Exception {
+		long now = System.currentTimeMillis();
+		Timestamp runningStartedBefore = runningRetentionDays > 0 ? new Timestamp(now - runningRetentionDays * DAY_MILLIS) : null;
+		int count = 0;
+		for (Map.Entry<String, Integer> entry : jobRetentionDays.entrySet()) {
+			if (entry.getValue() > 0) {
+				count += purge(new Timestamp(now - entry.getValue() * DAY_MILLIS), runningStartedBefore, entry.getKey());
+			}
+		}
+		if (retentionDays > 0) {
+			count += purge(new Timestamp(now - retentionDays * DAY_MILLIS), runningStartedBefore, null);
+		}
+		if (count > 0) {
+			log.info("Retention purge deleted " + count + " job instances");
+		}
+		return count;
+	}
+
+	/**
+	 * @param startedBefore
+	 * @param runningStartedBefore running jobs started before are purged also, null to keep all running jobs
+	 * @param jobName the job or null for all jobs without their own retention
+	 * @return number of deleted job instances
+	 * @throws Exception
+	 */
+	private int purge(Timestamp startedBefore, Timestamp runningStartedBefore, String jobName) throws Exception {
+		int count = 0;
+		long afterJobInstanceId = 0;
+		while (true) {
+			Map<Long, String> candidates = storage.selectPurgeCandidates(startedBefore, runningStartedBefore, jobName, jobName == null ? jobRetentionDays.keySet() : null, afterJobInstanceId, chunkSize);
+			if (candidates.isEmpty()) {
+				break;
+			}
+			List<Long> ids = new ArrayList<>(candidates.keySet());
+			Histogram.Timer timer = chunkHistogram.startTimer();
+			int[] deleted = null;
+			try {
+				deleted = storage.deleteEntries(candidates);
+			} finally {
+				timer.observeDuration();
+			}
+			purgedRowsCounter.labels("counters").inc(deleted[0]);
+			purgedRowsCounter.labels("status").inc(deleted[1]);
+			count += deleted[1];
+			afterJobInstanceId = ids.get(ids.size() - 1);
+			if (ids.size() < chunkSize) {
+				break;
+			}
+			if (chunkPauseMillis > 0) {
+				Thread.sleep(chunkPauseMillis);
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Starts the thread running the purge every purgeIntervalMinutes
+	 */
+	public synchronized void start() {
+		if (running || isEnabled() == false || runIntervalMillis <= 0) {
+			return;
+		}
+		running = true;
+		purgeThread = new Thread(() -> {
+			while (running) {
+				try {
+					Thread.sleep(runIntervalMillis);
+				} catch (InterruptedException e) {
+					break;
+				}
+				try {
+					purge();
+				} catch (InterruptedException e) {
+					break;
+				} catch (Exception e) {
+					log.error("Retention purge failed: " + e.getMessage(), e);
+				}
+			}
+		}, "retention-purger");
+		purgeThread.setDaemon(true);
+		purgeThread.start();
+		log.info("Retention purger started with retentionDays=" + retentionDays + " job specific retention: " + jobRetentionDays);
+	}
+
+	public void stop() {
+		running = false;
+		if (purgeThread != null) {
+			purgeThread.interrupt();
+			purgeThread = null;
+		}
+	}
+
+	public int getRetentionDays() {
+		return retentionDays;
+	}
+
+	public void setRetentionDays(int retentionDays) {
+		this.retentionDays = retentionDays;
+	}
+
+	public int getRunningRetentionDays() {
+		return runningRetentionDays;
+	}
+
+	public void setJobRetentionDays(String jobName, int days) {
+		jobRetentionDays.put(jobName, days);
+	}
+
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	public long getChunkPauseMillis() {
+		return chunkPauseMillis;
+	}
+
+}
@@ -0,0 +1,89 @@
+/**
+ * Copyright 2025 Jan Lolling jan.lolling@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.cimt.talendcomp.jobinstanceservice;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import de.cimt.talendcomp.jobinstanceservice.JobInstanceStorage.ResultHandler;
+import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
+
+/**
+ * In-memory index of the currently running job instances.
+ * Entries are added when a job is created and removed when the job ends,
+ * queries for running jobs are answered without the database.
+ * @author jan.lolling@gmail.com
+ */
+public class RunningJobIndex {
+
+	private static final Gauge sizeGauge = Gauge.build()
+			.name("running_job_index_size")
+			.help("Number of running job instances in the index")
+			.register();
+	private static final Counter queryCounter = Counter.build()
+			.name("running_job_index_queries_total")
+			.help("Number of queries answered by the running job index")
+			.register();
+	private final Map<Long, JobInstanceStatus> runningJobs = new ConcurrentHashMap<>();
+
+	/**
+	 * Adds a copy of the entry if the job is running
+	 * @param status
+	 */
+	public void add(JobInstanceStatus status) {
+		if (status != null && status.getJobInstanceId() > 0 && status.getStopDate() == null) {
+			runningJobs.put(status.getJobInstanceId(), JobInstanceStatusCache.copy(status));
+			sizeGauge.set(runningJobs.size());
+		}
+	}
+
+	public void remove(long jobInstanceId) {
+		if (runningJobs.remove(jobInstanceId) != null) {
+			sizeGauge.set(runningJobs.size());
+		}
+	}
+
+	/**
+	 * @param filter
+	 * @return true if the filter selects running jobs only
+	 */
+	public boolean canAnswer(JobInstanceFilter filter) {
+		return Boolean.TRUE.equals(filter.getRunning());
+	}
+
+	/**
+	 * Selects the running jobs matching the filter
+	 * @param filter
+	 * @param handler receives copies of the entries
+	 * @return the cursor of the last entry or null if there was no entry
+	 * @throws Exception
+	 */
+	public String select(JobInstanceFilter filter, ResultHandler<JobInstanceStatus> handler) throws Exception {
+		queryCounter.inc();
+		return filter.select(runningJobs.values(), status -> handler.handle(JobInstanceStatusCache.copy(status)));
+	}
+
+	public int size() {
+		return runningJobs.size();
+	}
+
+	public void clear() {
+		runningJobs.clear();
+		sizeGauge.set(0);
+	}
+
+}
@@ -0,0 +1,360 @@
+/**
+ * Copyright 2025 Jan Lolling jan.lolling@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.cimt.talendcomp.jobinstanceservice;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import io.prometheus.client.Gauge;
+
+/**
+ * Checks the indexes of the status and counter table against the queries of the service.
+ * An index is helpful if the required columns are its leading columns.
+ * Missing indexes can be created, the DDL depends on the database.
+ * @author jan.lolling@gmail.com
+ */
+public class SchemaVerifier {
+
+	private static Logger log = LogManager.getLogger(SchemaVerifier.class);
+	private static final Gauge indexReadyGauge = Gauge.build()
+			.name("schema_index_ready")
+			.help("1 if the index required by the queries of the service exists, 0 if it is missing")
+			.labelNames("table", "columns")
+			.register();
+	private static final int MAX_INDEX_NAME_LENGTH = 30;
+	private static final String TABLE_NOT_FOUND = "table not found";
+	private final String schemaName;
+	private final String statusTableName;
+	private final String counterTableName;
+
+	/**
+	 * Result of the check of one required index
+	 */
+	public static class IndexCheck {
+
+		private final String tableName;
+		private final List<String> columns;
+		private final String purpose;
+		private final String indexName;
+		private String foundIndex = null;
+		private String problem = null;
+
+		private IndexCheck(String tableName, String indexName, String purpose, String... columns) {
+			this.tableName = tableName;
+			this.indexName = indexName;
+			this.purpose = purpose;
+			this.columns = Arrays.asList(columns);
+		}
+
+		public String getTableName() {
+			return tableName;
+		}
+
+		public List<String> getColumns() {
+			return columns;
+		}
+
+		public String getPurpose() {
+			return purpose;
+		}
+
+		/**
+		 * @return the name of the existing index covering the columns or null
+		 */
+		public String getFoundIndex() {
+			return foundIndex;
+		}
+
+		/**
+		 * @return the description of the problem or null if the index exists
+		 */
+		public String getProblem() {
+			return problem;
+		}
+
+		public boolean isReady() {
+			return foundIndex != null;
+		}
+
+		@Override
+		public String toString() {
+			String cols = tableName + "(" + String.join(", ", columns) + ")";
+			if (isReady()) {
+				return "OK      " + cols + " by index " + foundIndex;
+			} else {
+				return "MISSING " + cols + " for " + purpose + ": " + problem;
+			}
+		}
+
+	}
+
+	public SchemaVerifier(String schemaName, String statusTableName, String counterTableName) {
+		if (statusTableName == null || statusTableName.isBlank()) {
+			throw new IllegalArgumentException("statusTableName cannot be null or empty");
+		}
+		if (counterTableName == null || counterTableName.isBlank()) {
+			throw new IllegalArgumentException("counterTableName cannot be null or empty");
+		}
+		this.schemaName = schemaName;
+		this.statusTableName = statusTableName;
+		this.counterTableName = counterTableName;
+	}
+
+	/**
+	 * @return the indexes the queries of the service rely on
+	 */
+	private List<IndexCheck> buildRequiredIndexes() {
+		List<IndexCheck> list = new ArrayList<>();
+		list.add(new IndexCheck(statusTableName, null, "select and update by id", JDBCJobInstanceStorage.JOB_INSTANCE_ID));
+		list.add(new IndexCheck(statusTableName, buildIndexName(statusTableName, 1), "lookup by job_guid", JDBCJobInstanceStorage.JOB_GUID));
+		list.add(new IndexCheck(statusTableName, buildIndexName(statusTableName, 2), "filter root_job_instance_id", JDBCJobInstanceStorage.PROCESS_INSTANCE_ID));
+		list.add(new IndexCheck(statusTableName, buildIndexName(statusTableName, 3), "filter job names ordered by start time", JDBCJobInstanceStorage.JOB_NAME, JDBCJobInstanceStorage.JOB_STARTED_AT));
+		list.add(new IndexCheck(statusTableName, buildIndexName(statusTableName, 4), "cursor, time window and retention purge", JDBCJobInstanceStorage.JOB_STARTED_AT, JDBCJobInstanceStorage.JOB_INSTANCE_ID));
+		list.add(new IndexCheck(counterTableName, buildIndexName(counterTableName, 1), "counters by id", JDBCJobInstanceStorage.JOB_INSTANCE_ID));
+		return list;
+	}
+
+	private static String buildIndexName(String tableName, int number) {
+		String suffix = "_IX" + number;
+		if (tableName.length() + suffix.length() > MAX_INDEX_NAME_LENGTH) {
+			tableName = tableName.substring(0, MAX_INDEX_NAME_LENGTH - suffix.length());
+		}
+		return tableName + suffix;
+	}
+
+	/**
+	 * Snowflake and Exasol does not have indexes, there is nothing to check
+	 * @param conn
+	 * @return true if the database uses indexes
+	 * @throws SQLException
+	 */
+	public static boolean supportsIndexes(Connection conn) throws SQLException {
+		String product = conn.getMetaData().getDatabaseProductName().toLowerCase();
+		return product.contains("snowflake") == false && product.contains("exasol") == false;
+	}
+
+	/**
+	 * Checks all required indexes and sets the result into the readiness metric
+	 * @param conn
+	 * @return the result of every required index
+	 * @throws SQLException
+	 */
+	public List<IndexCheck> verify(Connection conn) throws SQLException {
+		List<IndexCheck> checks = buildRequiredIndexes();
+		DatabaseMetaData meta = conn.getMetaData();
+		Map<String, List<List<String>>> tableIndexes = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+		for (IndexCheck check : checks) {
+			if (tableIndexes.containsKey(check.tableName) == false) {
+				tableIndexes.put(check.tableName, readIndexes(meta, check.tableName));
+			}
+			List<List<String>> indexes = tableIndexes.get(check.tableName);
+			if (indexes == null) {
+				check.problem = TABLE_NOT_FOUND;
+			} else {
+				checkIndex(check, indexes);
+			}
+			indexReadyGauge.labels(check.tableName, String.join(",", check.columns)).set(check.isReady() ? 1 : 0);
+		}
+		return checks;
+	}
+
+	private static void checkIndex(IndexCheck check, List<List<String>> indexes) {
+		for (List<String> index : indexes) {
+			// the first element is the index name, the columns follow in their order
+			List<String> columns = index.subList(1, index.size());
+			if (columns.size() >= check.columns.size() && startsWithColumns(columns, check.columns)) {
+				check.foundIndex = index.get(0);
+				return;
+			}
+		}
+		for (List<String> index : indexes) {
+			List<String> columns = index.subList(1, index.size());
+			if (containsColumns(columns, check.columns)) {
+				check.problem = "index " + index.get(0) + " " + columns + " does not start with the columns";
+				return;
+			}
+		}
+		check.problem = "no index";
+	}
+
+	private static boolean startsWithColumns(List<String> indexColumns, List<String> columns) {
+		for (int i = 0; i < columns.size(); i++) {
+			if (columns.get(i).equalsIgnoreCase(indexColumns.get(i)) == false) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean containsColumns(List<String> indexColumns, List<String> columns) {
+		for (String column : columns) {
+			boolean found = false;
+			for (String indexColumn : indexColumns) {
+				if (column.equalsIgnoreCase(indexColumn)) {
+					found = true;
+					break;
+				}
+			}
+			if (found == false) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Reads the primary key and the indexes of the table
+	 * @param meta
+	 * @param tableName
+	 * @return the indexes as list of name and columns or null if the table does not exist
+	 * @throws SQLException
+	 */
+	private List<List<String>> readIndexes(DatabaseMetaData meta, String tableName) throws SQLException {
+		String schema = toMetaDataCase(meta, schemaName);
+		String table = toMetaDataCase(meta, tableName);
+		try (ResultSet rs = meta.getTables(null, schema, table, null)) {
+			if (rs.next() == false) {
+				return null;
+			}
+		}
+		Map<String, Map<Integer, String>> indexColumns = new TreeMap<>();
+		try (ResultSet rs = meta.getPrimaryKeys(null, schema, table)) {
+			while (rs.next()) {
+				String name = "PRIMARY KEY " + (rs.getString("PK_NAME") != null ? rs.getString("PK_NAME") : "");
+				indexColumns.computeIfAbsent(name.trim(), k -> new TreeMap<>()).put(rs.getInt("KEY_SEQ"), rs.getString("COLUMN_NAME"));
+			}
+		}
+		try (ResultSet rs = meta.getIndexInfo(null, schema, table, false, true)) {
+			while (rs.next()) {
+				String name = rs.getString("INDEX_NAME");
+				String column = rs.getString("COLUMN_NAME");
+				if (rs.getShort("TYPE") == DatabaseMetaData.tableIndexStatistic || name == null || column == null) {
+					continue;
+				}
+				indexColumns.computeIfAbsent(name, k -> new TreeMap<>()).put((int) rs.getShort("ORDINAL_POSITION"), column);
+			}
+		}
+		List<List<String>> indexes = new ArrayList<>();
+		for (Map.Entry<String, Map<Integer, String>> entry : indexColumns.entrySet()) {
+			List<String> index = new ArrayList<>();
+			index.add(entry.getKey());
+			index.addAll(entry.getValue().values());
+			indexes.add(index);
+		}
+		return indexes;
+	}
+
+	private static String toMetaDataCase(DatabaseMetaData meta, String name) throws SQLException {
+		if (name == null) {
+			return null;
+		} else if (meta.storesUpperCaseIdentifiers()) {
+			return name.toUpperCase();
+		} else if (meta.storesLowerCaseIdentifiers()) {
+			return name.toLowerCase();
+		} else {
+			return name;
+		}
+	}
+
+	/**
+	 * Builds the create index statement for the database
+	 * @param conn
+	 * @param check
+	 * @return the DDL statement
+	 * @throws SQLException
+	 */
+	public String buildCreateIndexStatement(Connection conn, IndexCheck check) throws SQLException {
+		String product = conn.getMetaData().getDatabaseProductName().toLowerCase();
+		StringBuilder sb = new StringBuilder();
+		if (product.contains("postgres")) {
+			// does not block the inserts and updates of the running service
+			sb.append("create index concurrently if not exists ");
+		} else {
+			sb.append("create index ");
+		}
+		sb.append(check.indexName);
+		sb.append(" on ");
+		if (schemaName != null) {
+			sb.append(schemaName);
+			sb.append(".");
+		}
+		sb.append(check.tableName);
+		sb.append(" (");
+		sb.append(String.join(", ", check.columns));
+		sb.append(")");
+		return sb.toString();
+	}
+
+	/**
+	 * Creates the missing indexes. A missing primary key is not created.
+	 * @param conn
+	 * @param checks result of verify
+	 * @return number of created indexes
+	 * @throws SQLException
+	 */
+	public int createMissingIndexes(Connection conn, List<IndexCheck> checks) throws SQLException {
+		int count = 0;
+		boolean autoCommit = conn.getAutoCommit();
+		conn.setAutoCommit(true);
+		try (Statement stat = conn.createStatement()) {
+			for (IndexCheck check : checks) {
+				if (check.isReady() || check.indexName == null || TABLE_NOT_FOUND.equals(check.problem)) {
+					continue;
+				}
+				String sql = buildCreateIndexStatement(conn, check);
+				log.info("Create missing index: " + sql);
+				stat.execute(sql);
+				count++;
+			}
+		} finally {
+			conn.setAutoCommit(autoCommit);
+		}
+		return count;
+	}
+
+	/**
+	 * @param checks
+	 * @return the readiness report with one line per required index
+	 */
+	public static String buildReport(List<IndexCheck> checks) {
+		StringBuilder sb = new StringBuilder();
+		int missing = 0;
+		for (IndexCheck check : checks) {
+			if (check.isReady() == false) {
+				missing++;
+			}
+		}
+		sb.append("Schema readiness: ");
+		sb.append(missing == 0 ? "all " + checks.size() + " required indexes exist" : missing + " of " + checks.size() + " required indexes missing");
+		for (IndexCheck check : checks) {
+			sb.append("\n  ");
+			sb.append(check.toString());
+		}
+		return sb.toString();
+	}
+
+}
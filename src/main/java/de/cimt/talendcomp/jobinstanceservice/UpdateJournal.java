@@ -0,0 +1,524 @@
+/**
+ * Copyright 2025 Jan Lolling jan.lolling@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.cimt.talendcomp.jobinstanceservice;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.sql.SQLException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientException;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
+
+/**
+ * Append-only journal for update payloads. Every entry is appended to a memory-mapped segment file
+ * and a background drainer writes the entries in order into the storage via updateEntry.
+ * The position of the next not yet drained entry is kept in a checkpoint file,
+ * entries not drained before a shutdown or crash will be replayed at the next start.
+ *
+ * Entry layout: int length, long crc32, byte[length] payload (the JSON of the JobInstanceStatus).
+ * A length of 0 marks the end of the written entries, -1 means the next entry follows in the next segment.
+ * Fully drained segments will be deleted (compaction).
+ *
+ * @author jan.lolling@gmail.com
+ */
+public class UpdateJournal {
+
+	private static Logger log = LogManager.getLogger(UpdateJournal.class);
+	private static final Gauge backlogGauge = Gauge.build()
+			.name("update_journal_backlog")
+			.help("Number of journal entries not yet written into the storage")
+			.register();
+	private static final Counter drainedCounter = Counter.build()
+			.name("update_journal_drained_total")
+			.help("Number of journal entries written into the storage")
+			.labelNames("result")
+			.register();
+	public static final String FSYNC_ALWAYS = "always";
+	public static final String FSYNC_INTERVAL = "interval";
+	public static final String FSYNC_NEVER = "never";
+	private static final int HEADER_SIZE = 12;
+	private static final int END_OF_SEGMENT = -1;
+	private static final String SEGMENT_PREFIX = "journal-";
+	private static final String SEGMENT_SUFFIX = ".log";
+	private static final String CHECKPOINT_FILE = "journal.checkpoint";
+	private final File journalDir;
+	private final JobInstanceStorage storage;
+	private final ObjectMapper objectMapper;
+	private int segmentSize = 16 * 1024 * 1024;
+	private String fsyncPolicy = FSYNC_INTERVAL;
+	private long fsyncIntervalMillis = 1000;
+	private long retryIntervalMillis = 5000;
+	// writer state, guarded by this
+	private long writeSegment = 0;
+	private MappedByteBuffer writeBuffer = null;
+	private boolean dirty = false;
+	private boolean checkpointDirty = false;
+	// entries found at start, they could have been written already before a crash
+	private long replayRemaining = 0;
+	// reader state, only used by the drainer thread
+	private long readSegment = 0;
+	private MappedByteBuffer readBuffer = null;
+	private MappedByteBuffer checkpointBuffer = null;
+	private volatile boolean running = false;
+	private Thread drainer = null;
+	private Thread fsyncThread = null;
+
+	public UpdateJournal(String journalDir, JobInstanceStorage storage, ObjectMapper objectMapper) {
+		if (journalDir == null || journalDir.isBlank()) {
+			throw new IllegalArgumentException("journalDir cannot be null or empty");
+		}
+		if (storage == null) {
+			throw new IllegalArgumentException("storage cannot be null");
+		}
+		this.journalDir = new File(journalDir);
+		this.storage = storage;
+		this.objectMapper = objectMapper;
+	}
+
+	/**
+	 * Opens the journal, restores the positions and starts the drainer.
+	 * Entries written but not drained before will be replayed.
+	 * @throws Exception
+	 */
+	public synchronized void start() throws Exception {
+		if (journalDir.exists() == false && journalDir.mkdirs() == false) {
+			throw new Exception("Journal directory: " + journalDir.getAbsolutePath() + " cannot be created");
+		}
+		checkpointBuffer = map(new File(journalDir, CHECKPOINT_FILE), 16);
+		readSegment = checkpointBuffer.getLong(0);
+		int readOffset = checkpointBuffer.getInt(8);
+		TreeSet<Long> segments = listSegments();
+		if (segments.isEmpty() == false && segments.first() > readSegment) {
+			// the checkpoint points to a segment already deleted
+			readSegment = segments.first();
+			readOffset = 0;
+		}
+		for (Long segment : segments) {
+			if (segment < readSegment) {
+				// drained but not deleted before the last shutdown
+				deleteSegment(segment);
+			}
+		}
+		readBuffer = mapSegment(readSegment);
+		readBuffer.position(readOffset);
+		// find the end of the written entries to continue writing there
+		writeSegment = readSegment;
+		writeBuffer = mapSegment(writeSegment);
+		writeBuffer.position(readOffset);
+		long countPending = 0;
+		while (true) {
+			int length = validEntryLength(writeBuffer);
+			if (length == END_OF_SEGMENT) {
+				writeSegment++;
+				writeBuffer = mapSegment(writeSegment);
+			} else if (length > 0) {
+				writeBuffer.position(writeBuffer.position() + HEADER_SIZE + length);
+				countPending++;
+			} else {
+				break;
+			}
+		}
+		backlogGauge.set(countPending);
+		replayRemaining = countPending;
+		if (countPending > 0) {
+			log.info("Journal: " + journalDir.getAbsolutePath() + " contains " + countPending + " not drained entries. They will be replayed.");
+		}
+		running = true;
+		drainer = new Thread(this::drain, "update-journal-drainer");
+		drainer.setDaemon(true);
+		drainer.start();
+		if (FSYNC_INTERVAL.equals(fsyncPolicy)) {
+			// independent of the drainer which can be blocked by the storage for a long time
+			fsyncThread = new Thread(this::fsyncLoop, "update-journal-fsync");
+			fsyncThread.setDaemon(true);
+			fsyncThread.start();
+		}
+		log.info("Journal started in: " + journalDir.getAbsolutePath() + " fsync policy: " + fsyncPolicy);
+	}
+
+	/**
+	 * Appends the update payload to the journal
+	 * @param payload JSON of a JobInstanceStatus
+	 * @throws IOException
+	 */
+	public void append(String payload) throws IOException {
+		byte[] data = payload.getBytes("UTF-8");
+		if (data.length + 2 * HEADER_SIZE > segmentSize) {
+			throw new IOException("Payload with " + data.length + " bytes exceeds the journal segment size: " + segmentSize);
+		}
+		CRC32 crc = new CRC32();
+		crc.update(data);
+		synchronized (this) {
+			if (running == false) {
+				throw new IllegalStateException("Journal is not running");
+			}
+			if (writeBuffer.remaining() < data.length + 2 * HEADER_SIZE) {
+				// leave space for the end marker of the segment
+				writeBuffer.putInt(writeBuffer.position(), END_OF_SEGMENT);
+				writeBuffer.force();
+				writeSegment++;
+				writeBuffer = mapSegment(writeSegment);
+			}
+			int pos = writeBuffer.position();
+			writeBuffer.putLong(pos + 4, crc.getValue());
+			writeBuffer.put(pos + HEADER_SIZE, data);
+			// the length must be written last because it marks the entry as complete
+			writeBuffer.putInt(pos, data.length);
+			writeBuffer.position(pos + HEADER_SIZE + data.length);
+			dirty = true;
+			if (FSYNC_ALWAYS.equals(fsyncPolicy)) {
+				writeBuffer.force();
+				dirty = false;
+			}
+			backlogGauge.inc();
+			notifyAll();
+		}
+	}
+
+	private void drain() {
+		while (running) {
+			try {
+				String payload = nextPayload();
+				if (payload == null) {
+					continue;
+				}
+				if (writeIntoStorage(payload)) {
+					commitReadPosition();
+				}
+			} catch (InterruptedException ie) {
+				break;
+			} catch (Exception e) {
+				log.error("Journal drainer failed: " + e.getMessage(), e);
+				sleep(retryIntervalMillis);
+			}
+		}
+	}
+
+	/**
+	 * Waits for the next entry
+	 * @return the payload of the next entry or null if there is no entry yet
+	 * @throws Exception
+	 */
+	private String nextPayload() throws Exception {
+		synchronized (this) {
+			if (readSegment == writeSegment && readBuffer.position() == writeBuffer.position()) {
+				wait(fsyncIntervalMillis);
+				if (readSegment == writeSegment && readBuffer.position() == writeBuffer.position()) {
+					return null;
+				}
+			}
+		}
+		int length = readBuffer.getInt(readBuffer.position());
+		if (length == END_OF_SEGMENT) {
+			long drainedSegment = readSegment;
+			readSegment++;
+			readBuffer = mapSegment(readSegment);
+			saveCheckpoint();
+			deleteSegment(drainedSegment);
+			return null;
+		}
+		byte[] data = new byte[length];
+		readBuffer.get(readBuffer.position() + HEADER_SIZE, data);
+		return new String(data, "UTF-8");
+	}
+
+	/**
+	 * Writes the entry into the storage.
+	 * Transient database and connection errors are retried until the storage accepts the entry,
+	 * entries which cannot be processed at all are skipped.
+	 * Replayed entries of jobs already ended are skipped, their update and counters were written before the crash.
+	 * @param payload
+	 * @return true if the entry is done
+	 * @throws InterruptedException
+	 */
+	private boolean writeIntoStorage(String payload) throws InterruptedException {
+		JobInstanceStatus status = null;
+		try {
+			status = objectMapper.readValue(payload, JobInstanceStatus.class);
+		} catch (Exception e) {
+			log.error("Journal entry cannot be parsed and will be skipped: " + payload + " error: " + e.getMessage());
+			drainedCounter.labels("skipped").inc();
+			return true;
+		}
+		try {
+			if (replayRemaining > 0) {
+				replayRemaining--;
+				JobInstanceStatus current = storage.getJobInstanceStatus(status.getJobInstanceId());
+				if (current != null && current.getStopDate() != null) {
+					log.info("Journal: replayed update of job_instance_id=" + status.getJobInstanceId() + " skipped, the job is already ended");
+					drainedCounter.labels("skipped").inc();
+					return true;
+				}
+			}
+			storage.updateEntry(status);
+			drainedCounter.labels("written").inc();
+			return true;
+		} catch (Exception e) {
+			if (isTransientError(e)) {
+				log.warn("Journal: update of job_instance_id=" + status.getJobInstanceId() + " failed, retry in " + retryIntervalMillis + "ms. Error: " + e.getMessage());
+				sleep(retryIntervalMillis);
+				return false;
+			} else {
+				log.error("Journal: update of job_instance_id=" + status.getJobInstanceId() + " failed and will be skipped: " + e.getMessage(), e);
+				drainedCounter.labels("skipped").inc();
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Data and constraint errors would fail again and block all following entries, they are not retried.
+	 * @param t
+	 * @return true for transient errors, connection errors and pool errors (SQLException without SQLState)
+	 */
+	static boolean isTransientError(Throwable t) {
+		while (t != null) {
+			if (t instanceof SQLTransientException || t instanceof SQLRecoverableException) {
+				return true;
+			}
+			if (t instanceof SQLException) {
+				String state = ((SQLException) t).getSQLState();
+				// 08: connection exception, 40: transaction rollback (deadlock, serialization failure)
+				if (state == null || state.startsWith("08") || state.startsWith("40")) {
+					return true;
+				}
+			}
+			t = t.getCause();
+		}
+		return false;
+	}
+
+	private void commitReadPosition() throws IOException {
+		int length = readBuffer.getInt(readBuffer.position());
+		readBuffer.position(readBuffer.position() + HEADER_SIZE + length);
+		saveCheckpoint();
+		backlogGauge.dec();
+	}
+
+	private void saveCheckpoint() {
+		checkpointBuffer.putInt(8, readBuffer.position());
+		checkpointBuffer.putLong(0, readSegment);
+		if (FSYNC_ALWAYS.equals(fsyncPolicy)) {
+			checkpointBuffer.force();
+		} else {
+			checkpointDirty = true;
+		}
+	}
+
+	/**
+	 * Forces the written entries and the checkpoint every fsyncIntervalMillis,
+	 * the checkpoint also if no new entries are written
+	 */
+	private void fsyncLoop() {
+		while (running) {
+			try {
+				Thread.sleep(fsyncIntervalMillis);
+			} catch (InterruptedException e) {
+				break;
+			}
+			synchronized (this) {
+				if (running == false) {
+					break;
+				}
+				try {
+					if (dirty) {
+						writeBuffer.force();
+						dirty = false;
+					}
+					if (checkpointDirty) {
+						checkpointBuffer.force();
+						checkpointDirty = false;
+					}
+				} catch (Exception e) {
+					log.error("Fsync journal failed: " + e.getMessage(), e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Checks the entry at the current position
+	 * @param buffer
+	 * @return length of the entry, 0 if there is no (complete) entry, -1 for the end of the segment
+	 */
+	private int validEntryLength(MappedByteBuffer buffer) {
+		int pos = buffer.position();
+		if (buffer.remaining() < HEADER_SIZE) {
+			return 0;
+		}
+		int length = buffer.getInt(pos);
+		if (length == END_OF_SEGMENT) {
+			return END_OF_SEGMENT;
+		}
+		if (length <= 0 || length > buffer.remaining() - HEADER_SIZE) {
+			return 0;
+		}
+		byte[] data = new byte[length];
+		buffer.get(pos + HEADER_SIZE, data);
+		CRC32 crc = new CRC32();
+		crc.update(data);
+		if (crc.getValue() != buffer.getLong(pos + 4)) {
+			log.warn("Journal: incomplete entry found in segment at position: " + pos + ". The entry will be overwritten.");
+			return 0;
+		}
+		return length;
+	}
+
+	private TreeSet<Long> listSegments() {
+		TreeSet<Long> segments = new TreeSet<>();
+		String[] names = journalDir.list();
+		if (names != null) {
+			for (String name : names) {
+				if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+					segments.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+				}
+			}
+		}
+		return segments;
+	}
+
+	private File getSegmentFile(long segment) {
+		return new File(journalDir, SEGMENT_PREFIX + String.format("%020d", segment) + SEGMENT_SUFFIX);
+	}
+
+	private MappedByteBuffer mapSegment(long segment) throws IOException {
+		return map(getSegmentFile(segment), segmentSize);
+	}
+
+	private MappedByteBuffer map(File file, int size) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			FileChannel channel = raf.getChannel();
+			long mappedSize = Math.max(size, channel.size());
+			return channel.map(MapMode.READ_WRITE, 0, mappedSize);
+		}
+	}
+
+	private void deleteSegment(long segment) {
+		File f = getSegmentFile(segment);
+		try {
+			Files.deleteIfExists(f.toPath());
+			log.debug("Journal segment: " + f.getName() + " drained and deleted");
+		} catch (IOException e) {
+			log.warn("Delete drained journal segment: " + f.getAbsolutePath() + " failed: " + e.getMessage());
+		}
+	}
+
+	private void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			running = false;
+		}
+	}
+
+	/**
+	 * Stops the drainer and flushes the journal. Not drained entries remain in the journal.
+	 */
+	public void stop() {
+		synchronized (this) {
+			if (running == false) {
+				return;
+			}
+			running = false;
+			notifyAll();
+		}
+		if (drainer != null) {
+			drainer.interrupt();
+			try {
+				drainer.join(5000);
+			} catch (InterruptedException e) {
+				// ignore
+			}
+		}
+		if (fsyncThread != null) {
+			fsyncThread.interrupt();
+			try {
+				fsyncThread.join(5000);
+			} catch (InterruptedException e) {
+				// ignore
+			}
+		}
+		synchronized (this) {
+			writeBuffer.force();
+			checkpointBuffer.force();
+		}
+		log.info("Journal stopped");
+	}
+
+	/**
+	 * @return true if all entries are drained
+	 */
+	public synchronized boolean isDrained() {
+		return readSegment == writeSegment && readBuffer.position() == writeBuffer.position();
+	}
+
+	public int getSegmentSize() {
+		return segmentSize;
+	}
+
+	public void setSegmentSize(Integer segmentSize) {
+		if (segmentSize != null && segmentSize > 1024) {
+			this.segmentSize = segmentSize;
+		}
+	}
+
+	public String getFsyncPolicy() {
+		return fsyncPolicy;
+	}
+
+	public void setFsyncPolicy(String fsyncPolicy) {
+		if (FSYNC_ALWAYS.equals(fsyncPolicy) || FSYNC_INTERVAL.equals(fsyncPolicy) || FSYNC_NEVER.equals(fsyncPolicy)) {
+			this.fsyncPolicy = fsyncPolicy;
+		} else if (fsyncPolicy != null && fsyncPolicy.isBlank() == false) {
+			throw new IllegalArgumentException("Unknown fsync policy: " + fsyncPolicy + ". Allowed: always, interval, never");
+		}
+	}
+
+	public long getFsyncIntervalMillis() {
+		return fsyncIntervalMillis;
+	}
+
+	public void setFsyncIntervalMillis(Long fsyncIntervalMillis) {
+		if (fsyncIntervalMillis != null && fsyncIntervalMillis > 0) {
+			this.fsyncIntervalMillis = fsyncIntervalMillis;
+		}
+	}
+
+	public long getRetryIntervalMillis() {
+		return retryIntervalMillis;
+	}
+
+	public void setRetryIntervalMillis(Long retryIntervalMillis) {
+		if (retryIntervalMillis != null && retryIntervalMillis > 0) {
+			this.retryIntervalMillis = retryIntervalMillis;
+		}
+	}
+
+}
@@ -0,0 +1,101 @@
+package de.cimt.talendcomp.jobinstanceservice;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * JMH benchmark of filter queries with every value as literal (the former way) against bind parameters and pooled statements.
+ * Run it with:
+ * mvn test-compile dependency:build-classpath -Dmdep.includeScope=test -Dmdep.outputFile=target/test-classpath.txt
+ * java -cp target/test-classes:target/classes:$(cat target/test-classpath.txt) org.openjdk.jmh.Main BindParametersBenchmark
+ * @author jan.lolling@gmail.com
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(1)
+public class BindParametersBenchmark {
+
+	private JDBCJobInstanceStorage storage = null;
+	private int i = 0;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		String url = TestJDBCJobInstanceStorage.createDatabase();
+		Properties props = new Properties();
+		props.setProperty("poolPreparedStatements", "true");
+		props.setProperty("maxOpenPreparedStatements", "50");
+		storage = TestJDBCJobInstanceStorage.createStorage(url, props);
+		for (int j = 0; j < 200; j++) {
+			storage.createEntry(TestJDBCJobInstanceStorage.createStatus("job" + j));
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		storage.close();
+	}
+
+	@Benchmark
+	public int queryWithLiterals() throws Exception {
+		i++;
+		// the same pool and transaction handling as the storage uses for the bind parameters,
+		// but every query is a new statement for the database
+		int count = 0;
+		try (Connection conn = storage.getReadConnection()) {
+			conn.setAutoCommit(false);
+			try (Statement stat = conn.createStatement()) {
+				stat.setFetchSize(1000);
+				try (ResultSet rs = stat.executeQuery("select JOB_INSTANCE_ID,JOB_STARTED_AT from JOB_INSTANCE_STATUS where 1=1 and JOB_NAME in ('job" + (10 + i % 190) + "','job" + (9 + i % 190) + "') and JOB_INSTANCE_ID > " + i % 7 + " order by JOB_STARTED_AT,JOB_INSTANCE_ID")) {
+					while (rs.next()) {
+						count++;
+					}
+				}
+			}
+			conn.commit();
+			conn.setAutoCommit(true);
+		}
+		return count;
+	}
+
+	@Benchmark
+	public List<Long> queryWithBindParameters() throws Exception {
+		i++;
+		JobInstanceFilter filter = new JobInstanceFilter();
+		filter.setIncludeJobNames("job" + (10 + i % 190) + ",job" + (9 + i % 190));
+		filter.setAfterJobInstanceId((long) (i % 7));
+		return storage.selectIds(filter);
+	}
+
+	public static void main(String[] args) throws Exception {
+		Options options = new OptionsBuilder()
+				.include(BindParametersBenchmark.class.getSimpleName())
+				.build();
+		new Runner(options).run();
+	}
+
+}
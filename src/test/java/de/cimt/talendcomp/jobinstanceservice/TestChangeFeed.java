@@ -0,0 +1,97 @@
+package de.cimt.talendcomp.jobinstanceservice;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class TestChangeFeed {
+
+	private static JobInstanceStatus createStatus(long jobInstanceId) {
+		JobInstanceStatus status = new JobInstanceStatus();
+		status.setJobInstanceId(jobInstanceId);
+		status.setName("job_" + jobInstanceId);
+		return status;
+	}
+
+	@Test
+	public void testReadInOrderAndOverwrite() throws Exception {
+		ObjectMapper objectMapper = new ObjectMapper();
+		ChangeFeed feed = new ChangeFeed(5, objectMapper);
+		AtomicInteger wakeups = new AtomicInteger();
+		Runnable subscriber = () -> wakeups.incrementAndGet();
+		feed.setMaxSubscribers(1);
+		assertTrue("subscribe failed", feed.subscribe(subscriber));
+		assertFalse("max subscribers not checked", feed.subscribe(() -> {}));
+		for (long id = 1; id <= 3; id++) {
+			feed.append(ChangeFeed.TYPE_CREATE, createStatus(id));
+		}
+		assertEquals("wrong number of wakeups", 3, wakeups.get());
+		List<ChangeFeed.Event> events = feed.read(0, 2);
+		assertEquals("limit not used", 2, events.size());
+		assertEquals("wrong first sequence", 1, events.get(0).getSequence());
+		events = feed.read(2, 100);
+		assertEquals("wrong number of events after 2", 1, events.size());
+		JsonNode node = objectMapper.readTree(events.get(0).getJson());
+		assertEquals("wrong sequence in json", 3, node.get("sequence").asLong());
+		assertEquals("wrong type in json", "create", node.get("type").asText());
+		assertEquals("wrong status in json", 3, node.get("status").get("job_instance_id").asLong());
+		assertTrue("no event expected", feed.read(3, 100).isEmpty());
+		feed.unsubscribe(subscriber);
+		// overwrite the sequences 1 to 3
+		for (long id = 4; id <= 8; id++) {
+			feed.append(ChangeFeed.TYPE_UPDATE, createStatus(id));
+		}
+		assertEquals("unsubscribed subscriber woken", 3, wakeups.get());
+		assertEquals("wrong first sequence", 4, feed.getFirstSequence());
+		assertEquals("wrong oldest event", 4, feed.read(0, 100).get(0).getSequence());
+		assertEquals("wrong events after 3", 5, feed.read(3, 100).size());
+		try {
+			feed.read(2, 100);
+			fail("overwritten events not detected");
+		} catch (ServiceException e) {
+			assertEquals("wrong code for overwritten events", 410, e.getStatusCode());
+		}
+		try {
+			feed.read(9, 100);
+			fail("unknown sequence not detected");
+		} catch (ServiceException e) {
+			assertEquals("wrong code for unknown sequence", 410, e.getStatusCode());
+		}
+	}
+
+	@Test
+	public void testCursorOfPreviousStart() throws Exception {
+		ObjectMapper objectMapper = new ObjectMapper();
+		ChangeFeed previous = new ChangeFeed(10, objectMapper);
+		Thread.sleep(5);
+		ChangeFeed feed = new ChangeFeed(10, objectMapper);
+		for (long id = 1; id <= 3; id++) {
+			feed.append(ChangeFeed.TYPE_CREATE, createStatus(id));
+		}
+		String cursor = feed.buildCursor(2);
+		assertEquals("wrong sequence of the cursor", 2, feed.parseCursor(cursor));
+		assertEquals("no cursor must start with the oldest event", 0, feed.parseCursor(null));
+		JsonNode node = objectMapper.readTree(feed.read(2, 10).get(0).getJson());
+		assertEquals("wrong epoch in json", feed.getEpoch(), node.get("epoch").asLong());
+		assertEquals("wrong sequence in json", 3, node.get("sequence").asLong());
+		// a consumer of the previous start resumes with a sequence the new feed has already reached
+		for (String old : new String[] {previous.buildCursor(1), "1"}) {
+			try {
+				feed.parseCursor(old);
+				fail("cursor of a previous start accepted: " + old);
+			} catch (ServiceException e) {
+				assertEquals("wrong code for a cursor of a previous start", 410, e.getStatusCode());
+			}
+		}
+	}
+
+}
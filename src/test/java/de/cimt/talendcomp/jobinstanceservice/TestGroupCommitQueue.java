@@ -0,0 +1,102 @@
+package de.cimt.talendcomp.jobinstanceservice;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class TestGroupCommitQueue {
+
+	private JobInstanceStatus createStatus(String guid) {
+		JobInstanceStatus s = new JobInstanceStatus();
+		s.setName("TestJob");
+		s.setGuid(guid);
+		s.setStartDate(new Date());
+		return s;
+	}
+
+	@Test
+	public void testBatchAndIndividualResults() throws Exception {
+		AtomicInteger nextId = new AtomicInteger(1000);
+		AtomicInteger maxBatchSize = new AtomicInteger(0);
+		GroupCommitQueue queue = new GroupCommitQueue("test", batch -> {
+			maxBatchSize.accumulateAndGet(batch.size(), Math::max);
+			for (GroupCommitQueue.Entry entry : batch) {
+				if (entry.getStatus().getGuid().startsWith("bad")) {
+					entry.fail(new Exception("failed: " + entry.getStatus().getGuid()));
+				} else {
+					entry.complete(nextId.incrementAndGet());
+				}
+			}
+		});
+		queue.setMaxBatchSize(20);
+		queue.setMaxLingerMillis(50l);
+		queue.start();
+		int countCalls = 100;
+		ExecutorService pool = Executors.newFixedThreadPool(countCalls);
+		List<Future<Long>> results = new ArrayList<>();
+		for (int i = 0; i < countCalls; i++) {
+			final String guid = (i % 10 == 0 ? "bad-" : "good-") + i;
+			results.add(pool.submit(() -> queue.submit(createStatus(guid))));
+		}
+		ConcurrentHashMap<Long, Boolean> ids = new ConcurrentHashMap<>();
+		int countErrors = 0;
+		for (Future<Long> f : results) {
+			try {
+				ids.put(f.get(), true);
+			} catch (Exception e) {
+				assertTrue("wrong error: " + e.getMessage(), e.getCause().getMessage().startsWith("failed: bad-"));
+				countErrors++;
+			}
+		}
+		pool.shutdown();
+		queue.stop();
+		assertEquals("wrong number of errors", 10, countErrors);
+		assertEquals("ids not unique", countCalls - 10, ids.size());
+		assertTrue("no batch with more than one entry", maxBatchSize.get() > 1);
+		assertTrue("batch size exceeded", maxBatchSize.get() <= 20);
+	}
+
+	@Test
+	public void testSubmitWhileStopping() throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(16);
+		for (int round = 0; round < 20; round++) {
+			GroupCommitQueue queue = new GroupCommitQueue("test", batch -> {
+				for (GroupCommitQueue.Entry entry : batch) {
+					entry.complete(1);
+				}
+			});
+			queue.setMaxLingerMillis(1l);
+			queue.start();
+			List<Future<Long>> results = new ArrayList<>();
+			for (int i = 0; i < 200; i++) {
+				final String guid = "guid-" + i;
+				results.add(pool.submit(() -> queue.submit(createStatus(guid))));
+				if (i == 100) {
+					queue.stop();
+				}
+			}
+			for (Future<Long> f : results) {
+				try {
+					f.get(10, TimeUnit.SECONDS);
+				} catch (ExecutionException e) {
+					assertTrue("wrong error: " + e.getCause(), e.getCause() instanceof IllegalStateException);
+				}
+				// a TimeoutException means a call hangs forever
+			}
+		}
+		pool.shutdown();
+	}
+
+}
@@ -0,0 +1,873 @@
+package de.cimt.talendcomp.jobinstanceservice;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Test;
+
+public class TestJDBCJobInstanceStorage {
+
+	private JDBCJobInstanceStorage storage = null;
+	private String url = null;
+
+	static String createDatabase() throws Exception {
+		String url = "jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1";
+		try (Connection conn = DriverManager.getConnection(url, "sa", "")) {
+			Statement stat = conn.createStatement();
+			stat.execute("create table JOB_INSTANCE_STATUS ("
+					+ "JOB_INSTANCE_ID bigint auto_increment primary key,"
+					+ "PROCESS_INSTANCE_ID bigint,"
+					+ "PROCESS_INSTANCE_NAME varchar(255),"
+					+ "JOB_NAME varchar(255) not null,"
+					+ "JOB_PROJECT varchar(255),"
+					+ "JOB_DISPLAY_NAME varchar(255),"
+					+ "JOB_GUID varchar(100) not null,"
+					+ "JOB_EXT_ID varchar(255),"
+					+ "JOB_INFO varchar(255),"
+					+ "ROOT_JOB_GUID varchar(100),"
+					+ "WORK_ITEM varchar(1024),"
+					+ "TIME_RANGE_START timestamp,"
+					+ "TIME_RANGE_END timestamp,"
+					+ "VALUE_RANGE_START varchar(512),"
+					+ "VALUE_RANGE_END varchar(512),"
+					+ "JOB_STARTED_AT timestamp not null,"
+					+ "JOB_ENDED_AT timestamp,"
+					+ "JOB_RESULT varchar(1024),"
+					+ "COUNT_INPUT integer,"
+					+ "COUNT_OUTPUT integer,"
+					+ "COUNT_UPDATED integer,"
+					+ "COUNT_REJECTED integer,"
+					+ "COUNT_DELETED integer,"
+					+ "RETURN_CODE integer,"
+					+ "RETURN_MESSAGE varchar(1024),"
+					+ "HOST_NAME varchar(255),"
+					+ "HOST_PID integer,"
+					+ "HOST_USER varchar(255))");
+			stat.execute("create table JOB_INSTANCE_COUNTERS ("
+					+ "JOB_INSTANCE_ID bigint not null,"
+					+ "COUNTER_NAME varchar(128) not null,"
+					+ "COUNTER_TYPE varchar(64) not null,"
+					+ "COUNTER_VALUE integer)");
+			stat.close();
+		}
+		return url;
+	}
+
+	private JDBCJobInstanceStorage createStorage(Properties additionalProperties) throws Exception {
+		url = createDatabase();
+		storage = createStorage(url, additionalProperties);
+		return storage;
+	}
+
+	static JDBCJobInstanceStorage createStorage(String url, Properties additionalProperties) throws Exception {
+		Properties props = new Properties();
+		props.setProperty("url", url);
+		props.setProperty("username", "sa");
+		props.setProperty("password", "");
+		props.setProperty("driverClassName", "org.h2.Driver");
+		props.setProperty("defaultAutoCommit", "true");
+		props.setProperty("initialSize", "0");
+		props.setProperty("maxTotal", "4");
+		props.setProperty("maxIdle", "4");
+		props.setProperty("maxWaitMillis", "5000");
+		props.setProperty("connectionInitSqls", "");
+		props.setProperty("minEvictableIdleTimeMillis", "60000");
+		props.setProperty("timeBetweenEvictionRunsMillis", "60000");
+		if (additionalProperties != null) {
+			props.putAll(additionalProperties);
+		}
+		File f = File.createTempFile("dbcp", ".properties");
+		f.deleteOnExit();
+		try (FileWriter fw = new FileWriter(f)) {
+			props.store(fw, null);
+		}
+		JDBCJobInstanceStorage storage = new JDBCJobInstanceStorage();
+		storage.initialize(f.getAbsolutePath());
+		return storage;
+	}
+
+	@After
+	public void closeStorage() {
+		if (storage != null) {
+			storage.close();
+			storage = null;
+		}
+	}
+
+	static JobInstanceStatus createStatus(String jobName) {
+		JobInstanceStatus s = new JobInstanceStatus();
+		s.setName(jobName);
+		s.setGuid(UUID.randomUUID().toString());
+		s.setStartDate(new Date());
+		s.setHostName("localhost");
+		return s;
+	}
+
+	private JobInstanceStatus createEndStatus(long jobInstanceId) {
+		JobInstanceStatus s = new JobInstanceStatus();
+		s.setJobInstanceId(jobInstanceId);
+		s.setStopDate(new Date());
+		s.setReturnCode(0);
+		s.setCountInput(10);
+		s.setCountOutput(5);
+		s.addJobDetailCounter(new JobDetailCounter("counter1", "input", 10));
+		s.addJobDetailCounter(new JobDetailCounter("counter2", "output", 5));
+		return s;
+	}
+
+	private int countRows(String sql) throws Exception {
+		try (Connection conn = DriverManager.getConnection(url, "sa", "")) {
+			Statement stat = conn.createStatement();
+			ResultSet rs = stat.executeQuery(sql);
+			rs.next();
+			int count = rs.getInt(1);
+			rs.close();
+			stat.close();
+			return count;
+		}
+	}
+
+	@Test
+	public void testCreateAndUpdate() throws Exception {
+		createStorage(null);
+		JobInstanceStatus s = createStatus("job1");
+		long id = storage.createEntry(s);
+		assertTrue("no job_instance_id", id > 0);
+		storage.updateEntry(createEndStatus(id));
+		JobInstanceStatus actual = storage.getJobInstanceStatus(id);
+		assertEquals("wrong job name", "job1", actual.getName());
+		assertEquals("wrong count_input", 10, actual.getCountInput().intValue());
+		assertTrue("not ended", actual.getStopDate() != null);
+		assertEquals("wrong number of counters", 2, countRows("select count(*) from JOB_INSTANCE_COUNTERS where JOB_INSTANCE_ID=" + id));
+	}
+
+	@Test
+	public void testUpdateWithoutReturnCode() throws Exception {
+		createStorage(null);
+		long id = storage.createEntry(createStatus("job1"));
+		JobInstanceStatus end = new JobInstanceStatus();
+		end.setJobInstanceId(id);
+		end.setStopDate(new Date());
+		try {
+			storage.updateEntry(end);
+			fail("update without return_code accepted");
+		} catch (Exception e) {
+			assertTrue("wrong error: " + e.getMessage(), e.getMessage().contains("return_code"));
+		}
+		assertNull("job ended without return_code", storage.getJobInstanceStatus(id).getStopDate());
+	}
+
+	@Test
+	public void testStatusCacheWriteThrough() throws Exception {
+		createStorage(null);
+		long id = storage.createEntry(createStatus("job1"));
+		storage.updateEntry(createEndStatus(id));
+		// changes in the database are not visible through the cache
+		try (Connection conn = DriverManager.getConnection(url, "sa", "")) {
+			Statement stat = conn.createStatement();
+			stat.executeUpdate("update JOB_INSTANCE_STATUS set COUNT_INPUT=99");
+			stat.close();
+		}
+		JobInstanceStatus cached = storage.getJobInstanceStatus(id);
+		assertEquals("wrong count_input", 10, cached.getCountInput().intValue());
+		assertEquals("wrong job name", "job1", cached.getName());
+		assertTrue("not ended", cached.getStopDate() != null);
+		// running entries are read from the database, the end could be written by another service
+		long runningId = storage.createEntry(createStatus("job1"));
+		try (Connection conn = DriverManager.getConnection(url, "sa", "")) {
+			Statement stat = conn.createStatement();
+			stat.executeUpdate("update JOB_INSTANCE_STATUS set JOB_ENDED_AT=current_timestamp where JOB_INSTANCE_ID=" + runningId);
+			stat.close();
+		}
+		assertTrue("end written by another service not visible", storage.getJobInstanceStatus(runningId).getStopDate() != null);
+	}
+
+	@Test
+	public void testResolveRootJob() throws Exception {
+		createStorage(null);
+		JobInstanceStatus root = createStatus("root");
+		long rootId = storage.createEntry(root);
+		JobInstanceStatus child = createStatus("child");
+		child.setRootJobGuid(root.getGuid());
+		child.setParentJobGuid(root.getGuid());
+		storage.createEntry(child);
+		assertEquals("wrong root job_instance_id", rootId, child.getProcessInstanceId());
+		JobInstanceStatus grandChild = createStatus("grand-child");
+		grandChild.setRootJobGuid("unknown");
+		grandChild.setParentJobGuid(child.getGuid());
+		storage.createEntry(grandChild);
+		assertEquals("wrong parent job_instance_id", child.getJobInstanceId(), grandChild.getProcessInstanceId());
+	}
+
+	@Test
+	public void testKeysetPagination() throws Exception {
+		createStorage(null);
+		List<Long> expected = new ArrayList<>();
+		Date startedAt = new Date();
+		for (int i = 0; i < 25; i++) {
+			JobInstanceStatus s = createStatus("job" + (i % 3));
+			// some entries share the same start time
+			s.setStartDate(new Date(startedAt.getTime() + (i / 2) * 1000l));
+			expected.add(storage.createEntry(s));
+		}
+		List<Long> actual = new ArrayList<>();
+		JobInstanceFilter filter = new JobInstanceFilter();
+		filter.setLimit(10);
+		int countPages = 0;
+		while (true) {
+			List<Long> page = new ArrayList<>();
+			String cursor = storage.selectIds(filter, page::add);
+			actual.addAll(page);
+			countPages++;
+			if (page.size() < filter.getLimit()) {
+				break;
+			}
+			filter.setCursor(cursor);
+		}
+		assertEquals("wrong number of pages", 3, countPages);
+		assertEquals("wrong ids", expected, actual);
+		filter = new JobInstanceFilter();
+		filter.setIncludeJobNames("job1, job2");
+		assertEquals("wrong number of objects", 16, storage.selectObjects(filter).size());
+	}
+
+	@Test
+	public void testCreateWithSequenceAndGeneratedJID() throws Exception {
+		Properties props = new Properties();
+		props.setProperty("connectionInitSqls", "create sequence if not exists JID_SEQ start with 1000");
+		props.setProperty("autoIncrementColumn", "false");
+		props.setProperty("sequenceExpression", "next value for JID_SEQ");
+		createStorage(props);
+		long id = storage.createEntry(createStatus("job1"));
+		assertEquals("job_instance_id not taken from the sequence", 1000, id);
+		storage.updateEntry(createEndStatus(id));
+		assertEquals("wrong job_instance_id", id, storage.getJobInstanceIdByJobGuid(storage.getJobInstanceStatus(id).getGuid()));
+		closeStorage();
+		props = new Properties();
+		props.setProperty("useGeneratedJID", "true");
+		createStorage(props);
+		long jid1 = storage.createEntry(createStatus("job1"));
+		long jid2 = storage.createEntry(createStatus("job1"));
+		assertTrue("generated job_instance_id not increasing", jid2 > jid1);
+		assertEquals("wrong job_instance_id", jid2, storage.getJobInstanceStatus(jid2).getJobInstanceId());
+	}
+
+	@Test
+	public void testBatchCreateAndUpdate() throws Exception {
+		createStorage(null);
+		JobInstanceStatus root = createStatus("root");
+		long rootId = storage.createEntry(root);
+		List<JobInstanceStatus> children = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			JobInstanceStatus child = createStatus("child" + i);
+			child.setRootJobGuid(root.getGuid());
+			child.setParentJobGuid(root.getGuid());
+			children.add(child);
+		}
+		// invalid entry without job guid
+		children.get(5).setGuid(null);
+		List<Exception> errors = storage.createEntries(children);
+		assertEquals(10, errors.size());
+		for (int i = 0; i < 10; i++) {
+			if (i == 5) {
+				assertTrue("invalid entry not rejected", errors.get(i) != null);
+			} else {
+				assertTrue("entry " + i + " failed: " + errors.get(i), errors.get(i) == null);
+				assertTrue("no job_instance_id", children.get(i).getJobInstanceId() > rootId);
+				assertEquals("root not resolved", rootId, children.get(i).getProcessInstanceId());
+				assertEquals("wrong entry", "child" + i, storage.getJobInstanceStatus(children.get(i).getJobInstanceId()).getName());
+			}
+		}
+		List<JobInstanceStatus> updates = new ArrayList<>();
+		updates.add(createEndStatus(children.get(0).getJobInstanceId()));
+		updates.add(createEndStatus(999999));
+		updates.add(createEndStatus(children.get(1).getJobInstanceId()));
+		errors = storage.updateEntries(updates);
+		assertTrue("update failed", errors.get(0) == null);
+		assertTrue("missing entry not reported", errors.get(1) != null);
+		assertTrue("update failed", errors.get(2) == null);
+		assertEquals(5, storage.getJobInstanceStatus(children.get(1).getJobInstanceId()).getCountOutput().intValue());
+	}
+
+	@Test
+	public void testMultiGet() throws Exception {
+		createStorage(null);
+		List<Long> ids = new ArrayList<>();
+		for (int i = 0; i < 1200; i++) {
+			long id = storage.createEntry(createStatus("job" + i));
+			if (i % 2 == 0) {
+				storage.updateEntry(createEndStatus(id));
+			}
+			ids.add(id);
+		}
+		List<Long> requested = new ArrayList<>(ids);
+		Collections.reverse(requested);
+		requested.add(5, 999999l);
+		List<JobInstanceStatus> result = new ArrayList<>();
+		storage.getJobInstanceStatuses(requested, result::add);
+		assertEquals("missing id not skipped", ids.size(), result.size());
+		for (int i = 0; i < result.size(); i++) {
+			assertEquals("wrong order", ids.get(ids.size() - 1 - i).longValue(), result.get(i).getJobInstanceId());
+		}
+	}
+
+	@Test
+	public void testSelectWithCounters() throws Exception {
+		createStorage(null);
+		for (int i = 0; i < 600; i++) {
+			long id = storage.createEntry(createStatus("job1"));
+			if (i % 3 > 0) {
+				storage.updateEntry(createEndStatus(id));
+			}
+		}
+		JobInstanceFilter filter = new JobInstanceFilter();
+		List<JobInstanceStatus> withoutCounters = storage.selectObjects(filter);
+		assertEquals(600, withoutCounters.size());
+		assertTrue("counters loaded without with_counters", withoutCounters.get(1).getCounters() == null);
+		filter.setWithCounters(true);
+		List<JobInstanceStatus> result = storage.selectObjects(filter);
+		assertEquals(600, result.size());
+		for (JobInstanceStatus s : result) {
+			int expected = s.getStopDate() != null ? 2 : 0;
+			assertEquals("wrong number of counters for " + s.getJobInstanceId(), expected, s.getCounters().size());
+		}
+		// the rows are read in chunks, the limit and the order must be the same as without chunks
+		filter.setLimit(520);
+		List<JobInstanceStatus> page = new ArrayList<>();
+		String cursor = storage.selectObjects(filter, page::add);
+		assertEquals("wrong page size", 520, page.size());
+		for (int i = 0; i < page.size(); i++) {
+			assertEquals("wrong order in chunks", result.get(i).getJobInstanceId(), page.get(i).getJobInstanceId());
+		}
+		assertEquals("wrong cursor", JobInstanceFilter.buildCursor(page.get(519).getStartDate(), page.get(519).getJobInstanceId()), cursor);
+		JobInstanceStatus single = storage.getJobInstanceStatus(result.get(1).getJobInstanceId());
+		storage.loadCounters(Collections.singletonList(single));
+		assertEquals("counter1", single.getCounters().get(0).getName());
+	}
+
+	@Test
+	public void testAccumulateCounters() throws Exception {
+		Properties props = new Properties();
+		props.setProperty("counterFlushIntervalMillis", "50");
+		createStorage(props);
+		long id = storage.createEntry(createStatus("job1"));
+		int threads = 8;
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Future<?>> futures = new ArrayList<>();
+		for (int t = 0; t < threads; t++) {
+			futures.add(executor.submit(() -> {
+				for (int i = 0; i < 1000; i++) {
+					List<JobDetailCounter> increments = new ArrayList<>();
+					increments.add(new JobDetailCounter("progress", "input", 1));
+					storage.accumulateCounters(id, increments);
+				}
+				return null;
+			}));
+		}
+		for (Future<?> f : futures) {
+			f.get();
+		}
+		executor.shutdown();
+		Thread.sleep(300);
+		String sql = "select sum(COUNTER_VALUE) from JOB_INSTANCE_COUNTERS where COUNTER_NAME='progress' and JOB_INSTANCE_ID=" + id;
+		assertEquals("wrong total after periodic flush", 8000, countRows(sql));
+		List<JobDetailCounter> increments = new ArrayList<>();
+		increments.add(new JobDetailCounter("progress", "input", 5));
+		storage.accumulateCounters(id, increments);
+		// the end of the job writes the remaining totals
+		storage.updateEntry(createEndStatus(id));
+		assertEquals("wrong total after job end", 8005, countRows(sql));
+		assertEquals("counter not updated", 1, countRows("select count(*) from JOB_INSTANCE_COUNTERS where COUNTER_NAME='progress'"));
+		assertEquals("end counters missing", 3, countRows("select count(*) from JOB_INSTANCE_COUNTERS where JOB_INSTANCE_ID=" + id));
+	}
+
+	@Test
+	public void testAccumulatedCountersWithFinalCounterNames() throws Exception {
+		Properties props = new Properties();
+		props.setProperty("counterFlushIntervalMillis", "50");
+		createStorage(props);
+		long flushedId = storage.createEntry(createStatus("job1"));
+		long notFlushedId = storage.createEntry(createStatus("job1"));
+		for (long id : List.of(flushedId, notFlushedId)) {
+			List<JobDetailCounter> increments = new ArrayList<>();
+			// same name and type as a final counter of createEndStatus
+			increments.add(new JobDetailCounter("counter1", "input", 7));
+			increments.add(new JobDetailCounter("progress", "input", 3));
+			storage.accumulateCounters(id, increments);
+		}
+		// the totals of the first job are written by the periodic flush before the end of the job
+		Thread.sleep(300);
+		storage.updateEntry(createEndStatus(flushedId));
+		storage.updateEntry(createEndStatus(notFlushedId));
+		Thread.sleep(300);
+		for (long id : List.of(flushedId, notFlushedId)) {
+			assertEquals("duplicate counter rows", 1, countRows("select count(*) from JOB_INSTANCE_COUNTERS where COUNTER_NAME='counter1' and JOB_INSTANCE_ID=" + id));
+			assertEquals("final counter overwritten", 10, countRows("select COUNTER_VALUE from JOB_INSTANCE_COUNTERS where COUNTER_NAME='counter1' and JOB_INSTANCE_ID=" + id));
+			assertEquals("accumulated counter missing", 3, countRows("select COUNTER_VALUE from JOB_INSTANCE_COUNTERS where COUNTER_NAME='progress' and JOB_INSTANCE_ID=" + id));
+			assertEquals("wrong number of counters", 3, countRows("select count(*) from JOB_INSTANCE_COUNTERS where JOB_INSTANCE_ID=" + id));
+		}
+		try {
+			storage.accumulateCounters(flushedId, List.of(new JobDetailCounter("counter1", "input", 1)));
+			fail("increment of an ended job accepted");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testRetentionPurge() throws Exception {
+		Properties props = new Properties();
+		props.setProperty("retentionDays", "30");
+		props.setProperty("retentionDays.short_job", "1");
+		props.setProperty("retentionDays.keep_job", "0");
+		props.setProperty("retentionRunningDays", "300");
+		props.setProperty("purgeChunkSize", "3");
+		props.setProperty("purgeChunkPauseMillis", "0");
+		props.setProperty("runningIndexEnabled", "true");
+		createStorage(props);
+		long day = 86400000l;
+		long now = System.currentTimeMillis();
+		List<Long> kept = new ArrayList<>();
+		List<String> purgedGuids = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			JobInstanceStatus old = createStatus(i % 2 == 0 ? "job1" : "short_job");
+			old.setStartDate(new Date(now - 40 * day));
+			long id = storage.createEntry(old);
+			storage.updateEntry(createEndStatus(id));
+			purgedGuids.add(old.getGuid());
+			// running jobs are kept also after their retention
+			JobInstanceStatus recent = createStatus(i % 2 == 0 ? "job1" : "short_job");
+			recent.setStartDate(new Date(now - 5 * day));
+			kept.add(storage.createEntry(recent));
+			JobInstanceStatus keep = createStatus("keep_job");
+			keep.setStartDate(new Date(now - 400 * day));
+			kept.add(storage.createEntry(keep));
+		}
+		JobInstanceStatus running = createStatus("job1");
+		running.setStartDate(new Date(now - 40 * day));
+		kept.add(storage.createEntry(running));
+		JobInstanceStatus stale = createStatus("job1");
+		stale.setStartDate(new Date(now - 400 * day));
+		storage.createEntry(stale);
+		purgedGuids.add(stale.getGuid());
+		assertEquals(22, storage.selectIds(runningFilter()).size());
+		assertEquals("wrong number of purged jobs", 11, storage.getRetentionPurger().purge());
+		assertEquals("counters of purged jobs not deleted", 0, countRows("select count(*) from JOB_INSTANCE_COUNTERS"));
+		List<Long> remaining = storage.selectIds(new JobInstanceFilter());
+		Collections.sort(remaining);
+		Collections.sort(kept);
+		assertEquals(kept, remaining);
+		assertEquals("purged job still in the running index", 21, storage.selectIds(runningFilter()).size());
+		for (String guid : purgedGuids) {
+			JobInstanceStatus child = createStatus("child_job");
+			child.setRootJobGuid(guid);
+			storage.createEntry(child);
+			assertEquals("guid of a purged root job still resolved", 0, child.getProcessInstanceId());
+		}
+	}
+
+	private JobInstanceFilter runningFilter() {
+		JobInstanceFilter filter = new JobInstanceFilter();
+		filter.setRunning(true);
+		return filter;
+	}
+
+	private void checkTimeWindow() throws Exception {
+		long t0 = System.currentTimeMillis();
+		List<Long> ids = new ArrayList<>();
+		for (long offset : new long[] {-5000, 0, 5000}) {
+			JobInstanceStatus s = createStatus("job1");
+			s.setStartDate(new Date(t0 + offset));
+			ids.add(storage.createEntry(s));
+		}
+		JobInstanceFilter filter = new JobInstanceFilter();
+		filter.setStartedAfter(new Date(t0));
+		filter.setStartedBefore(new Date(t0 + 5000));
+		assertEquals(Collections.singletonList(ids.get(1)), storage.selectIds(filter));
+		filter.setStartedBefore(null);
+		assertEquals(ids.subList(1, 3), storage.selectIds(filter));
+		filter.setRunning(true);
+		assertEquals("wrong result from the running index", ids.subList(1, 3), storage.selectIds(filter));
+		filter = new JobInstanceFilter();
+		filter.setStartedBefore(new Date(t0));
+		assertEquals(ids.subList(0, 1), storage.selectIds(filter));
+	}
+
+	@Test
+	public void testTimeWindow() throws Exception {
+		createStorage(null);
+		checkTimeWindow();
+		closeStorage();
+		Properties props = new Properties();
+		props.setProperty("useGeneratedJID", "true");
+		createStorage(props);
+		checkTimeWindow();
+	}
+
+	private int countMissing(List<SchemaVerifier.IndexCheck> checks) {
+		int missing = 0;
+		for (SchemaVerifier.IndexCheck check : checks) {
+			if (check.isReady() == false) {
+				missing++;
+			}
+		}
+		return missing;
+	}
+
+	@Test
+	public void testSchemaVerifier() throws Exception {
+		createStorage(null);
+		List<SchemaVerifier.IndexCheck> checks = storage.verifySchema(false);
+		assertEquals("wrong number of checks", 6, checks.size());
+		// only the primary key exists in the test database
+		assertEquals("wrong number of missing indexes", 5, countMissing(checks));
+		try (Connection conn = DriverManager.getConnection(url, "sa", "")) {
+			conn.createStatement().execute("create index WRONG_ORDER_IX on JOB_INSTANCE_STATUS (JOB_STARTED_AT, JOB_NAME)");
+		}
+		checks = storage.verifySchema(false);
+		assertTrue("index with wrong column order not reported", checks.get(3).getProblem().contains("WRONG_ORDER_IX"));
+		assertEquals("wrong number of missing indexes after creation", 0, countMissing(storage.verifySchema(true)));
+		closeStorage();
+		Properties props = new Properties();
+		props.setProperty("createMissingIndexes", "true");
+		createStorage(props);
+		assertEquals("indexes not created at startup", 0, countMissing(storage.verifySchema(false)));
+	}
+
+	@Test
+	public void testEndedListener() throws Exception {
+		createStorage(null);
+		List<JobInstanceStatus> ended = new ArrayList<>();
+		storage.addListener(ended::add);
+		JobInstanceStatus s = createStatus("job1");
+		long id = storage.createEntry(s);
+		assertTrue("listener called by create", ended.isEmpty());
+		storage.updateEntry(createEndStatus(id));
+		assertEquals("listener not called", 1, ended.size());
+		assertEquals("start attributes missing", "job1", ended.get(0).getName());
+		assertEquals("end attributes missing", 10, ended.get(0).getCountInput().intValue());
+		assertTrue("end date missing", ended.get(0).getStopDate() != null);
+		JobStatistics stats = new JobStatistics();
+		assertEquals("wrong number of rebuilt jobs", 1, stats.rebuild(storage, 1));
+	}
+
+	@Test
+	public void testLastSuccessfulRuns() throws Exception {
+		createStorage(null);
+		long t0 = System.currentTimeMillis() - 10000;
+		long[] ids = new long[4];
+		for (int i = 0; i < ids.length; i++) {
+			JobInstanceStatus s = createStatus("job1");
+			s.setWorkItem(i < 3 ? "wi1" : null);
+			s.setStartDate(new Date(t0 + i * 1000));
+			ids[i] = storage.createEntry(s);
+		}
+		storage.updateEntry(createEndStatus(ids[0]));
+		// outside of the look-back window
+		JobInstanceStatus old = createStatus("job2");
+		old.setStartDate(new Date(t0 - 2 * 86400000l));
+		storage.updateEntry(createEndStatus(storage.createEntry(old)));
+		LastSuccessfulRuns lastRuns = new LastSuccessfulRuns();
+		assertEquals("wrong number of rebuilt runs", 1, lastRuns.rebuild(storage, 1));
+		assertNull("run outside of the window taken", lastRuns.get("job2", null));
+		storage.addListener(lastRuns);
+		assertEquals(ids[0], lastRuns.get("job1", "wi1").getJobInstanceId());
+		// the younger run ends first, the older run must not replace it
+		storage.updateEntry(createEndStatus(ids[2]));
+		storage.updateEntry(createEndStatus(ids[1]));
+		assertEquals(ids[2], lastRuns.get("job1", "wi1").getJobInstanceId());
+		lastRuns.get("job1", "wi1").addJobDetailCounter(new JobDetailCounter("counter1", "input", 10));
+		assertNull("shared entry changed by the caller", lastRuns.get("job1", "wi1").getCounters());
+		JobInstanceStatus failed = createEndStatus(ids[3]);
+		failed.setReturnCode(1);
+		storage.updateEntry(failed);
+		assertNull("failed run taken", lastRuns.get("job1", null));
+		assertNull("unknown job found", lastRuns.get("job2", "wi1"));
+	}
+
+	@Test
+	public void testCompletionWatcher() throws Exception {
+		createStorage(null);
+		JobCompletionWatcher watcher = new JobCompletionWatcher();
+		storage.addListener(watcher);
+		long id1 = storage.createEntry(createStatus("job1"));
+		long id2 = storage.createEntry(createStatus("job1"));
+		List<JobInstanceStatus> woken = new ArrayList<>();
+		JobCompletionWatcher.Watch w1 = watcher.watch(id1, woken::add);
+		JobCompletionWatcher.Watch w2 = watcher.watch(id2, woken::add);
+		assertEquals("wrong number of waiters", 2, watcher.size());
+		assertTrue("timed out watch must be cancelable", w2.cancel());
+		assertTrue("cancelled watch still registered", watcher.isInterested(id2) == false);
+		storage.updateEntry(createEndStatus(id2));
+		assertTrue("cancelled watch woken", woken.isEmpty());
+		storage.updateEntry(createEndStatus(id1));
+		assertEquals("waiter not woken", 1, woken.size());
+		assertEquals(id1, woken.get(0).getJobInstanceId());
+		assertTrue("end date missing", woken.get(0).getStopDate() != null);
+		assertTrue("woken watch must not be cancelable", w1.cancel() == false);
+		assertEquals("waiters not removed", 0, watcher.size());
+	}
+
+	@Test
+	public void testCreateWithIdBlocks() throws Exception {
+		Properties props = new Properties();
+		props.setProperty("connectionInitSqls", "create sequence if not exists JID_SEQ start with 10");
+		props.setProperty("autoIncrementColumn", "false");
+		props.setProperty("sequenceExpression", "next value for JID_SEQ");
+		props.setProperty("idBlockSize", "100");
+		createStorage(props);
+		long id1 = storage.createEntry(createStatus("job1"));
+		assertEquals("job_instance_id not taken from the block", 1000, id1);
+		// the same guid must not mix up the ids
+		JobInstanceStatus s2 = createStatus("job1");
+		s2.setGuid(storage.getJobInstanceStatus(id1).getGuid());
+		long id2 = storage.createEntry(s2);
+		assertEquals("job_instance_id not taken from the block", 1001, id2);
+		for (int i = 0; i < 150; i++) {
+			storage.createEntry(createStatus("job1"));
+		}
+		long id3 = storage.createEntry(createStatus("job1"));
+		assertEquals("next block not reserved", 1152, id3);
+		try (Connection conn = DriverManager.getConnection(url, "sa", "")) {
+			ResultSet rs = conn.createStatement().executeQuery("select next value for JID_SEQ");
+			rs.next();
+			assertEquals("more than 2 blocks reserved", 12, rs.getLong(1));
+		}
+	}
+
+	@Test
+	public void testReadReplicaRouting() throws Exception {
+		// an empty replica shows which database answers the query
+		Properties props = new Properties();
+		props.setProperty("replica.url", createDatabase());
+		props.setProperty("replica.maxTotal", "2");
+		props.setProperty("readYourWritesMillis", "60000");
+		props.setProperty("statusCacheMaxEntries", "0");
+		createStorage(props);
+		long id = storage.createEntry(createStatus("job1"));
+		assertTrue("entry just written not read from the primary", storage.getJobInstanceStatus(id) != null);
+		assertTrue("query not sent to the replica", storage.selectIds(new JobInstanceFilter()).isEmpty());
+		closeStorage();
+		props.setProperty("readYourWritesMillis", "0");
+		createStorage(props);
+		id = storage.createEntry(createStatus("job1"));
+		assertTrue("read not sent to the replica", storage.getJobInstanceStatus(id) == null);
+	}
+
+	@Test
+	public void testFilterWithBindParameters() throws Exception {
+		createStorage(null);
+		List<Long> ids = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			JobInstanceStatus s = createStatus("job" + (i % 2));
+			s.setWorkItem("item'" + (i % 5));
+			ids.add(storage.createEntry(s));
+		}
+		storage.updateEntry(createEndStatus(ids.get(2)));
+		JobInstanceFilter filter = new JobInstanceFilter();
+		filter.setIncludeJobNames("job0,job1");
+		filter.setWorkItem("item'2");
+		filter.setAfterJobInstanceId(ids.get(0));
+		assertEquals("wrong ids", List.of(ids.get(2), ids.get(7)), storage.selectIds(filter));
+		filter.setRunning(false);
+		filter.setReturnCode(0);
+		assertEquals("wrong ids with return code", List.of(ids.get(2)), storage.selectIds(filter));
+		filter = new JobInstanceFilter();
+		filter.setExcludeJobName("job0");
+		filter.setBeforeJobInstanceId(ids.get(5));
+		assertEquals("wrong ids with exclude", List.of(ids.get(1), ids.get(3)), storage.selectIds(filter));
+	}
+
+	@Test
+	public void testEmbeddedStorageSameResults() throws Exception {
+		createStorage(null);
+		File dir = Files.createTempDirectory("embedded").toFile();
+		LogJobInstanceStorage embedded = new LogJobInstanceStorage();
+		embedded.setDataDir(dir.getAbsolutePath());
+		embedded.open();
+		try {
+			Date startedAt = new Date();
+			for (int i = 0; i < 30; i++) {
+				for (JobInstanceStorage s : List.<JobInstanceStorage>of(storage, embedded)) {
+					JobInstanceStatus status = createStatus("job" + (i % 3));
+					status.setStartDate(new Date(startedAt.getTime() + (i / 3) * 1000l));
+					status.setWorkItem("item" + (i % 2));
+					status.setTaskName("task" + (i % 4));
+					long id = s.createEntry(status);
+					if (i % 3 != 0) {
+						JobInstanceStatus end = createEndStatus(id);
+						end.setReturnCode(i % 5 == 0 ? 1 : 0);
+						end.setCountInput(i % 2);
+						end.setCountOutput(0);
+						s.updateEntry(end);
+					}
+				}
+			}
+			List<JobInstanceFilter> filters = new ArrayList<>();
+			filters.add(new JobInstanceFilter());
+			JobInstanceFilter f = new JobInstanceFilter();
+			f.setExcludeJobName("job1");
+			f.setWithInput(true);
+			filters.add(f);
+			f = new JobInstanceFilter();
+			f.setIncludeJobNames("job1,job2");
+			f.setSuccessful(false);
+			filters.add(f);
+			f = new JobInstanceFilter();
+			f.setRunning(true);
+			f.setWorkItem("item1");
+			filters.add(f);
+			f = new JobInstanceFilter();
+			f.setTaskName("task2");
+			f.setReturnCode(0);
+			f.setWithOutput(false);
+			filters.add(f);
+			f = new JobInstanceFilter();
+			f.setAfterJobInstanceId(5l);
+			f.setBeforeJobInstanceId(20l);
+			f.setLimit(7);
+			filters.add(f);
+			for (JobInstanceFilter filter : filters) {
+				List<Long> expected = storage.selectIds(filter);
+				assertEquals("different result", expected, embedded.selectIds(filter));
+				if (filter.getLimit() != null) {
+					String cursor = storage.selectIds(filter, id -> {});
+					filter.setCursor(cursor);
+					assertEquals("different result after cursor", storage.selectIds(filter), embedded.selectIds(filter));
+				}
+			}
+		} finally {
+			embedded.close();
+			FileUtils.deleteDirectory(dir);
+		}
+	}
+
+	@Test
+	public void testRunningJobIndex() throws Exception {
+		Properties props = new Properties();
+		props.setProperty("runningIndexEnabled", "true");
+		createStorage(props);
+		for (int i = 0; i < 20; i++) {
+			JobInstanceStatus s = createStatus("job" + (i % 4));
+			s.setWorkItem("item" + (i % 3));
+			long id = storage.createEntry(s);
+			if (i % 3 == 0) {
+				storage.updateEntry(createEndStatus(id));
+			}
+		}
+		List<JobInstanceFilter> filters = new ArrayList<>();
+		JobInstanceFilter f = new JobInstanceFilter();
+		f.setRunning(true);
+		filters.add(f);
+		f = new JobInstanceFilter();
+		f.setRunning(true);
+		f.setIncludeJobNames("job1,job3");
+		f.setWorkItem("item2");
+		filters.add(f);
+		f = new JobInstanceFilter();
+		f.setRunning(true);
+		f.setExcludeJobName("job0");
+		f.setLimit(3);
+		filters.add(f);
+		Properties withoutIndex = new Properties();
+		withoutIndex.putAll(storage.getProperties());
+		withoutIndex.setProperty("runningIndexEnabled", "false");
+		JDBCJobInstanceStorage sqlStorage = new JDBCJobInstanceStorage();
+		sqlStorage.initialize(withoutIndex);
+		// a new index will be filled from the database
+		JDBCJobInstanceStorage seededStorage = new JDBCJobInstanceStorage();
+		seededStorage.initialize(storage.getProperties());
+		try {
+			for (JobInstanceFilter filter : filters) {
+				List<Long> expected = sqlStorage.selectIds(filter);
+				assertEquals("different result of the index", expected, storage.selectIds(filter));
+				assertEquals("different result of the seeded index", expected, seededStorage.selectIds(filter));
+			}
+			assertEquals("wrong number of running jobs", 13, storage.selectObjects(filters.get(0)).size());
+		} finally {
+			sqlStorage.close();
+			seededStorage.close();
+		}
+	}
+
+	@Test
+	public void testUpdateRollbackWithoutAutoCommit() throws Exception {
+		Properties props = new Properties();
+		props.setProperty("defaultAutoCommit", "false");
+		createStorage(props);
+		long id = storage.createEntry(createStatus("job1"));
+		assertEquals("insert not committed", 1, countRows("select count(*) from JOB_INSTANCE_STATUS"));
+		JobInstanceStatus end = createEndStatus(id);
+		// a too long counter name let the counter insert fail
+		end.addJobDetailCounter(new JobDetailCounter("x".repeat(200), "input", 1));
+		try {
+			storage.updateEntry(end);
+			assertTrue("update with invalid counter must fail", false);
+		} catch (Exception e) {
+			// expected
+		}
+		assertEquals("status update not rolled back", 0, countRows("select count(*) from JOB_INSTANCE_STATUS where JOB_ENDED_AT is not null"));
+		assertEquals("counters not rolled back", 0, countRows("select count(*) from JOB_INSTANCE_COUNTERS"));
+		storage.updateEntry(createEndStatus(id));
+		assertEquals("update not committed", 1, countRows("select count(*) from JOB_INSTANCE_STATUS where JOB_ENDED_AT is not null"));
+	}
+
+	@Test
+	public void testConcurrentUpdatesAtMaxTotal() throws Exception {
+		Properties props = new Properties();
+		props.setProperty("maxTotal", "2");
+		props.setProperty("maxIdle", "2");
+		// an update waiting for a second connection of the exhausted pool fails after maxWaitMillis
+		props.setProperty("maxWaitMillis", "3000");
+		createStorage(props);
+		int countThreads = 16;
+		int countUpdatesPerThread = 25;
+		List<Long> ids = new ArrayList<>();
+		for (int i = 0; i < countThreads * countUpdatesPerThread; i++) {
+			ids.add(storage.createEntry(createStatus("job" + (i % 10))));
+		}
+		ExecutorService pool = Executors.newFixedThreadPool(countThreads);
+		List<Future<?>> results = new ArrayList<>();
+		long start = System.currentTimeMillis();
+		for (int t = 0; t < countThreads; t++) {
+			final List<Long> threadIds = ids.subList(t * countUpdatesPerThread, (t + 1) * countUpdatesPerThread);
+			results.add(pool.submit(() -> {
+				for (Long id : threadIds) {
+					storage.updateEntry(createEndStatus(id));
+				}
+				return null;
+			}));
+		}
+		for (Future<?> f : results) {
+			// fails if an update could not get a connection within maxWaitMillis
+			f.get();
+		}
+		long duration = System.currentTimeMillis() - start;
+		pool.shutdown();
+		System.out.println(ids.size() + " updates with " + countThreads + " threads and maxTotal=2 took " + duration + "ms");
+		assertEquals("not all updated", ids.size(), countRows("select count(*) from JOB_INSTANCE_STATUS where JOB_ENDED_AT is not null"));
+		assertEquals("wrong number of counters", ids.size() * 2, countRows("select count(*) from JOB_INSTANCE_COUNTERS"));
+	}
+
+}
@@ -0,0 +1,84 @@
+package de.cimt.talendcomp.jobinstanceservice;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+public class TestJID {
+
+	@Test
+	public void testUniqueAcrossThreads() throws Exception {
+		final JID jid = new JID();
+		jid.setHostIndex((byte) 5);
+		int threads = 8;
+		int idsPerThread = 200000;
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Future<long[]>> futures = new ArrayList<>();
+		long start = System.currentTimeMillis();
+		for (int t = 0; t < threads; t++) {
+			futures.add(executor.submit(() -> {
+				long[] ids = new long[idsPerThread];
+				for (int i = 0; i < idsPerThread; i++) {
+					ids[i] = jid.createJID();
+				}
+				return ids;
+			}));
+		}
+		Set<Long> all = new HashSet<>(threads * idsPerThread * 2);
+		for (Future<long[]> f : futures) {
+			long[] ids = f.get();
+			for (int i = 0; i < ids.length; i++) {
+				if (i > 0) {
+					assertTrue("ids not ascending within a thread", ids[i] > ids[i - 1]);
+				}
+				assertTrue("duplicate id: " + ids[i], all.add(ids[i]));
+				assertEquals("wrong host index", 5, (ids[i] >> 8) & JID.mask8);
+			}
+		}
+		long duration = System.currentTimeMillis() - start;
+		executor.shutdown();
+		assertEquals(threads * idsPerThread, all.size());
+		System.out.println("Created " + all.size() + " unique ids in " + duration + "ms");
+	}
+
+	@Test
+	public void testClockRegression() throws Exception {
+		JID jid = new JID();
+		long now = System.currentTimeMillis();
+		jid.setStartDate(now);
+		long last = 0;
+		// more ids than the sequence of one millisecond can take
+		for (int i = 0; i < 1000; i++) {
+			long id = jid.createJID();
+			assertTrue("id not ascending", id > last);
+			last = id;
+		}
+		assertTrue("next millisecond not borrowed", JID.toMillis(last) > now);
+		jid.setStartDate(now - 60000);
+		long id = jid.createJID();
+		assertTrue("id went back with the clock", id > last);
+		assertEquals(now + 3, JID.toMillis(id));
+	}
+
+	@Test
+	public void testTimePart() throws Exception {
+		JID jid = new JID();
+		long now = System.currentTimeMillis();
+		jid.setStartDate(now);
+		long id = jid.createJID();
+		assertEquals(now, JID.toMillis(id));
+		assertEquals(now - JID.TIME_OFFSET, jid.getTimePart(id));
+		assertEquals(id, JID.fromMillis(now));
+		assertTrue(JID.fromMillis(now + 1) > id);
+	}
+
+}
@@ -47,7 +47,7 @@ public class TestJobInstanceStatus {
 		ObjectMapper mapper = new ObjectMapper();
 		String n = mapper.writeValueAsString(s);
 		System.out.println(n);
-		String expected = "{\"rootJob\":true,\"job_instance_id\":1000,\"root_job_instance_id\":0,\"job_guid\":\"123-456-789\",\"job_name\":\"TestJob\",\"project\":null,\"root_job_guid\":null,\"parent_job_guid\":null,\"job_info\":null,\"external_job_id\":null,\"task_name\":null,\"work_item\":null,\"job_result\":null,\"start_date\":" + ut + ",\"stop_date\":null,\"time_range_start\":null,\"time_range_end\":null,\"value_range_start\":null,\"value_range_end\":null,\"count_input\":0,\"count_output\":0,\"count_update\":0,\"count_reject\":0,\"count_delete\":0,\"host_name\":\"localhost\",\"host_pid\":0,\"host_user\":null,\"return_code\":0,\"return_message\":null,\"named-counters\":[{\"name\":\"mycounter1\",\"type\":\"input\",\"value\":999},{\"name\":\"mycounter2\",\"type\":\"output\",\"value\":111}]}";
+		String expected = "{\"rootJob\":true,\"job_instance_id\":1000,\"root_job_instance_id\":0,\"job_guid\":\"123-456-789\",\"job_name\":\"TestJob\",\"project\":null,\"root_job_guid\":null,\"parent_job_guid\":null,\"job_info\":null,\"external_job_id\":null,\"task_name\":null,\"work_item\":null,\"job_result\":null,\"start_date\":" + ut + ",\"stop_date\":null,\"time_range_start\":null,\"time_range_end\":null,\"value_range_start\":null,\"value_range_end\":null,\"count_input\":null,\"count_output\":null,\"count_update\":null,\"count_reject\":null,\"count_delete\":null,\"host_name\":\"localhost\",\"host_pid\":null,\"host_user\":null,\"return_code\":null,\"return_message\":null,\"named-counters\":[{\"name\":\"mycounter1\",\"type\":\"input\",\"value\":999},{\"name\":\"mycounter2\",\"type\":\"output\",\"value\":111}]}";
 		String actual = n;
 		assertEquals("Wrong json", expected, actual);
 	}
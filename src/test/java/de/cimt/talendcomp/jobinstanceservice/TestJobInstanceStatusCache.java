@@ -0,0 +1,84 @@
+package de.cimt.talendcomp.jobinstanceservice;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Date;
+
+import org.junit.Test;
+
+public class TestJobInstanceStatusCache {
+
+	private JobInstanceStatus createStatus(long id, boolean finished) {
+		JobInstanceStatus s = new JobInstanceStatus();
+		s.setJobInstanceId(id);
+		s.setName("job" + id);
+		s.setGuid("guid" + id);
+		s.setStartDate(new Date());
+		if (finished) {
+			s.setStopDate(new Date());
+		}
+		return s;
+	}
+
+	@Test
+	public void testEvictRunningEntriesFirst() {
+		JobInstanceStatusCache cache = new JobInstanceStatusCache(3, 1000000);
+		cache.put(createStatus(1, true));
+		cache.put(createStatus(2, false));
+		cache.put(createStatus(3, true));
+		cache.put(createStatus(4, false));
+		assertEquals("wrong size", 3, cache.size());
+		assertNotNull("finished entry evicted", cache.get(1));
+		assertNotNull("finished entry evicted", cache.get(3));
+		cache.put(createStatus(5, true));
+		assertEquals("wrong size", 3, cache.size());
+		// only finished entries are left, the least recently used is evicted
+		cache.put(createStatus(6, true));
+		assertNull("least recently used finished entry not evicted", cache.get(1));
+		assertNotNull("finished entry evicted", cache.get(5));
+	}
+
+	@Test
+	public void testRunningEntriesNotServed() {
+		JobInstanceStatusCache cache = new JobInstanceStatusCache(10, 1000000);
+		cache.put(createStatus(1, false));
+		assertEquals("running entry not cached", 1, cache.size());
+		assertNull("running entry served", cache.get(1));
+	}
+
+	@Test
+	public void testBoundedByBytes() {
+		// all entries have the same size
+		long entryBytes = JobInstanceStatusCache.estimateBytes(createStatus(100, true));
+		JobInstanceStatusCache cache = new JobInstanceStatusCache(1000, entryBytes * 10);
+		for (long id = 100; id < 200; id++) {
+			cache.put(createStatus(id, true));
+		}
+		assertTrue("max bytes exceeded", cache.getEstimatedBytes() <= entryBytes * 10);
+		assertEquals("wrong size", 10, cache.size());
+	}
+
+	@Test
+	public void testApplyUpdate() {
+		JobInstanceStatusCache cache = new JobInstanceStatusCache(10, 1000000);
+		cache.putCreated(createStatus(1, false));
+		assertNull("running entry served", cache.get(1));
+		JobInstanceStatus update = new JobInstanceStatus();
+		update.setJobInstanceId(1);
+		update.setCountInput(42);
+		update.setReturnCode(5);
+		Date endedAt = new Date();
+		cache.applyUpdate(update, endedAt, "failed");
+		JobInstanceStatus cached = cache.get(1);
+		assertEquals("wrong stop date", endedAt, cached.getStopDate());
+		assertEquals("wrong count_input", 42, cached.getCountInput().intValue());
+		assertEquals("wrong return message", "failed", cached.getReturnMessage());
+		assertEquals("wrong name", "job1", cached.getName());
+		cached.setName("changed");
+		assertEquals("cache changed by the returned object", "job1", cache.get(1).getName());
+	}
+
+}
@@ -0,0 +1,68 @@
+package de.cimt.talendcomp.jobinstanceservice;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class TestJobStatistics {
+
+	@Test
+	public void testQuantileSketchAccuracyAndMerge() {
+		QuantileSketch s1 = new QuantileSketch();
+		QuantileSketch s2 = new QuantileSketch();
+		for (int i = 1; i <= 10000; i++) {
+			if (i % 2 == 0) {
+				s1.add(i);
+			} else {
+				s2.add(i);
+			}
+		}
+		s1.merge(s2);
+		assertEquals("wrong count", 10000, s1.getCount());
+		assertEquals("wrong p50", 5000, s1.getQuantile(0.5), 5000 * 0.01);
+		assertEquals("wrong p95", 9500, s1.getQuantile(0.95), 9500 * 0.01);
+		assertEquals("wrong max", 10000, s1.getQuantile(1), 0);
+		assertEquals("wrong min", 1, s1.getQuantile(0), 0);
+	}
+
+	private JobInstanceStatus createEnded(String jobName, String workItem, long durationMillis, int returnCode, int input) {
+		JobInstanceStatus s = new JobInstanceStatus();
+		s.setName(jobName);
+		s.setWorkItem(workItem);
+		s.setStartDate(new Date(1000000));
+		s.setStopDate(new Date(1000000 + durationMillis));
+		s.setReturnCode(returnCode);
+		s.setCountInput(input);
+		return s;
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testGroupBy() {
+		JobStatistics stats = new JobStatistics();
+		for (int i = 1; i <= 100; i++) {
+			stats.entryEnded(createEnded("job1", "a", i * 1000, i <= 90 ? 0 : 1, i));
+			stats.entryEnded(createEnded("job2", "a", 5000, 0, 10));
+		}
+		stats.entryEnded(createEnded("job2", "b", 7000, 0, 10));
+		List<Map<String, Object>> byJob = stats.getStatistics(JobStatistics.GROUP_BY_JOB, new double[] {50, 95});
+		assertEquals("wrong number of groups", 2, byJob.size());
+		Map<String, Object> job1 = byJob.get(0);
+		assertEquals("job1", job1.get("job"));
+		assertEquals(100l, job1.get("count"));
+		assertEquals(0.9, (Double) job1.get("success_rate"), 0.0001);
+		long p95 = (Long) ((Map<String, Object>) job1.get("duration_ms")).get("p95");
+		assertTrue("wrong p95 duration: " + p95, Math.abs(p95 - 95000) <= 950);
+		assertEquals(101l, byJob.get(1).get("count"));
+		List<Map<String, Object>> byWorkItem = stats.getStatistics(JobStatistics.GROUP_BY_WORK_ITEM, new double[] {50});
+		assertEquals("wrong number of groups", 2, byWorkItem.size());
+		assertEquals(200l, byWorkItem.get(0).get("count"));
+		assertEquals("only combinations are kept", 3, stats.size());
+	}
+
+}
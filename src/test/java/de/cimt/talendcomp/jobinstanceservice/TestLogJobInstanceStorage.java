@@ -0,0 +1,152 @@
+package de.cimt.talendcomp.jobinstanceservice;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+public class TestLogJobInstanceStorage {
+
+	private LogJobInstanceStorage openStorage(File dir) throws Exception {
+		LogJobInstanceStorage storage = new LogJobInstanceStorage();
+		storage.setDataDir(dir.getAbsolutePath());
+		storage.setSegmentSize(4096);
+		storage.open();
+		return storage;
+	}
+
+	private JobInstanceStatus createStatus(String jobName) {
+		JobInstanceStatus s = new JobInstanceStatus();
+		s.setName(jobName);
+		s.setGuid(UUID.randomUUID().toString());
+		s.setStartDate(new Date());
+		s.setHostName("localhost");
+		return s;
+	}
+
+	private JobInstanceStatus createEndStatus(long jobInstanceId, int returnCode) {
+		JobInstanceStatus s = new JobInstanceStatus();
+		s.setJobInstanceId(jobInstanceId);
+		s.setStopDate(new Date());
+		s.setReturnCode(returnCode);
+		s.setCountInput(10);
+		s.addJobDetailCounter(new JobDetailCounter("counter1", "input", 10));
+		return s;
+	}
+
+	@Test
+	public void testAccumulateCounters() throws Exception {
+		File dir = Files.createTempDirectory("embedded").toFile();
+		try {
+			LogJobInstanceStorage storage = openStorage(dir);
+			long id = storage.createEntry(createStatus("job1"));
+			for (int i = 0; i < 10; i++) {
+				List<JobDetailCounter> increments = new ArrayList<>();
+				increments.add(new JobDetailCounter("counter1", "input", 1));
+				increments.add(new JobDetailCounter("progress", "input", 2));
+				storage.accumulateCounters(id, increments);
+			}
+			// the final counter1 replaces the accumulated total
+			storage.updateEntry(createEndStatus(id, 0));
+			storage.close();
+			storage = openStorage(dir);
+			List<JobDetailCounter> counters = storage.getCounters(id);
+			assertEquals("wrong number of counters", 2, counters.size());
+			for (JobDetailCounter c : counters) {
+				assertEquals("wrong value of " + c.getName(), c.getName().equals("counter1") ? 10 : 20, c.getValue().intValue());
+			}
+			storage.close();
+		} finally {
+			FileUtils.deleteDirectory(dir);
+		}
+	}
+
+	@Test
+	public void testReplayAfterRestart() throws Exception {
+		File dir = Files.createTempDirectory("embedded").toFile();
+		try {
+			LogJobInstanceStorage storage = openStorage(dir);
+			JobInstanceStatus root = createStatus("root");
+			long rootId = storage.createEntry(root);
+			for (int i = 0; i < 50; i++) {
+				JobInstanceStatus child = createStatus("child" + (i % 5));
+				child.setRootJobGuid(root.getGuid());
+				long id = storage.createEntry(child);
+				if (i % 2 == 0) {
+					storage.updateEntry(createEndStatus(id, i % 4 == 0 ? 0 : 1));
+				}
+			}
+			storage.close();
+			assertTrue("no segment rollover", dir.list().length > 1);
+			// simulate a crash while a record was written
+			File[] segments = dir.listFiles();
+			File lastSegment = segments[0];
+			for (File f : segments) {
+				if (f.getName().compareTo(lastSegment.getName()) > 0) {
+					lastSegment = f;
+				}
+			}
+			try (FileOutputStream out = new FileOutputStream(lastSegment, true)) {
+				out.write(new byte[] {0, 0, 1, 0, 1, 2, 3});
+			}
+			storage = openStorage(dir);
+			assertEquals("wrong root job", rootId, storage.getJobInstanceIdByJobGuid(root.getGuid()));
+			JobInstanceFilter filter = new JobInstanceFilter();
+			filter.setRootJobInstanceId(rootId);
+			assertEquals("wrong number of children", 50, storage.selectIds(filter).size());
+			filter.setIncludeJobNames("child0, child1");
+			filter.setSuccessful(true);
+			assertEquals("wrong number of successful children", 5, storage.selectIds(filter).size());
+			filter = new JobInstanceFilter();
+			filter.setRunning(true);
+			assertEquals("wrong number of running jobs", 26, storage.selectIds(filter).size());
+			assertEquals("counters not replayed", 1, storage.getCounters(rootId + 1).size());
+			long nextId = storage.createEntry(createStatus("job"));
+			assertEquals("job_instance_id not continued", rootId + 51, nextId);
+			storage.close();
+			storage = openStorage(dir);
+			assertEquals("entry written after the cut off record not found", "job", storage.getJobInstanceStatus(nextId).getName());
+			assertNull("unknown entry found", storage.getJobInstanceStatus(nextId + 1));
+			storage.close();
+		} finally {
+			FileUtils.deleteDirectory(dir);
+		}
+	}
+
+	@Test
+	public void testWriteThroughput() throws Exception {
+		File dir = Files.createTempDirectory("embedded").toFile();
+		try {
+			LogJobInstanceStorage storage = new LogJobInstanceStorage();
+			storage.setDataDir(dir.getAbsolutePath());
+			storage.open();
+			int count = 20000;
+			long start = System.nanoTime();
+			for (int i = 0; i < count; i++) {
+				long id = storage.createEntry(createStatus("job" + (i % 10)));
+				storage.updateEntry(createEndStatus(id, 0));
+			}
+			long durationMillis = Math.max(1, (System.nanoTime() - start) / 1000000);
+			System.out.println(count + " creates and updates in the embedded storage took " + durationMillis + "ms (" + (count * 1000l / durationMillis) + " jobs/s)");
+			JobInstanceFilter filter = new JobInstanceFilter();
+			filter.setIncludeJobNames("job3");
+			filter.setLimit(100);
+			List<JobInstanceStatus> page = storage.selectObjects(filter);
+			assertEquals("wrong page size", 100, page.size());
+			storage.close();
+		} finally {
+			FileUtils.deleteDirectory(dir);
+		}
+	}
+
+}
@@ -0,0 +1,93 @@
+package de.cimt.talendcomp.jobinstanceservice;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class TestQueryCoalescer {
+
+	@Test
+	public void testConcurrentQueriesShareOneExecution() throws Exception {
+		QueryCoalescer coalescer = new QueryCoalescer();
+		AtomicInteger executions = new AtomicInteger();
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(10);
+		List<Future<QueryCoalescer.Result>> futures = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			futures.add(executor.submit(() -> coalescer.execute("same", () -> {
+				executions.incrementAndGet();
+				started.countDown();
+				release.await(10, TimeUnit.SECONDS);
+				return new QueryCoalescer.Result(new byte[] {'[', ']'}, Collections.singletonMap("total-rows", "0"));
+			})));
+		}
+		assertTrue("query not started", started.await(10, TimeUnit.SECONDS));
+		// give the other requests the time to join the running query
+		Thread.sleep(200);
+		release.countDown();
+		QueryCoalescer.Result first = futures.get(0).get();
+		for (Future<QueryCoalescer.Result> f : futures) {
+			assertSame("result not shared", first, f.get());
+		}
+		executor.shutdown();
+		assertEquals("identical queries executed more than once", 1, executions.get());
+		// without microcache the next query runs again
+		coalescer.execute("same", () -> {
+			executions.incrementAndGet();
+			return new QueryCoalescer.Result(new byte[0], Collections.emptyMap());
+		});
+		assertEquals("finished query reused without microcache", 2, executions.get());
+	}
+
+	@Test
+	public void testMicrocacheAndInvalidate() throws Exception {
+		QueryCoalescer coalescer = new QueryCoalescer();
+		coalescer.setCacheMillis(10000l);
+		AtomicInteger executions = new AtomicInteger();
+		for (int i = 0; i < 3; i++) {
+			coalescer.execute("key", () -> {
+				executions.incrementAndGet();
+				return new QueryCoalescer.Result(new byte[0], Collections.emptyMap());
+			});
+		}
+		assertEquals("result not cached", 1, executions.get());
+		coalescer.execute("other", () -> {
+			executions.incrementAndGet();
+			return new QueryCoalescer.Result(new byte[0], Collections.emptyMap());
+		});
+		assertEquals("different key must run its own query", 2, executions.get());
+		coalescer.invalidate();
+		coalescer.execute("key", () -> {
+			executions.incrementAndGet();
+			return new QueryCoalescer.Result(new byte[0], Collections.emptyMap());
+		});
+		assertEquals("cached result used after a write", 3, executions.get());
+	}
+
+	@Test
+	public void testFilterKeyIgnoresParameterOrder() {
+		JobInstanceFilter f1 = new JobInstanceFilter();
+		f1.setTaskName("task");
+		f1.setRunning(false);
+		JobInstanceFilter f2 = new JobInstanceFilter();
+		f2.setRunning(false);
+		f2.setTaskName("task");
+		assertEquals("identical filters have different keys", f1.buildKey(), f2.buildKey());
+		f2.setLimit(10);
+		assertTrue("different filters have the same key", f1.buildKey().equals(f2.buildKey()) == false);
+	}
+
+}
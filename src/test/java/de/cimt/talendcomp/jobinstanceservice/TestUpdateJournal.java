@@ -0,0 +1,106 @@
+package de.cimt.talendcomp.jobinstanceservice;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.sql.SQLException;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class TestUpdateJournal {
+
+	private volatile boolean databaseAvailable = false;
+	private List<Long> updatedIds = new CopyOnWriteArrayList<>();
+	// jobs ended before the crash but not checkpointed
+	private Set<Long> endedIds = new HashSet<>();
+	private long invalidId = -1;
+
+	private JobInstanceStorage createStorage() {
+		return (JobInstanceStorage) Proxy.newProxyInstance(
+				getClass().getClassLoader(),
+				new Class<?>[] {JobInstanceStorage.class},
+				(proxy, method, args) -> {
+					if (method.getName().equals("updateEntry")) {
+						long id = ((JobInstanceStatus) args[0]).getJobInstanceId();
+						if (databaseAvailable == false) {
+							throw new SQLException("database not available", "08001");
+						}
+						if (id == invalidId) {
+							throw new SQLException("value too long", "22001");
+						}
+						updatedIds.add(id);
+						return null;
+					} else if (method.getName().equals("getJobInstanceStatus")) {
+						JobInstanceStatus status = new JobInstanceStatus();
+						status.setJobInstanceId((Long) args[0]);
+						if (endedIds.contains(args[0])) {
+							status.setStopDate(new Date());
+						}
+						return status;
+					}
+					throw new UnsupportedOperationException(method.getName());
+				});
+	}
+
+	private String buildPayload(long id) {
+		return "{\"job_instance_id\":" + id + ",\"stop_date\":" + System.currentTimeMillis() + ",\"return_code\":0,\"return_message\":\"" + "x".repeat(200) + "\"}";
+	}
+
+	private void waitUntilDrained(UpdateJournal journal) throws Exception {
+		for (int i = 0; i < 100 && journal.isDrained() == false; i++) {
+			Thread.sleep(50);
+		}
+	}
+
+	@Test
+	public void testReplayAfterRestart() throws Exception {
+		File dir = Files.createTempDirectory("journal").toFile();
+		try {
+			JobInstanceStorage storage = createStorage();
+			ObjectMapper mapper = new ObjectMapper();
+			UpdateJournal journal = new UpdateJournal(dir.getAbsolutePath(), storage, mapper);
+			journal.setSegmentSize(2048);
+			journal.setRetryIntervalMillis(20l);
+			journal.start();
+			int countEntries = 50;
+			for (long id = 1; id <= countEntries; id++) {
+				journal.append(buildPayload(id));
+			}
+			Thread.sleep(100);
+			journal.stop();
+			assertEquals("entries written while the database was not available", 0, updatedIds.size());
+			assertTrue("no segment rollover", dir.list().length > 2);
+			// restart with an available database, all entries must be replayed in order
+			// except the already ended jobs and the entry failing with a data error
+			databaseAvailable = true;
+			endedIds.add(1l);
+			endedIds.add(2l);
+			invalidId = 3;
+			journal = new UpdateJournal(dir.getAbsolutePath(), storage, mapper);
+			journal.setSegmentSize(2048);
+			journal.start();
+			waitUntilDrained(journal);
+			journal.stop();
+			assertEquals("wrong number of replayed entries", countEntries - 3, updatedIds.size());
+			for (int i = 0; i < countEntries - 3; i++) {
+				assertEquals("wrong order", i + 4, updatedIds.get(i).longValue());
+			}
+			// drained segments are deleted, only the current segment and the checkpoint remains
+			assertEquals("drained segments not deleted", 2, dir.list().length);
+		} finally {
+			FileUtils.deleteDirectory(dir);
+		}
+	}
+
+}